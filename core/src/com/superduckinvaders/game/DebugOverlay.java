@@ -0,0 +1,72 @@
+package com.superduckinvaders.game;
+
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.superduckinvaders.game.assets.Assets;
+import com.superduckinvaders.game.metrics.MetricsReport;
+
+/**
+ * Draws the engine's metrics over the game, toggled with F3.
+ */
+public class DebugOverlay {
+
+    /**
+     * The time between refreshing the metrics, in seconds. Percentiles need more than a frame or two of values.
+     */
+    private static final float REFRESH_INTERVAL = 0.25f;
+
+    /**
+     * The gap between the text and the top left of the screen.
+     */
+    private static final float OFFSET = 5;
+
+    private final MetricsReport report;
+
+    /**
+     * The text last drawn, kept between refreshes.
+     */
+    private CharSequence text = "";
+
+    /**
+     * The time since the metrics were last refreshed, in seconds.
+     */
+    private float sinceRefresh = 0;
+
+    private boolean visible = false;
+
+    public DebugOverlay(Engine engine) {
+        report = new MetricsReport(engine);
+    }
+
+    /**
+     * Shows this DebugOverlay if it is hidden and hides it otherwise. Starts a fresh window of metrics when shown.
+     */
+    public void toggle() {
+        visible = !visible;
+
+        if (visible) {
+            text = report.update();
+            sinceRefresh = 0;
+        }
+    }
+
+    /**
+     * Draws the metrics, refreshing them if due. The batch must already be using the UI projection.
+     *
+     * @param batch  the batch to draw on
+     * @param delta  the time since the last frame
+     * @param height the height of the screen
+     */
+    public void render(SpriteBatch batch, float delta, float height) {
+        if (!visible)
+            return;
+
+        sinceRefresh += delta;
+
+        if (sinceRefresh >= REFRESH_INTERVAL) {
+            text = report.update();
+            sinceRefresh = 0;
+        }
+
+        Assets.font.draw(batch, text, OFFSET, height - OFFSET);
+    }
+}
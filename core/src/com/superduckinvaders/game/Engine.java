@@ -1,28 +1,53 @@
 package com.superduckinvaders.game;
 
-import com.badlogic.gdx.graphics.Color;
 import com.superduckinvaders.game.entity.Entity;
+import com.superduckinvaders.game.metrics.Metrics;
+import com.superduckinvaders.game.metrics.MetricsDumper;
+import com.superduckinvaders.game.net.Capabilities;
+import com.superduckinvaders.game.net.ClockEstimator;
 import com.superduckinvaders.game.net.ConnectionHandler;
+import com.superduckinvaders.game.net.DatagramConnection;
+import com.superduckinvaders.game.net.EntityStateTable;
 import com.superduckinvaders.game.net.InboundPacketDecoder;
+import com.superduckinvaders.game.net.OutboundFlusher;
 import com.superduckinvaders.game.net.OutboundPacketEncoder;
+import com.superduckinvaders.game.net.PacketCoalescer;
+import com.superduckinvaders.game.net.PacketDispatcher;
+import com.superduckinvaders.game.net.PacketHandler;
+import com.superduckinvaders.game.net.PacketScheduler;
+import com.superduckinvaders.game.net.Pinger;
+import com.superduckinvaders.game.net.PositionCodec;
+import com.superduckinvaders.game.net.RingBuffer;
+import com.superduckinvaders.game.net.SessionRecorder;
+import com.superduckinvaders.game.net.SessionReplayer;
+import com.superduckinvaders.game.net.Transport;
 import com.superduckinvaders.game.net.packets.InboundPacket;
 import com.superduckinvaders.game.net.packets.OutboundPacket;
+import com.superduckinvaders.game.net.packets.Snapshot;
+import com.superduckinvaders.game.net.packets.ViewportOutboundPacket;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class Engine {
 
     /**
-     * The parent game instance.
+     * The world the server's updates are applied to.
      */
-    private final SuperDuckInvaders parent;
+    private final World world;
+
+    /**
+     * Receives the events that concern whatever is showing the game.
+     */
+    private final EngineListener listener;
 
     /**
      * The inetHost of the server to connect to.
@@ -34,112 +59,832 @@ public class Engine {
      */
     private final int inetPort;
 
+    /**
+     * The engine settings.
+     */
+    private final EngineConfiguration config;
+
+    /**
+     * The Netty transport in use.
+     */
+    private final Transport transport;
+
     /**
      * The event loop for non-blocking networking.
      */
     private final EventLoopGroup workerGroup;
 
     /**
-     * Connection channel to the server.
+     * Whether the event loop group belongs to this engine, rather than being shared with others.
+     */
+    private final boolean ownsWorkerGroup;
+
+    /**
+     * Whether this engine has stopped for good.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Connects to the server, and reconnects after the connection is lost.
      */
-    private Channel channel;
+    private Bootstrap bootstrap;
 
     /**
-     * The queue of inbound packets.
+     * Connection channel to the server, or null while not connected.
      */
-    private final Queue<InboundPacket> inbound = new ConcurrentLinkedQueue<InboundPacket>();
+    private volatile Channel channel;
 
     /**
-     * The queue of outbound packets.
+     * The token identifying this client's session to the server, or 0 if there is no session to resume.
      */
-    private final Queue<OutboundPacket> outbound = new ConcurrentLinkedQueue<OutboundPacket>();
+    private volatile long sessionToken = 0;
 
-    public Engine(SuperDuckInvaders parent, String inetHost, int inetPort) {
-        this.parent = parent;
+    /**
+     * How many times reconnecting has been tried since the connection was lost, or 0 if the session was resumed.
+     */
+    private volatile int reconnectAttempts = 0;
+
+    /**
+     * Writes queued outbound packets on the event loop.
+     */
+    private volatile OutboundFlusher flusher;
+
+    /**
+     * The decoder for the TCP channel.
+     */
+    private volatile InboundPacketDecoder decoder;
+
+    /**
+     * When connecting started, and when the first game frame was drawn, in nanoseconds.
+     */
+    private long connectTime, firstFrameTime;
+
+    /**
+     * Records the bytes received from the server, or null if not recording.
+     */
+    private SessionRecorder recorder;
+
+    /**
+     * Plays back a recording instead of connecting to the server, or null if connected to the server.
+     */
+    private SessionReplayer replayer;
+
+    /**
+     * The optional UDP channel for frequent state updates, or null if not in use.
+     */
+    private volatile DatagramConnection datagrams;
+
+    /**
+     * The queue of inbound packets, from the event loop to the render thread.
+     */
+    private final RingBuffer<InboundPacket> inbound;
+
+    /**
+     * Packets read from the server after the inbound queue filled, waiting on the event loop for space. Only used
+     * by the BLOCK policy, and only touched by the event loop.
+     */
+    private final ArrayDeque<InboundPacket> suspended = new ArrayDeque<InboundPacket>();
+
+    /**
+     * The channel that stopped reading when the inbound queue filled, or null if reading is not suspended.
+     */
+    private volatile Channel suspendedChannel;
+
+    /**
+     * Moves suspended packets into the inbound queue on the event loop, and reads again once they all fit.
+     */
+    private final Runnable resumeReading = new Runnable() {
+        @Override
+        public void run() {
+            resumeReading();
+        }
+    };
+
+    /**
+     * The queue of outbound packets, from the render thread to the channel.
+     */
+    private final RingBuffer<OutboundPacket> outbound;
+
+    /**
+     * Discards inbound state updates superseded within the same frame.
+     */
+    private final PacketCoalescer coalescer;
+
+    /**
+     * Orders each frame's inbound packets by priority, for applying them within the time budget.
+     */
+    private final PacketScheduler scheduler;
+
+    /**
+     * The latest state of each entity, decoded on the event loop, or null if entity packets are queued as usual.
+     */
+    private final EntityStateTable states;
+
+    /**
+     * Passes each inbound packet to the handler for its type.
+     */
+    private final PacketDispatcher dispatcher = new PacketDispatcher();
+
+    /**
+     * The last position received for each entity, for decoding position deltas.
+     */
+    private final PositionCodec positions = new PositionCodec(World.MAX_ENTITIES);
+
+    /**
+     * The optional protocol features the server agreed to use on this connection.
+     */
+    private int capabilities = 0;
+
+    /**
+     * The time the packet being processed arrived, in nanoseconds.
+     */
+    private long packetTime;
+
+    /**
+     * Whether the packet being processed arrived over TCP.
+     */
+    private boolean packetReliable;
+
+    /**
+     * Estimates the round trip time and the server's clock from PONG packets.
+     */
+    private final ClockEstimator clock;
+
+    /**
+     * The camera rectangle last reported to the server, and whether one has been reported on this connection.
+     */
+    private float viewportX, viewportY, viewportWidth, viewportHeight;
+    private boolean viewportSent = false;
+
+    /**
+     * The tick number of the latest snapshot received.
+     */
+    private volatile int tick = -1;
+
+    /**
+     * Counters and timings for the network and each frame.
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * Writes the metrics to a file, or null if not configured.
+     */
+    private MetricsDumper metricsDumper;
+
+    /**
+     * Creates a new Engine with its own event loop group.
+     *
+     * @param world    the world to apply the server's updates to
+     * @param listener receives the events that concern whatever is showing the game
+     * @param inetHost the host of the server
+     * @param inetPort the port of the server
+     * @param config   the engine settings
+     */
+    public Engine(World world, EngineListener listener, String inetHost, int inetPort, EngineConfiguration config) {
+        this(world, listener, inetHost, inetPort, config, null);
+    }
+
+    /**
+     * Creates a new Engine, sharing an event loop group with others if one is specified. A shared group is left
+     * running when this engine stops.
+     *
+     * @param world       the world to apply the server's updates to
+     * @param listener    receives the events that concern whatever is showing the game
+     * @param inetHost    the host of the server
+     * @param inetPort    the port of the server
+     * @param config      the engine settings
+     * @param workerGroup the event loop group to share, which must suit the configured transport, or null to create
+     *                    one
+     */
+    public Engine(World world, EngineListener listener, String inetHost, int inetPort, EngineConfiguration config,
+                  EventLoopGroup workerGroup) {
+        this.world = world;
+        this.listener = listener;
         this.inetHost = inetHost;
         this.inetPort = inetPort;
+        this.config = config;
+
+        inbound = new RingBuffer<InboundPacket>(config.inboundCapacity);
+        outbound = new RingBuffer<OutboundPacket>(config.outboundCapacity);
+        coalescer = new PacketCoalescer(inbound.capacity(), World.MAX_ENTITIES);
+        scheduler = new PacketScheduler(coalescer, inbound.capacity(), World.MAX_ENTITIES);
+        clock = new ClockEstimator(config.pingWindow);
+        states = config.directState ? new EntityStateTable(World.MAX_ENTITIES) : null;
+
+        world.getPredictor().setErrors(metrics.getPredictionError());
 
-        workerGroup = new NioEventLoopGroup();
+        registerHandlers();
+
+        transport = Transport.select(config.nativeTransport);
+
+        ownsWorkerGroup = workerGroup == null;
+        this.workerGroup = ownsWorkerGroup ? transport.newEventLoopGroup(config.eventLoopThreads) : workerGroup;
     }
 
     /**
-     * Connect to the server.
+     * Connect to the server, or start replaying a recording if one is configured. Does not block, so that many
+     * engines sharing an event loop group can connect while others are running.
      */
     public void connect() {
-        Bootstrap b = new Bootstrap();
-        b.group(workerGroup)
-                .channel(NioSocketChannel.class)
+        connectTime = System.nanoTime();
+
+        if (config.metricsFile != null) {
+            try {
+                metricsDumper = new MetricsDumper(this, new File(config.metricsFile));
+                metricsDumper.start(config.metricsInterval);
+            } catch (IOException ex) {
+                exceptionCaught("Could not write metrics to " + config.metricsFile + ": " + ex.getMessage());
+                return;
+            }
+        }
+
+        if (config.replayFile != null) {
+            replay();
+            return;
+        }
+
+        if (config.recordFile != null) {
+            try {
+                recorder = new SessionRecorder(new File(config.recordFile), getOfferedCapabilities());
+            } catch (IOException ex) {
+                exceptionCaught("Could not record to " + config.recordFile + ": " + ex.getMessage());
+                return;
+            }
+        }
+
+        bootstrap = new Bootstrap();
+        bootstrap.group(workerGroup)
+                .channel(transport.getSocketChannelClass())
                 .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, config.tcpNoDelay)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
+                        // Lower the low mark first, as each mark is checked against the other when set.
+                        ch.config().setWriteBufferLowWaterMark(0);
+                        ch.config().setWriteBufferHighWaterMark(config.writeBufferHighWaterMark);
+                        ch.config().setWriteBufferLowWaterMark(config.writeBufferLowWaterMark);
+
                         ChannelPipeline pipeline = ch.pipeline();
 
-                        pipeline.addLast(new InboundPacketDecoder());
-                        pipeline.addLast(new OutboundPacketEncoder());
+                        // The recorder sees the bytes before the decoder.
+                        if (recorder != null)
+                            pipeline.addLast(recorder);
 
-                        pipeline.addLast(new ConnectionHandler(Engine.this));
+                        pipeline.addLast(newPipelineHandlers());
                     }
                 });
 
+        bootstrap.connect(inetHost, inetPort).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess())
+                    exceptionCaught(future.cause().getMessage());
+            }
+        });
+    }
+
+    /**
+     * Starts replaying the configured recording on its own thread.
+     */
+    private void replay() {
         try {
-            channel = b.connect(inetHost, inetPort).sync().channel();
-            channel.closeFuture().addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-        } catch (Exception ex) {
+            replayer = new SessionReplayer(this, new File(config.replayFile), config.replaySpeed);
+        } catch (IOException ex) {
             exceptionCaught(ex.getMessage());
+            return;
+        }
+
+        Thread thread = new Thread(replayer, "replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates the handlers that decode, encode and handle packets for a new channel, which must be added in order.
+     *
+     * @return the handlers
+     */
+    public ChannelHandler[] newPipelineHandlers() {
+        // The table must know what may be agreed to before the handshake arrives.
+        if (states != null)
+            states.setOfferedCapabilities(getOfferedCapabilities());
+
+        decoder = new InboundPacketDecoder(metrics, states);
+
+        return new ChannelHandler[]{decoder, new OutboundPacketEncoder(metrics), new ConnectionHandler(this)};
+    }
+
+    /**
+     * Returns the counters and timings for the network and each frame.
+     *
+     * @return the metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the session replayer, for inspecting how far it has got.
+     *
+     * @return the replayer, or null if not replaying
+     */
+    public SessionReplayer getReplayer() {
+        return replayer;
+    }
+
+    /**
+     * Returns the session recorder, for inspecting how much it has recorded.
+     *
+     * @return the recorder, or null if not recording
+     */
+    public SessionRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Called from the event loop once a connection is active and the handshake has been written, so that queued
+     * outbound packets are only written after it.
+     *
+     * @param channel the new channel
+     */
+    public void connectionEstablished(Channel channel) {
+        this.channel = channel;
+
+        // Nothing is sent while replaying, and updateOutbound discards the outbound queue instead.
+        if (replayer != null)
+            return;
+
+        flusher = new OutboundFlusher(channel, outbound);
+
+        channel.closeFuture().addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        flusher.schedule();
+    }
+
+    /**
+     * Called from the event loop when a channel closes or fails. Tries to resume the session if there is one, or
+     * returns to the start screen otherwise.
+     *
+     * @param lost    the channel that was lost
+     * @param message the reason the channel was lost
+     */
+    public void connectionLost(Channel lost, String message) {
+        // Ignore channels already dealt with, such as one closed by disconnect().
+        if (lost != channel)
+            return;
+
+        channel = null;
+        flusher = null;
+
+        // The server sends a new DATAGRAM_SETUP after the next handshake.
+        if (datagrams != null) {
+            datagrams.close();
+            datagrams = null;
+        }
+
+        if (sessionToken != 0 && replayer == null && reconnectAttempts < config.reconnectAttempts) {
+            scheduleReconnect();
+        } else {
+            exceptionCaught(message);
         }
     }
 
+    /**
+     * Schedules the next reconnection attempt, with an exponentially increasing delay and some jitter so that many
+     * clients dropped at once don't all reconnect at once.
+     */
+    private void scheduleReconnect() {
+        long delay = Math.min((long) config.reconnectInitialDelay << Math.min(reconnectAttempts, 16),
+                config.reconnectMaxDelay);
+        delay = delay / 2 + (long) (Math.random() * (delay / 2 + 1));
+
+        reconnectAttempts++;
+        workerGroup.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes one reconnection attempt. Runs on the event loop, so must not block.
+     */
+    private void reconnect() {
+        if (isClosed())
+            return;
+
+        bootstrap.connect(inetHost, inetPort).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess())
+                    return;
+
+                if (reconnectAttempts < config.reconnectAttempts) {
+                    scheduleReconnect();
+                } else {
+                    exceptionCaught("Could not reconnect");
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns whether the connection was lost and is being re-established.
+     *
+     * @return true if reconnecting
+     */
+    public boolean isReconnecting() {
+        return channel == null && reconnectAttempts > 0;
+    }
+
+    /**
+     * Returns the token to present to the server to resume the session after reconnecting.
+     *
+     * @return the session token, or 0 if there is no session to resume
+     */
+    public long getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Returns the Netty transport in use.
+     *
+     * @return the transport
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the engine settings.
+     *
+     * @return the engine settings
+     */
+    public EngineConfiguration getConfiguration() {
+        return config;
+    }
+
+    /**
+     * Queues an inbound packet for processing on the render thread. Called from the event loop.
+     *
+     * @param packet the packet to queue
+     */
     public void enqueueInbound(InboundPacket packet) {
-        inbound.add(packet);
+        // Keep to the order packets arrived in while reading is suspended.
+        if (!suspended.isEmpty()) {
+            suspendReading(packet);
+            return;
+        }
+
+        while (!inbound.offer(packet)) {
+            switch (config.inboundOverflowPolicy) {
+                case BLOCK:
+                    if (replayer == null) {
+                        suspendReading(packet);
+                        return;
+                    }
+
+                    // The replay thread is not an event loop, so it can wait for the render thread to catch up.
+                    if (isClosed()) {
+                        packet.release();
+                        return;
+                    }
+
+                    LockSupport.parkNanos(100000);
+                    break;
+                case DROP_OLDEST:
+                    InboundPacket dropped = inbound.poll();
+
+                    if (dropped != null)
+                        dropped.release();
+                    break;
+                case DISCONNECT:
+                    packet.release();
+                    disconnect("Inbound queue overflow");
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Holds on to a packet that doesn't fit in the inbound queue, and stops reading from the server until the render
+     * thread makes space, as the event loop must never wait. A datagram is dropped instead, like any other lost
+     * datagram. Called from the event loop.
+     *
+     * @param packet the packet that didn't fit
+     */
+    private void suspendReading(InboundPacket packet) {
+        Channel channel = this.channel;
+
+        if (!packet.isReliable() || channel == null) {
+            packet.release();
+            return;
+        }
+
+        suspended.add(packet);
+
+        if (suspendedChannel == null) {
+            channel.config().setAutoRead(false);
+            suspendedChannel = channel;
+        }
+    }
+
+    /**
+     * Moves suspended packets into the inbound queue, and starts reading from the server again once they all fit.
+     * Called from the event loop after the render thread drains the queue.
+     */
+    private void resumeReading() {
+        Channel channel = suspendedChannel;
+
+        if (channel == null)
+            return;
+
+        InboundPacket packet;
+
+        while ((packet = suspended.peek()) != null) {
+            if (isClosed()) {
+                packet.release();
+            } else if (!inbound.offer(packet)) {
+                return;
+            }
+
+            suspended.poll();
+        }
+
+        suspendedChannel = null;
+        channel.config().setAutoRead(true);
     }
 
+    /**
+     * Queues an outbound packet to be written at the end of the frame. Called from the render thread.
+     *
+     * @param packet the packet to queue
+     */
     public void enqueueOutbound(OutboundPacket packet) {
-        outbound.add(packet);
+        while (!outbound.offer(packet)) {
+            switch (config.outboundOverflowPolicy) {
+                case BLOCK:
+                    // Wait for the event loop to write, which stalls while the server isn't reading.
+                    if (flusher == null || isClosed()) {
+                        packet.release();
+                        return;
+                    }
+
+                    flusher.schedule();
+                    LockSupport.parkNanos(100000);
+                    break;
+                case DROP_OLDEST:
+                    OutboundPacket dropped = outbound.poll();
+
+                    if (dropped != null)
+                        dropped.release();
+                    break;
+                case DISCONNECT:
+                    packet.release();
+                    disconnect("Outbound queue overflow");
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Returns the queue of inbound packets, for inspecting its occupancy.
+     *
+     * @return the inbound queue
+     */
+    public RingBuffer<InboundPacket> getInboundQueue() {
+        return inbound;
+    }
+
+    /**
+     * Returns the inbound packet coalescer, for inspecting how many updates it has eliminated.
+     *
+     * @return the inbound packet coalescer
+     */
+    public PacketCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Returns the decoder for the TCP channel, for inspecting how well COMPRESSED packets compress.
+     *
+     * @return the decoder, or null if not connected
+     */
+    public InboundPacketDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Called after each game frame is drawn, to record how long the first took to arrive.
+     */
+    public void frameRendered() {
+        if (firstFrameTime == 0)
+            firstFrameTime = System.nanoTime();
+    }
+
+    /**
+     * Returns the time between starting to connect and drawing the first game frame.
+     *
+     * @return the time to first frame in nanoseconds, or -1 if no game frame has been drawn
+     */
+    public long getTimeToFirstFrame() {
+        return firstFrameTime == 0 ? -1 : firstFrameTime - connectTime;
+    }
+
+    /**
+     * Returns the outbound flusher, for inspecting how many writes and flushes it has made.
+     *
+     * @return the outbound flusher, or null if not connected
+     */
+    public OutboundFlusher getFlusher() {
+        return flusher;
+    }
+
+    /**
+     * Called from the event loop when the channel crosses a write buffer water mark.
+     *
+     * @param writable whether the channel is now below the low water mark
+     */
+    public void writabilityChanged(boolean writable) {
+        OutboundFlusher flusher = this.flusher;
+
+        // Write whatever queued up while the channel was full.
+        if (writable && flusher != null)
+            flusher.schedule();
+    }
+
+    /**
+     * Returns the queue of outbound packets, for inspecting its occupancy.
+     *
+     * @return the outbound queue
+     */
+    public RingBuffer<OutboundPacket> getOutboundQueue() {
+        return outbound;
+    }
+
+    /**
+     * Returns the table of inbound packet handlers, for handling further packet types or replacing the engine's own
+     * handlers. Handlers should be registered before connecting, as packets are handled on the render thread.
+     *
+     * @return the packet dispatcher
+     */
+    public PacketDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the table packets about entities are decoded into on the event loop.
+     *
+     * @return the entity state table, or null if not in use
+     */
+    public EntityStateTable getStateTable() {
+        return states;
     }
 
     private void processInbound(InboundPacket packet) {
-        ByteBuf payload = packet.getPayload();
-
-        switch (packet.getType()) {
-            case WAITING:
-                processWaiting(payload);
-                break;
-            case START:
-                processStart(payload);
-                break;
-            case CREATE:
-                processCreate(payload);
-                break;
-            case DESTROY:
-                processDestroy(payload);
-                break;
-            case POSITION:
-                processPosition(payload);
-                break;
-            case DIRECTION:
-                processDirection(payload);
-                break;
-            case TEXTURE:
-                processTexture(payload);
-                break;
-            case INTERFACE:
-                processInterface(payload);
-                break;
-        }
+        packetTime = packet.getTimestamp();
+        packetReliable = packet.isReliable();
+
+        dispatcher.dispatch(packet);
+    }
+
+    /**
+     * Registers a handler for each packet type the engine understands.
+     */
+    private void registerHandlers() {
+        dispatcher.register(InboundPacket.Type.WAITING, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processWaiting(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.START, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processStart(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.CREATE, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processCreate(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.DESTROY, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processDestroy(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.POSITION, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processPosition(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.DIRECTION, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processDirection(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.TEXTURE, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processTexture(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.INTERFACE, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processInterface(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.SNAPSHOT, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processSnapshot(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.HANDSHAKE, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processHandshake(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.POSITION_DELTA, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processPositionDelta(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.INPUT_ACK, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processInputAck(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.DATAGRAM_SETUP, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processDatagramSetup(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.SESSION, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processSession(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.RESUMED, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processResumed(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.PONG, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processPong(packet.getPayload());
+            }
+        });
+
+        dispatcher.register(InboundPacket.Type.LEAVE, new PacketHandler() {
+            @Override
+            public void handle(InboundPacket packet) {
+                processLeave(packet.getPayload());
+            }
+        });
     }
 
     private void processWaiting(ByteBuf payload) {
         int players = payload.readByte();
 
-        parent.getStartScreen().setMessage("Waiting for " + players + " more player" + (players == 1 ? "" : "s"));
+        listener.waitingForPlayers(players);
     }
 
     private void processStart(ByteBuf payload) {
         int id = payload.readInt();
 
-        parent.getWorld().setPlayer(id);
-        parent.showGameScreen();
+        world.setPlayer(id);
+        listener.started();
     }
 
     private void processCreate(ByteBuf payload) {
@@ -149,13 +894,20 @@ public class Engine {
         Entity.Direction direction = Entity.Direction.forOrdinal(payload.readByte());
         int texture = payload.readInt();
 
-        parent.getWorld().createEntity(id, x, y, direction, texture);
+        positions.set(id, x, y);
+        world.createEntity(id, x, y, direction, texture, packetTime);
     }
 
     private void processDestroy(ByteBuf payload) {
         int id = payload.readInt();
 
-        parent.getWorld().destroyEntity(id);
+        world.destroyEntity(id);
+    }
+
+    private void processLeave(ByteBuf payload) {
+        int id = payload.readInt();
+
+        world.leaveEntity(id);
     }
 
     private void processPosition(ByteBuf payload) {
@@ -163,21 +915,34 @@ public class Engine {
         double x = payload.readDouble();
         double y = payload.readDouble();
 
-        parent.getWorld().updateEntityPosition(id, x, y);
+        // The server only moves its baseline for deltas when it sends a position reliably.
+        if (packetReliable)
+            positions.set(id, x, y);
+
+        world.updateEntityPosition(id, x, y, packetTime);
+    }
+
+    private void processPositionDelta(ByteBuf payload) {
+        int id = payload.readUnsignedShort();
+        int dx = payload.readShort();
+        int dy = payload.readShort();
+
+        positions.add(id, dx, dy);
+        world.updateEntityPosition(id, positions.getX(id), positions.getY(id), packetTime);
     }
 
     private void processDirection(ByteBuf payload) {
         int id = payload.readInt();
         Entity.Direction direction = Entity.Direction.forOrdinal(payload.readByte());
 
-        parent.getWorld().updateEntityDirection(id, direction);
+        world.updateEntityDirection(id, direction);
     }
 
     private void processTexture(ByteBuf payload) {
         int id = payload.readInt();
         int texture = payload.readInt();
 
-        parent.getWorld().updateEntityTexture(id, texture);
+        world.updateEntityTexture(id, texture);
     }
 
     private void processInterface(ByteBuf payload) {
@@ -189,46 +954,465 @@ public class Engine {
             powerupCharge[i] = payload.readFloat();
         }
 
-        parent.getGameScreen().setHealth(health);
-        parent.getGameScreen().setFlightCharge(flightCharge);
-        parent.getGameScreen().setPowerupCharge(powerupCharge);
+        listener.interfaceUpdated(health, flightCharge, powerupCharge);
+    }
+
+    private void processSnapshot(ByteBuf payload) {
+        int tick = payload.readInt();
+
+        // Snapshots about different entities may be applied out of order, but the tick only moves forwards.
+        if (this.tick == -1 || tick - this.tick > 0)
+            this.tick = tick;
+
+        int count = payload.readUnsignedShort();
+
+        // Deltas are never sent over UDP, where an earlier one could have been lost.
+        boolean quantized = packetReliable && Capabilities.has(capabilities, Capabilities.QUANTIZED_POSITIONS);
+
+        for (int i = 0; i < count; i++) {
+            int id = payload.readUnsignedShort();
+            int flags = payload.readUnsignedByte();
+
+            if ((flags & Snapshot.POSITION) != 0) {
+                double x, y;
+
+                if (quantized) {
+                    positions.add(id, payload.readShort(), payload.readShort());
+                    x = positions.getX(id);
+                    y = positions.getY(id);
+                } else {
+                    x = payload.readFloat();
+                    y = payload.readFloat();
+
+                    if (packetReliable)
+                        positions.set(id, x, y);
+                }
+
+                world.updateEntityPosition(id, x, y, packetTime);
+            }
+
+            if ((flags & Snapshot.DIRECTION) != 0)
+                world.updateEntityDirection(id, Entity.Direction.forOrdinal(payload.readUnsignedByte()));
+
+            if ((flags & Snapshot.TEXTURE) != 0)
+                world.updateEntityTexture(id, payload.readUnsignedByte());
+        }
+    }
+
+    private void processHandshake(ByteBuf payload) {
+        // Only accept features that were actually offered.
+        capabilities = payload.readInt() & getOfferedCapabilities();
+        int tickRate = payload.readUnsignedShort();
+
+        PlayerPredictor predictor = world.getPredictor();
+        predictor.setEnabled(Capabilities.has(capabilities, Capabilities.INPUT_SEQUENCES));
+
+        // A tick rate of zero leaves the client's own setting.
+        if (tickRate > 0)
+            predictor.setTickLength(1f / tickRate);
+
+        // Each connection may be to a different server, so start the estimates again.
+        clock.reset();
+        viewportSent = false;
+
+        // Pings aren't recorded, so there are no pongs to replay.
+        if (Capabilities.has(capabilities, Capabilities.CLOCK_SYNC) && channel != null && replayer == null)
+            new Pinger(channel, config.pingInterval).start();
+    }
+
+    private void processDatagramSetup(ByteBuf payload) {
+        int token = payload.readInt();
+        int port = payload.readUnsignedShort();
+
+        // Datagrams aren't recorded, so there are none to replay.
+        if (channel == null || datagrams != null || replayer != null)
+            return;
+
+        datagrams = new DatagramConnection(this, transport, channel.eventLoop(), inetHost, port, token, config.datagramMtu);
+        datagrams.open();
+    }
+
+    private void processSession(ByteBuf payload) {
+        long token = payload.readLong();
+
+        if (Capabilities.has(capabilities, Capabilities.SESSION_RESUME))
+            sessionToken = token;
+    }
+
+    private void processResumed(ByteBuf payload) {
+        boolean resumed = payload.readBoolean();
+
+        reconnectAttempts = 0;
+
+        // The server no longer has the session, so it will send everything again as if joining for the first time.
+        // The state table clears the world itself, in order with the entities sent again.
+        if (!resumed && states == null) {
+            tick = -1;
+            world.clear();
+        }
+    }
+
+    /**
+     * Returns the optional UDP channel, for inspecting how many datagrams were received, stale or malformed.
+     *
+     * @return the UDP channel, or null if not in use
+     */
+    public DatagramConnection getDatagramConnection() {
+        return datagrams;
+    }
+
+    /**
+     * Reports the camera rectangle to the server if area of interest management is in use, and the camera has moved
+     * far enough or changed size since it was last reported. Call every frame from the render thread.
+     *
+     * @param x      the x coordinate of the bottom left corner of the camera rectangle
+     * @param y      the y coordinate of the bottom left corner of the camera rectangle
+     * @param width  the width of the camera rectangle
+     * @param height the height of the camera rectangle
+     */
+    public void updateViewport(float x, float y, float width, float height) {
+        if (!Capabilities.has(capabilities, Capabilities.AREA_OF_INTEREST))
+            return;
+
+        // The server's rectangle lags the camera by less than the margin, so nothing on screen is left out.
+        float threshold = config.viewportMargin / 2f;
+
+        if (viewportSent && Math.abs(x - viewportX) < threshold && Math.abs(y - viewportY) < threshold
+                && width == viewportWidth && height == viewportHeight)
+            return;
+
+        viewportX = x;
+        viewportY = y;
+        viewportWidth = width;
+        viewportHeight = height;
+        viewportSent = true;
+
+        enqueueOutbound(new ViewportOutboundPacket(x, y, width, height, config.viewportMargin));
+    }
+
+    private void processPong(ByteBuf payload) {
+        long clientSend = payload.readLong();
+        long serverReceive = payload.readLong();
+        long serverSend = payload.readLong();
+
+        // A recorded pong arrives at a different time when replayed, so would give a meaningless round trip.
+        if (replayer != null)
+            return;
+
+        // Timed by when the pong arrived rather than when it was applied, so a slow frame doesn't count.
+        metrics.getPingRoundTripTime().record(clock.addSample(clientSend, serverReceive, serverSend, packetTime));
+    }
+
+    /**
+     * Returns the estimated round trip time to the server, from the quickest of the recent pings.
+     *
+     * @return the round trip time in nanoseconds, or 0 if no pings have been answered
+     */
+    public long getRoundTripTime() {
+        return clock.getRoundTripTime();
+    }
+
+    /**
+     * Returns the estimates of the round trip time and of the server's clock, for converting between the server's
+     * times and the client's.
+     *
+     * @return the clock estimator, which is not synchronised until the first pong arrives
+     */
+    public ClockEstimator getClock() {
+        return clock;
+    }
+
+    private void processInputAck(ByteBuf payload) {
+        int sequence = payload.readInt();
+
+        recordInputRoundTrip(world.getPredictor().acknowledge(sequence, packetTime));
+    }
+
+    private void recordInputRoundTrip(long roundTrip) {
+        if (roundTrip >= 0)
+            metrics.getInputRoundTripTime().record(roundTrip);
+    }
+
+    /**
+     * Returns the optional protocol features to offer the server when connecting.
+     *
+     * @return the offered capabilities
+     */
+    public int getOfferedCapabilities() {
+        // The recorded packets only decode the same way with the same capabilities.
+        if (replayer != null)
+            return replayer.getCapabilities();
+
+        int offered = 0;
+
+        if (config.quantizedPositions)
+            offered |= Capabilities.QUANTIZED_POSITIONS;
+
+        if (config.clientPrediction)
+            offered |= Capabilities.INPUT_SEQUENCES;
+
+        if (config.datagrams)
+            offered |= Capabilities.DATAGRAMS;
+
+        if (config.compression)
+            offered |= Capabilities.COMPRESSION;
+
+        if (config.sessionResume)
+            offered |= Capabilities.SESSION_RESUME;
+
+        if (config.clockSync)
+            offered |= Capabilities.CLOCK_SYNC;
+
+        if (config.areaOfInterest)
+            offered |= Capabilities.AREA_OF_INTEREST;
+
+        return offered;
+    }
+
+    /**
+     * Returns the optional protocol features the server agreed to use.
+     *
+     * @return the negotiated capabilities
+     */
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Returns the tick number of the latest snapshot received.
+     *
+     * @return the latest tick, or -1 if no snapshot has been received
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Closes the connection and returns to the start screen with the specified message.
+     *
+     * @param message the reason for disconnecting
+     */
+    private void disconnect(String message) {
+        Channel channel = this.channel;
+
+        // Clear the channel first, so closing it isn't mistaken for a lost connection.
+        this.channel = null;
+
+        if (channel != null)
+            channel.close();
+
+        exceptionCaught(message);
     }
 
     public void exceptionCaught(String message) {
-        workerGroup.shutdownGracefully();
-        parent.getStartScreen().setMessage(message, Color.RED);
-        parent.showStartScreen();
+        sessionToken = 0;
+
+        if (recorder != null)
+            recorder.close();
+
+        if (datagrams != null)
+            datagrams.close();
+
+        close();
+        listener.disconnected(message);
     }
 
     /**
      * Handle all currently queued inbound packets.
      */
     public void updateInbound() {
+        long start = System.nanoTime(), applied = start;
+
+        metrics.getInboundDepth().record(inbound.size());
+
+        // Swap before draining the queue, so nothing queued before the table's contents is left for later.
+        if (states != null)
+            applyStates();
+
+        // Only the latest state update for each entity needs applying, including any left over from the last frame.
+        boolean quantized = Capabilities.has(capabilities, Capabilities.QUANTIZED_POSITIONS);
+        int count = coalescer.coalesce(inbound, quantized);
+
+        // The queue has been drained, so let the event loop queue what it held back and read again.
+        Channel suspendedChannel = this.suspendedChannel;
+
+        if (suspendedChannel != null && !isClosed())
+            suspendedChannel.eventLoop().execute(resumeReading);
+        long budget = config.inboundBudget * 1000L;
+
+        // Up to the first half of the budget may go on looking ahead for the packets that matter most.
+        scheduler.begin(count, budget > 0 ? Math.max(start + budget / 2 - System.nanoTime(), 1) : 0);
+
         InboundPacket packet;
+        int processed = 0;
 
-        // Handle inbound packets.
-        while ((packet = inbound.poll()) != null) {
+        // Handle inbound packets, always making some progress however small the budget.
+        while ((budget <= 0 || processed == 0 || applied - start < budget)
+                && (packet = scheduler.next(world.getPlayerId(), quantized)) != null) {
+            processed++;
+
+            metrics.getUpdateLag().record(start - packet.getTimestamp());
             processInbound(packet);
 
             // Once the packet is processed release the payload to stop memory leaks.
             packet.release();
+
+            // Each packet's time runs from the end of the last, so timing costs one call per packet.
+            long now = System.nanoTime();
+            metrics.getApplyTime(packet.getType()).record(now - applied);
+            applied = now;
+        }
+
+        int carried = coalescer.carryOver(scheduler.getProcessed());
+
+        metrics.getInboundCarried().record(carried);
+
+        if (carried > 0)
+            metrics.getInboundSpills().increment();
+
+        metrics.getUpdateInboundTime().record(System.nanoTime() - start);
+    }
+
+    /**
+     * Swaps the entity state table and applies everything that changed since the last frame.
+     */
+    private void applyStates() {
+        long start = System.nanoTime();
+        int count = states.swap();
+
+        if (states.isCleared()) {
+            tick = -1;
+            world.clear();
+        }
+
+        int latest = states.getTick();
+
+        if (latest != -1 && (tick == -1 || latest - tick > 0))
+            tick = latest;
+
+        // START waits in the inbound queue behind this, but the player's CREATE may not.
+        if (states.getPlayer() != -1)
+            world.setPlayer(states.getPlayer());
+
+        PlayerPredictor predictor = world.getPredictor();
+        int player = world.getPlayerId();
+
+        for (int i = 0; i < count; i++) {
+            int id = states.getChanged(i);
+            int flags = states.getFlags(id);
+
+            if ((flags & EntityStateTable.DESTROYED) != 0) {
+                world.destroyEntity(id);
+                continue;
+            }
+
+            if ((flags & EntityStateTable.CREATED) != 0)
+                world.createEntity(id, states.getX(id), states.getY(id),
+                        Entity.Direction.forOrdinal(states.getDirection(id)), states.getTexture(id),
+                        states.getTime(id));
+
+            if ((flags & EntityStateTable.LEFT) != 0) {
+                world.leaveEntity(id);
+                continue;
+            }
+
+            // A created entity already has its latest state.
+            if ((flags & EntityStateTable.CREATED) != 0)
+                continue;
+
+            if ((flags & EntityStateTable.POSITION) != 0) {
+                // Reconcile against the input the server had processed when it sent this position.
+                if (id == player && states.getPlayerAcknowledged() != -1)
+                    recordInputRoundTrip(predictor.acknowledge(states.getPlayerAcknowledged(), states.getTime(id)));
+
+                world.updateEntityPosition(id, states.getX(id), states.getY(id), states.getTime(id));
+            }
+
+            if ((flags & EntityStateTable.DIRECTION) != 0)
+                world.updateEntityDirection(id, Entity.Direction.forOrdinal(states.getDirection(id)));
+
+            if ((flags & EntityStateTable.TEXTURE) != 0)
+                world.updateEntityTexture(id, states.getTexture(id));
         }
+
+        if (states.getAcknowledged() != -1)
+            recordInputRoundTrip(predictor.acknowledge(states.getAcknowledged(), states.getAcknowledgeTime()));
+
+        metrics.getStateChanged().record(count);
+        metrics.getStateApplyTime().record(System.nanoTime() - start);
     }
 
     /**
-     * Write all currently queued outbound packets.
+     * Write all currently queued outbound packets. The writes and a single flush happen on the event loop, and
+     * nothing happens at all if nothing is queued.
      */
     public void updateOutbound() {
-        if (channel == null)
+        long start = System.nanoTime();
+
+        metrics.getOutboundDepth().record(outbound.size());
+
+        try {
+            flushOutbound();
+        } finally {
+            metrics.getUpdateOutboundTime().record(System.nanoTime() - start);
+        }
+    }
+
+    private void flushOutbound() {
+        if (replayer != null) {
+            OutboundPacket packet;
+
+            while ((packet = outbound.poll()) != null) {
+                packet.release();
+            }
+
             return;
+        }
+
+        if (flusher == null)
+            return;
+
+        flusher.schedule();
+    }
 
-        OutboundPacket packet;
+    /**
+     * Finishes recording and stops networking, when the game is closed.
+     */
+    public void dispose() {
+        if (recorder != null)
+            recorder.close();
+
+        if (metricsDumper != null)
+            metricsDumper.stop();
+
+        close();
+    }
+
+    /**
+     * Stops networking for good. A shared event loop group is left running, so only this engine's channels are
+     * closed.
+     */
+    private void close() {
+        closed = true;
 
-        // Handle outbound packets.
-        while ((packet = outbound.poll()) != null) {
-            channel.write(packet);
+        if (ownsWorkerGroup) {
+            workerGroup.shutdownGracefully();
+            return;
         }
 
-        channel.flush();
+        Channel channel = this.channel;
+        this.channel = null;
+
+        if (channel != null)
+            channel.close();
+    }
+
+    /**
+     * Checks whether this engine has stopped for good.
+     *
+     * @return true if stopped
+     */
+    public boolean isClosed() {
+        return closed || workerGroup.isShuttingDown();
     }
 }
@@ -0,0 +1,184 @@
+package com.superduckinvaders.game;
+
+import com.superduckinvaders.game.net.OverflowPolicy;
+
+/**
+ * Settings for the networking engine.
+ */
+public class EngineConfiguration {
+
+    /**
+     * The number of packets the inbound queue can hold. Rounded up to a power of two.
+     */
+    public int inboundCapacity = 8192;
+
+    /**
+     * What to do when the inbound queue is full.
+     */
+    public OverflowPolicy inboundOverflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * The most time to spend applying inbound packets each frame, in microseconds, or 0 for no limit. Lifecycle
+     * packets and the player's state are applied first, and whatever doesn't fit is left for the next frame.
+     */
+    public int inboundBudget = 4000;
+
+    /**
+     * Whether to decode packets about entities on the event loop, into a table of entity state that is applied at
+     * the start of each frame, rather than queueing each packet to be decoded by the render thread.
+     */
+    public boolean directState = false;
+
+    /**
+     * The number of packets the outbound queue can hold. Rounded up to a power of two.
+     */
+    public int outboundCapacity = 256;
+
+    /**
+     * What to do when the outbound queue is full.
+     */
+    public OverflowPolicy outboundOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    /**
+     * Whether to use the native epoll transport when running on Linux.
+     */
+    public boolean nativeTransport = true;
+
+    /**
+     * The number of event loop threads. One is plenty for a single connection.
+     */
+    public int eventLoopThreads = 1;
+
+    /**
+     * Whether to disable Nagle's algorithm, so small packets are sent immediately.
+     */
+    public boolean tcpNoDelay = true;
+
+    /**
+     * Once this many bytes are waiting to be written, queued packets are held back until the server catches up.
+     */
+    public int writeBufferHighWaterMark = 64 * 1024;
+
+    /**
+     * Held back packets are written again once fewer than this many bytes are waiting.
+     */
+    public int writeBufferLowWaterMark = 32 * 1024;
+
+    /**
+     * Whether to offer the server a UDP channel for frequent state updates.
+     */
+    public boolean datagrams = false;
+
+    /**
+     * The largest datagram the server should send over the UDP channel, in bytes.
+     */
+    public int datagramMtu = 1200;
+
+    /**
+     * Whether to offer the server compression of large runs of packets.
+     */
+    public boolean compression = false;
+
+    /**
+     * Whether to offer the server session resumption, so a dropped connection can be re-established.
+     */
+    public boolean sessionResume = false;
+
+    /**
+     * Whether to offer the server clock synchronisation, which measures the round trip time with periodic pings.
+     */
+    public boolean clockSync = false;
+
+    /**
+     * The time between pings once the first few have been sent, in milliseconds.
+     */
+    public int pingInterval = 1000;
+
+    /**
+     * The number of recent pings to base the round trip and clock estimates on.
+     */
+    public int pingWindow = 8;
+
+    /**
+     * Whether to offer the server area of interest management, which only sends updates for entities near the
+     * camera.
+     */
+    public boolean areaOfInterest = false;
+
+    /**
+     * How far outside the camera rectangle entities are still of interest, in pixels. The camera is reported again
+     * once it moves half this far.
+     */
+    public int viewportMargin = 128;
+
+    /**
+     * How many times to try reconnecting before giving up.
+     */
+    public int reconnectAttempts = 8;
+
+    /**
+     * The delay before the first reconnection attempt, in milliseconds. Doubles after each failed attempt.
+     */
+    public int reconnectInitialDelay = 250;
+
+    /**
+     * The longest delay between reconnection attempts, in milliseconds.
+     */
+    public int reconnectMaxDelay = 8000;
+
+    /**
+     * The file to record the bytes received from the server to, or null to not record.
+     */
+    public String recordFile = null;
+
+    /**
+     * The recording to play back instead of connecting to the server, or null to connect.
+     */
+    public String replayFile = null;
+
+    /**
+     * How many times faster than real time to play back a recording, or 0 for as fast as possible.
+     */
+    public float replaySpeed = 1;
+
+    /**
+     * The file to periodically append metrics to, or null to not dump them.
+     */
+    public String metricsFile = null;
+
+    /**
+     * The time between metrics dumps, in seconds.
+     */
+    public int metricsInterval = 10;
+
+    /**
+     * Whether to offer the server quantized, delta coded positions.
+     */
+    public boolean quantizedPositions = false;
+
+    /**
+     * How far behind the latest updates other entities are drawn, in milliseconds. Allows movement to be
+     * interpolated smoothly between updates.
+     */
+    public int interpolationDelay = 100;
+
+    /**
+     * Whether to offer the server sequenced input, which lets the player's movement be predicted locally.
+     */
+    public boolean clientPrediction = false;
+
+    /**
+     * How many times per second input is sampled. The server may override this in its handshake.
+     */
+    public int inputTickRate = 60;
+
+    /**
+     * How many earlier input changes to repeat in each input packet, so a lost packet is covered by the next.
+     */
+    public int inputRedundancy = 2;
+
+    /**
+     * The speed of the player in pixels per second, for prediction. Must match the server.
+     */
+    public double playerSpeed = 200;
+}
@@ -0,0 +1,37 @@
+package com.superduckinvaders.game;
+
+/**
+ * Receives the events from an {@link Engine} that concern whatever is showing the game, such as the game's screens
+ * or a headless bot. Called on the render thread, except {@link #disconnected(String)}, which may be called from
+ * the event loop.
+ */
+public interface EngineListener {
+
+    /**
+     * Called while the server is waiting for more players to join.
+     *
+     * @param players the number of players still needed
+     */
+    void waitingForPlayers(int players);
+
+    /**
+     * Called when the round starts, once the world knows which entity is the player.
+     */
+    void started();
+
+    /**
+     * Called when the player's status changes.
+     *
+     * @param health        the player's health, from 0 to 1
+     * @param flightCharge  the player's flight charge, from 0 to 1
+     * @param powerupCharge the time left on each powerup, from 0 to 1
+     */
+    void interfaceUpdated(float health, float flightCharge, float[] powerupCharge);
+
+    /**
+     * Called when the connection ends for good.
+     *
+     * @param message the reason the connection ended
+     */
+    void disconnected(String message);
+}
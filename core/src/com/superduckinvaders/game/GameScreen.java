@@ -12,8 +12,9 @@ import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
 import com.badlogic.gdx.maps.tiled.renderers.OrthogonalTiledMapRenderer;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Align;
 import com.superduckinvaders.game.assets.Assets;
-import com.superduckinvaders.game.entity.Entity;
+import com.superduckinvaders.game.entity.EntityStore;
 
 /**
  * Screen for interaction with the game.
@@ -70,6 +71,11 @@ public class GameScreen implements Screen {
      */
     private static final float POWERUP_CHARGE_SPACING = 5;
 
+    /**
+     * The gap between the round trip time and the top right of the screen.
+     */
+    private static final float PING_OFFSET = 5;
+
     /**
      * The game camera.
      */
@@ -100,6 +106,16 @@ public class GameScreen implements Screen {
      */
     private final InputHandler inputHandler;
 
+    /**
+     * The engine, for showing the connection state.
+     */
+    private final Engine engine;
+
+    /**
+     * Shows the engine's metrics.
+     */
+    private final DebugOverlay debugOverlay;
+
     /**
      * The health to be displayed.
      */
@@ -115,6 +131,12 @@ public class GameScreen implements Screen {
      */
     private float[] powerupCharge = new float[5];
 
+    /**
+     * The round trip time shown, in milliseconds, and its text, which is only rebuilt when it changes.
+     */
+    private long pingMillis = -1;
+    private String pingText;
+
     /**
      * Initialises this GameScreen for the specified world.
      *
@@ -123,8 +145,10 @@ public class GameScreen implements Screen {
     public GameScreen(SpriteBatch batch, World world, Engine engine) {
         this.batch = batch;
         this.world = world;
+        this.engine = engine;
 
-        inputHandler = new InputHandler(this, engine);
+        debugOverlay = new DebugOverlay(engine);
+        inputHandler = new InputHandler(this, engine, world.getPredictor(), engine.getConfiguration().inputRedundancy);
 
         camera = new OrthographicCamera(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
         camera.zoom = 0.5f;
@@ -162,6 +186,13 @@ public class GameScreen implements Screen {
         Gdx.input.setInputProcessor(null);
     }
 
+    /**
+     * Shows the debug overlay if it is hidden and hides it otherwise.
+     */
+    public void toggleDebugOverlay() {
+        debugOverlay.toggle();
+    }
+
     public void setHealth(float health) {
         this.health = health;
     }
@@ -175,16 +206,14 @@ public class GameScreen implements Screen {
     }
 
     /**
-     * Centres the camera on the specified entity.
+     * Centres the camera on the specified point, as far as the edges of the map allow.
      *
-     * @param entity the entity to centre the camera on
+     * @param x the x coordinate to centre the camera on
+     * @param y the y coordinate to centre the camera on
      */
-    public void centreCameraOn(Entity entity) {
-        if (entity == null)
-            return;
-
-        float cameraX = MathUtils.clamp((float) entity.getX(), camera.viewportWidth * camera.zoom / 2, world.getMapWidth() - camera.viewportWidth * camera.zoom / 2);
-        float cameraY = MathUtils.clamp((float) entity.getY(), camera.viewportHeight * camera.zoom / 2, world.getMapHeight() - camera.viewportHeight * camera.zoom / 2);
+    public void centreCameraOn(double x, double y) {
+        float cameraX = MathUtils.clamp((float) x, camera.viewportWidth * camera.zoom / 2, world.getMapWidth() - camera.viewportWidth * camera.zoom / 2);
+        float cameraY = MathUtils.clamp((float) y, camera.viewportHeight * camera.zoom / 2, world.getMapHeight() - camera.viewportHeight * camera.zoom / 2);
 
         camera.position.set(cameraX, cameraY, 0);
         camera.update();
@@ -200,8 +229,17 @@ public class GameScreen implements Screen {
         Gdx.gl.glClearColor(0, 0, 0, 1);
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 
+        EntityStore entities = world.getEntityStore();
+
         // Centre the camera on the player.
-        centreCameraOn(world.getPlayer());
+        int player = entities.getSlot(world.getPlayerId());
+
+        if (player != -1)
+            centreCameraOn(entities.getX(player), entities.getY(player));
+
+        float viewWidth = camera.viewportWidth * camera.zoom, viewHeight = camera.viewportHeight * camera.zoom;
+        engine.updateViewport(camera.position.x - viewWidth / 2, camera.position.y - viewHeight / 2, viewWidth,
+                viewHeight);
 
         batch.setProjectionMatrix(camera.combined);
         batch.begin();
@@ -216,9 +254,7 @@ public class GameScreen implements Screen {
         }
 
         // Draw all entities.
-        for (Entity entity : world.getEntities()) {
-            entity.render(batch);
-        }
+        entities.render(batch);
 
         // Render overlay layer if there is one.
         if (overlayLayer != null)
@@ -230,11 +266,17 @@ public class GameScreen implements Screen {
         renderHealth();
         renderFlightCharge();
         renderPowerupCharge();
+        renderPing();
+
+        if (engine.isReconnecting())
+            Assets.font.draw(batch, "Reconnecting...", HEALTH_X_OFFSET, camera.viewportHeight - HEALTH_X_OFFSET);
+
+        debugOverlay.render(batch, delta, camera.viewportHeight);
 
         batch.end();
 
         // Process pending input.
-        inputHandler.update();
+        inputHandler.update(delta);
     }
 
     private void renderHealth() {
@@ -301,6 +343,21 @@ public class GameScreen implements Screen {
         batch.setShader(null);
     }
 
+    private void renderPing() {
+        if (!engine.getClock().isSynchronised())
+            return;
+
+        long millis = engine.getRoundTripTime() / 1000000;
+
+        if (millis != pingMillis) {
+            pingMillis = millis;
+            pingText = "Ping " + millis + " ms";
+        }
+
+        Assets.font.draw(batch, pingText, 0, camera.viewportHeight - PING_OFFSET, camera.viewportWidth - PING_OFFSET,
+                Align.right, false);
+    }
+
     /**
      * Not implemented.
      */
@@ -5,10 +5,9 @@ import com.badlogic.gdx.InputProcessor;
 import com.badlogic.gdx.math.Vector3;
 import com.superduckinvaders.game.net.packets.AttackOutboundPacket;
 import com.superduckinvaders.game.net.packets.FlyOutboundPacket;
+import com.superduckinvaders.game.net.packets.InputOutboundPacket;
 import com.superduckinvaders.game.net.packets.MovementOutboundPacket;
 
-import java.util.BitSet;
-
 /**
  * Created by Oliver on 20/02/2016.
  */
@@ -21,11 +20,26 @@ public class InputHandler implements InputProcessor {
             Input.Keys.S
     };
 
+    /**
+     * The most input ticks to run in one frame, so a long frame doesn't cause a burst of input.
+     */
+    private static final int MAX_TICKS_PER_FRAME = 5;
+
     private final GameScreen gameScreen;
 
     private final Engine engine;
 
-    private BitSet movement = new BitSet(4);
+    private final PlayerPredictor predictor;
+
+    /**
+     * How many past input changes to repeat in each input packet.
+     */
+    private final int redundancy;
+
+    /**
+     * The movement bits for the keys currently held, indexed as MOVEMENT_BITS.
+     */
+    private int movement = 0;
 
     private boolean fly = false;
 
@@ -33,34 +47,163 @@ public class InputHandler implements InputProcessor {
 
     private double targetX, targetY;
 
-    public InputHandler(GameScreen gameScreen, Engine engine) {
+    /**
+     * Time not yet consumed by input ticks, in seconds.
+     */
+    private float accumulator = 0;
+
+    /**
+     * The sequence number of the last input tick.
+     */
+    private int sequence = -1;
+
+    /**
+     * The most recent input changes sent, for repeating in later packets.
+     */
+    private final int[] sentSequences = new int[InputOutboundPacket.MAX_INPUTS];
+    private final int[] sentButtons = new int[InputOutboundPacket.MAX_INPUTS];
+    private final float[] sentTargetX = new float[InputOutboundPacket.MAX_INPUTS];
+    private final float[] sentTargetY = new float[InputOutboundPacket.MAX_INPUTS];
+
+    /**
+     * The number of input changes sent, so the newest is at index (sent - 1) % MAX_INPUTS.
+     */
+    private int sent = 0;
+
+    /**
+     * Creates a new InputHandler.
+     *
+     * @param gameScreen the screen to aim attacks on, or null if input is driven by a script rather than the mouse
+     * @param engine     the engine to send input through
+     * @param predictor  the predictor for the player's movement
+     * @param redundancy how many past input changes to repeat in each input packet
+     */
+    public InputHandler(GameScreen gameScreen, Engine engine, PlayerPredictor predictor, int redundancy) {
         this.gameScreen = gameScreen;
         this.engine = engine;
+        this.predictor = predictor;
+        this.redundancy = Math.min(redundancy, InputOutboundPacket.MAX_INPUTS - 1);
     }
 
-    public void update() {
-        if (!movement.isEmpty()) {
-            engine.enqueueOutbound(new MovementOutboundPacket(movement));
-        }
+    /**
+     * Sets which movement keys are held, for driving input from a script rather than the keyboard.
+     *
+     * @param movement the movement bits: left, right, up and down from the lowest
+     */
+    public void setMovement(int movement) {
+        this.movement = movement;
+    }
+
+    /**
+     * Sets whether the attack button is held and where it aims, for driving input from a script rather than the
+     * mouse.
+     *
+     * @param attack  whether to attack
+     * @param targetX the x coordinate to aim at, in the world
+     * @param targetY the y coordinate to aim at, in the world
+     */
+    public void setAttack(boolean attack, double targetX, double targetY) {
+        this.attack = attack;
+        this.targetX = targetX;
+        this.targetY = targetY;
+    }
+
+    /**
+     * Presses the fly key once, for driving input from a script rather than the keyboard.
+     */
+    public void fly() {
+        fly = true;
+    }
 
+    /**
+     * Samples input at the fixed input tick rate, independent of the frame rate.
+     *
+     * @param delta the time elapsed since the last frame
+     */
+    public void update(float delta) {
         if (fly) {
-            engine.enqueueOutbound(new FlyOutboundPacket());
+            engine.enqueueOutbound(FlyOutboundPacket.INSTANCE);
             fly = false;
         }
 
+        float tickLength = predictor.getTickLength();
+
+        accumulator = Math.min(accumulator + delta, tickLength * MAX_TICKS_PER_FRAME);
+
+        while (accumulator >= tickLength) {
+            accumulator -= tickLength;
+
+            if (predictor.isEnabled()) {
+                tickSequenced();
+            } else {
+                tick();
+            }
+        }
+    }
+
+    /**
+     * Sends the held input for one tick, for servers without input sequences.
+     */
+    private void tick() {
+        if (movement != 0) {
+            engine.enqueueOutbound(MovementOutboundPacket.forMovement(movement));
+        }
+
         if (attack) {
-            engine.enqueueOutbound(new AttackOutboundPacket(targetX, targetY));
+            engine.enqueueOutbound(AttackOutboundPacket.newInstance(targetX, targetY));
         }
     }
 
+    /**
+     * Predicts one tick of input locally, and sends it to the server only if it differs from the last input sent.
+     */
+    private void tickSequenced() {
+        sequence++;
+        predictor.applyInput(sequence, movement);
+
+        int buttons = movement | (attack ? InputOutboundPacket.ATTACK : 0);
+        float x = (float) targetX, y = (float) targetY;
+
+        if (sent > 0) {
+            int last = (sent - 1) % InputOutboundPacket.MAX_INPUTS;
+            boolean targetChanged = attack && (x != sentTargetX[last] || y != sentTargetY[last]);
+
+            if (buttons == sentButtons[last] && !targetChanged)
+                return;
+        } else if (buttons == 0) {
+            return;
+        }
+
+        int index = sent % InputOutboundPacket.MAX_INPUTS;
+
+        sentSequences[index] = sequence;
+        sentButtons[index] = buttons;
+        sentTargetX[index] = x;
+        sentTargetY[index] = y;
+        sent++;
+
+        // Repeat the previous changes, oldest first, so a lost packet is covered by the next.
+        InputOutboundPacket packet = InputOutboundPacket.newInstance();
+
+        for (int i = Math.max(0, sent - 1 - redundancy); i < sent; i++) {
+            index = i % InputOutboundPacket.MAX_INPUTS;
+            packet.addInput(sentSequences[index], sentButtons[index], sentTargetX[index], sentTargetY[index]);
+        }
+
+        engine.enqueueOutbound(packet);
+        predictor.inputSent(sequence);
+    }
+
     @Override
     public boolean keyDown(int keycode) {
-        if (keycode == Input.Keys.SPACE) {
+        if (keycode == Input.Keys.F3) {
+            gameScreen.toggleDebugOverlay();
+        } else if (keycode == Input.Keys.SPACE) {
             fly = true;
         } else {
             for (int i = 0; i < MOVEMENT_BITS.length; i++) {
                 if (keycode == MOVEMENT_BITS[i]) {
-                    movement.set(i);
+                    movement |= 1 << i;
                     break;
                 }
             }
@@ -73,7 +216,7 @@ public class InputHandler implements InputProcessor {
     public boolean keyUp(int keycode) {
         for (int i = 0; i < MOVEMENT_BITS.length; i++) {
             if (MOVEMENT_BITS[i] == keycode)
-                movement.clear(i);
+                movement &= ~(1 << i);
         }
 
         return true;
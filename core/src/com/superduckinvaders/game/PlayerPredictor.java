@@ -0,0 +1,272 @@
+package com.superduckinvaders.game;
+
+import com.superduckinvaders.game.assets.Assets;
+import com.superduckinvaders.game.assets.TextureSet;
+import com.superduckinvaders.game.entity.Entity;
+import com.superduckinvaders.game.metrics.Histogram;
+
+/**
+ * Moves the player locally as soon as input is sampled, rather than waiting for the server to echo its position.
+ * Every input tick is recorded with its sequence number. When the server acknowledges a sequence number and sends
+ * the player's authoritative position, the inputs it has not yet processed are simulated again from there.
+ */
+public final class PlayerPredictor {
+
+    /**
+     * The number of unacknowledged inputs remembered. Must be a power of two.
+     */
+    private static final int HISTORY = 256;
+
+    /**
+     * Movement bits, in the order sent to the server.
+     */
+    private static final int LEFT = 1, RIGHT = 1 << 1, UP = 1 << 2, DOWN = 1 << 3;
+
+    /**
+     * The index of the flying player texture, which ignores collisions.
+     */
+    private static final int TEXTURE_FLYING = 1;
+
+    /**
+     * The world containing the player.
+     */
+    private final World world;
+
+    /**
+     * The speed of the player, in pixels per second.
+     */
+    private final double speed;
+
+    /**
+     * The length of an input tick, in seconds.
+     */
+    private float tickLength;
+
+    /**
+     * Whether the server supports input sequences, and so whether prediction is possible.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The recorded inputs and the position predicted after each, indexed by sequence number.
+     */
+    private final int[] sequences = new int[HISTORY], movements = new int[HISTORY];
+    private final double[] predictedX = new double[HISTORY], predictedY = new double[HISTORY];
+
+    /**
+     * The sequence number of the newest input recorded.
+     */
+    private int latest = -1;
+
+    /**
+     * The sequence number of the newest input the server has processed.
+     */
+    private int acknowledged = -1;
+
+    /**
+     * The sequence number of the input sent to the server whose round trip is being timed, or -1 if none, and when
+     * it was sent in nanoseconds.
+     */
+    private int timedSequence = -1;
+    private long timedSince;
+
+    /**
+     * The distance between the predicted and authoritative positions at the last reconciliation.
+     */
+    private double error = 0;
+
+    /**
+     * Records the error at each reconciliation, in hundredths of a pixel, or null if not recorded.
+     */
+    private Histogram errors;
+
+    /**
+     * Creates a new PlayerPredictor.
+     *
+     * @param world      the world containing the player
+     * @param speed      the speed of the player in pixels per second; must match the server
+     * @param tickLength the length of an input tick in seconds
+     */
+    public PlayerPredictor(World world, double speed, float tickLength) {
+        this.world = world;
+        this.speed = speed;
+        this.tickLength = tickLength;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public float getTickLength() {
+        return tickLength;
+    }
+
+    public void setTickLength(float tickLength) {
+        this.tickLength = tickLength;
+    }
+
+    /**
+     * Returns the distance between the predicted and authoritative positions at the last reconciliation.
+     *
+     * @return the prediction error in pixels
+     */
+    public double getError() {
+        return error;
+    }
+
+    /**
+     * Sets the histogram to record the error at each reconciliation to, in hundredths of a pixel.
+     *
+     * @param errors the histogram, which must only be recorded to from the thread that reconciles
+     */
+    public void setErrors(Histogram errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * Records one tick of input and moves the player accordingly.
+     *
+     * @param sequence the sequence number of the input
+     * @param movement the movement bits
+     */
+    public void applyInput(int sequence, int movement) {
+        int index = sequence & (HISTORY - 1);
+
+        sequences[index] = sequence;
+        movements[index] = movement;
+        latest = sequence;
+
+        Entity player = world.getPlayer();
+
+        // Nothing was predicted, so there is nothing to measure the authoritative position against.
+        if (player == null) {
+            predictedX[index] = predictedY[index] = Double.NaN;
+            return;
+        }
+
+        simulate(player, movement);
+
+        predictedX[index] = player.getX();
+        predictedY[index] = player.getY();
+    }
+
+    /**
+     * Records that an input was sent to the server, to time how long it takes to be acknowledged. Only one input is
+     * timed at once.
+     *
+     * @param sequence the sequence number of the input
+     */
+    public void inputSent(int sequence) {
+        // A server already acknowledging this far ahead would acknowledge it without a round trip.
+        if (timedSequence == -1 && sequence > acknowledged) {
+            timedSequence = sequence;
+            timedSince = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records that the server has processed every input up to the specified sequence number.
+     *
+     * @param sequence the sequence number acknowledged
+     * @param time     the time the acknowledgement arrived, in nanoseconds
+     * @return the time between sending the timed input and the acknowledgement arriving in nanoseconds, or -1 if
+     * this doesn't acknowledge it
+     */
+    public long acknowledge(int sequence, long time) {
+        long roundTrip = -1;
+
+        if (timedSequence != -1 && sequence >= timedSequence) {
+            roundTrip = time - timedSince;
+            timedSequence = -1;
+        }
+
+        acknowledged = sequence;
+
+        return roundTrip;
+    }
+
+    /**
+     * Corrects the player to the authoritative position, then simulates again every input the server has not yet
+     * processed.
+     *
+     * @param x the authoritative x coordinate
+     * @param y the authoritative y coordinate
+     */
+    public void reconcile(double x, double y) {
+        Entity player = world.getPlayer();
+
+        if (player == null)
+            return;
+
+        int index = acknowledged & (HISTORY - 1);
+
+        if (acknowledged >= 0 && sequences[index] == acknowledged && !Double.isNaN(predictedX[index])) {
+            error = Math.hypot(predictedX[index] - x, predictedY[index] - y);
+
+            if (errors != null)
+                errors.record(Math.round(error * 100));
+        }
+
+        player.setX(x);
+        player.setY(y);
+
+        // Inputs older than the history are lost; the next authoritative position will correct for them.
+        int first = Math.max(acknowledged + 1, latest - HISTORY + 1);
+
+        for (int sequence = first; sequence <= latest; sequence++) {
+            index = sequence & (HISTORY - 1);
+
+            simulate(player, movements[index]);
+
+            predictedX[index] = player.getX();
+            predictedY[index] = player.getY();
+        }
+    }
+
+    /**
+     * Moves the player by one tick of input, stopping at collisions on each axis separately.
+     *
+     * @param player   the player entity
+     * @param movement the movement bits
+     */
+    private void simulate(Entity player, int movement) {
+        double dx = 0, dy = 0;
+
+        if ((movement & LEFT) != 0)
+            dx -= 1;
+        if ((movement & RIGHT) != 0)
+            dx += 1;
+        if ((movement & UP) != 0)
+            dy += 1;
+        if ((movement & DOWN) != 0)
+            dy -= 1;
+
+        if (dx == 0 && dy == 0)
+            return;
+
+        double distance = speed * tickLength;
+        double x = player.getX() + dx * distance;
+        double y = player.getY() + dy * distance;
+
+        // Without a map, as when running headless, nothing blocks movement.
+        if (player.getTexture() == TEXTURE_FLYING || world.getMap() == null) {
+            player.setX(x);
+            player.setY(y);
+            return;
+        }
+
+        TextureSet textureSet = Assets.textures[player.getTexture()];
+        int width = textureSet.getWidth();
+        int height = textureSet.getHeight();
+
+        if (!world.collidesWithMap(x, player.getY(), width, height))
+            player.setX(x);
+
+        if (!world.collidesWithMap(player.getX(), y, width, height))
+            player.setY(y);
+    }
+}
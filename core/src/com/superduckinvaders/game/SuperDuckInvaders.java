@@ -2,13 +2,16 @@ package com.superduckinvaders.game;
 
 import com.badlogic.gdx.Game;
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.superduckinvaders.game.assets.Assets;
+import com.superduckinvaders.game.metrics.Metrics;
+import com.superduckinvaders.game.net.SessionReplayer;
 
 /**
  * Created by Oliver on 20/02/2016.
  */
-public class SuperDuckInvaders extends Game {
+public class SuperDuckInvaders extends Game implements EngineListener {
 
     /**
      * The width of the game window.
@@ -21,9 +24,20 @@ public class SuperDuckInvaders extends Game {
     public static final int GAME_HEIGHT = 720;
 
     /**
-     * The game engine responsible for network I/O.
+     * The game engine responsible for network I/O. Created once the world is.
      */
-    private final Engine engine;
+    private Engine engine;
+
+    /**
+     * The server to connect to.
+     */
+    private final String inetHost;
+    private final int inetPort;
+
+    /**
+     * The engine settings.
+     */
+    private final EngineConfiguration config;
 
     /**
      * The sprite batch to render everything on.
@@ -45,8 +59,24 @@ public class SuperDuckInvaders extends Game {
      */
     private GameScreen gameScreen;
 
+    /**
+     * When the last frame started, in nanoseconds, or 0 before the first frame.
+     */
+    private long lastFrame = 0;
+
+    /**
+     * Whether the end of the recording being replayed has been reported.
+     */
+    private boolean replayReported = false;
+
     public SuperDuckInvaders(String inetHost, int inetPort) {
-        engine = new Engine(this, inetHost, inetPort);
+        this(inetHost, inetPort, new EngineConfiguration());
+    }
+
+    public SuperDuckInvaders(String inetHost, int inetPort, EngineConfiguration config) {
+        this.inetHost = inetHost;
+        this.inetPort = inetPort;
+        this.config = config;
     }
 
     public StartScreen getStartScreen() {
@@ -79,11 +109,35 @@ public class SuperDuckInvaders extends Game {
         return world;
     }
 
+    @Override
+    public void waitingForPlayers(int players) {
+        startScreen.setMessage("Waiting for " + players + " more player" + (players == 1 ? "" : "s"));
+    }
+
+    @Override
+    public void started() {
+        showGameScreen();
+    }
+
+    @Override
+    public void interfaceUpdated(float health, float flightCharge, float[] powerupCharge) {
+        gameScreen.setHealth(health);
+        gameScreen.setFlightCharge(flightCharge);
+        gameScreen.setPowerupCharge(powerupCharge);
+    }
+
+    @Override
+    public void disconnected(String message) {
+        startScreen.setMessage(message, Color.RED);
+        showStartScreen();
+    }
+
     @Override
     public void create() {
         Assets.load();
 
-        world = new World(Assets.levelOneMap);
+        world = new World(Assets.levelOneMap, config);
+        engine = new Engine(world, this, inetHost, inetPort, config);
 
         batch = new SpriteBatch();
 
@@ -103,20 +157,46 @@ public class SuperDuckInvaders extends Game {
     @Override
     public void render() {
         float delta = Gdx.graphics.getDeltaTime();
+        Metrics metrics = engine.getMetrics();
+        long start = System.nanoTime();
+
+        if (lastFrame != 0)
+            metrics.getFrameTime().record(start - lastFrame);
+
+        lastFrame = start;
 
         engine.updateInbound();
 
         // If we're on the game screen, update the world.
-        if (screen == gameScreen)
+        if (screen == gameScreen) {
+            long worldStart = System.nanoTime();
+
             world.update(delta);
+            metrics.getWorldUpdateTime().record(System.nanoTime() - worldStart);
+        }
 
         // Renders the current screen.
+        long renderStart = System.nanoTime();
+
         super.render();
+        metrics.getRenderTime().record(System.nanoTime() - renderStart);
+
+        if (screen == gameScreen)
+            engine.frameRendered();
         engine.updateOutbound();
+
+        SessionReplayer replayer = engine.getReplayer();
+
+        if (replayer != null && !replayReported && replayer.getReplayTime() != -1) {
+            Gdx.app.log("Replay", "replayed " + replayer.getReplayed() + " bytes in "
+                    + replayer.getReplayTime() / 1000000 + " ms");
+            replayReported = true;
+        }
     }
 
     @Override
     public void dispose() {
+        engine.dispose();
         batch.dispose();
     }
 }
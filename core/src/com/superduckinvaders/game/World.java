@@ -1,14 +1,23 @@
 package com.superduckinvaders.game;
 
 import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
 import com.superduckinvaders.game.entity.Entity;
-import com.superduckinvaders.game.entity.EntityList;
+import com.superduckinvaders.game.entity.EntityStore;
+
+import java.util.Arrays;
 
 /**
  * Represents a round of the game played on one level with a single objective.
  */
 public final class World {
 
+    /**
+     * The maximum number of entities, and so one more than the highest entity ID. Snapshots and position deltas
+     * carry IDs in 16 bits.
+     */
+    public static final int MAX_ENTITIES = 1 << 16;
+
     /**
      * The World's map.
      */
@@ -25,35 +34,84 @@ public final class World {
     private int tileWidth, tileHeight;
 
     /**
-     * List of all entities currently in the World.
+     * The state of all entities currently in the World.
+     */
+    private final EntityStore store;
+
+    /**
+     * The Entity for each ID, created the first time it is used and kept, as it holds nothing but the ID.
+     */
+    private final Entity[] handles = new Entity[MAX_ENTITIES];
+
+    /**
+     * Which IDs belong to entities that have moved out of the area of interest.
      */
-    private EntityList entities;
+    private final boolean[] dormant = new boolean[MAX_ENTITIES];
+
+    /**
+     * The number of dormant entities.
+     */
+    private int dormantCount = 0;
 
     /**
      * The ID of the player entity.
      */
     private int player;
 
+    /**
+     * How far behind the latest updates other entities are drawn, in nanoseconds.
+     */
+    private final long interpolationDelay;
+
+    /**
+     * The map layer containing tiles that block movement.
+     */
+    private TiledMapTileLayer collisionLayer;
+
+    /**
+     * Predicts the movement of the player ahead of the server.
+     */
+    private final PlayerPredictor predictor;
+
+    /**
+     * Initialises a new World without a map, which needs no graphics and so can run headless. Nothing blocks the
+     * player's movement.
+     *
+     * @param config the engine settings
+     */
+    public World(EngineConfiguration config) {
+        this(null, config);
+    }
+
     /**
      * Initialises a new World with the specified map.
      *
-     * @param map the World's map
+     * @param map    the World's map, or null for none
+     * @param config the engine settings
      */
-    public World(TiledMap map) {
+    public World(TiledMap map, EngineConfiguration config) {
         this.map = map;
 
+        interpolationDelay = config.interpolationDelay * 1000000L;
+        predictor = new PlayerPredictor(this, config.playerSpeed, 1f / config.inputTickRate);
+        store = new EntityStore(MAX_ENTITIES);
+
+        if (map == null)
+            return;
+
+        // This will be null if there is no collision layer.
+        collisionLayer = (TiledMapTileLayer) map.getLayers().get("Collision");
+
         mapWidth = map.getProperties().get("width", Integer.class);
         mapHeight = map.getProperties().get("height", Integer.class);
         tileWidth = map.getProperties().get("tilewidth", Integer.class);
         tileHeight = map.getProperties().get("tileheight", Integer.class);
-
-        entities = new EntityList(2048);
     }
 
     /**
      * Returns this World's map
      *
-     * @return this World's map
+     * @return this World's map, or null if it has none
      */
     public TiledMap getMap() {
         return map;
@@ -68,21 +126,72 @@ public final class World {
     }
 
     /**
-     * Returns a list of all the entities in this World
+     * Returns the store holding the state of all the entities in this World, for updating and drawing them all at
+     * once.
      *
-     * @return a list of all the entities in this World
+     * @return the entity store
      */
-    public EntityList getEntities() {
-        return entities;
+    public EntityStore getEntityStore() {
+        return store;
     }
 
     /**
      * Returns the entity that represents the player.
      *
-     * @return the entity that represents the player
+     * @return the entity that represents the player, or null if it isn't in this World
      */
     public Entity getPlayer() {
-        return entities.get(player);
+        return store.getSlot(player) != -1 ? handles[player] : null;
+    }
+
+    /**
+     * Returns the ID of the entity that represents the player.
+     *
+     * @return the ID of the player entity
+     */
+    public int getPlayerId() {
+        return player;
+    }
+
+    /**
+     * Returns the predictor for the player's movement.
+     *
+     * @return the predictor for the player's movement
+     */
+    public PlayerPredictor getPredictor() {
+        return predictor;
+    }
+
+    /**
+     * Checks whether a rectangle overlaps any tile on the collision layer.
+     *
+     * @param x      the x coordinate of the bottom left corner
+     * @param y      the y coordinate of the bottom left corner
+     * @param width  the width of the rectangle
+     * @param height the height of the rectangle
+     * @return true if the rectangle overlaps a collision tile or leaves the map
+     */
+    public boolean collidesWithMap(double x, double y, int width, int height) {
+        if (map == null)
+            return false;
+
+        if (x < 0 || y < 0 || x + width > getMapWidth() || y + height > getMapHeight())
+            return true;
+
+        if (collisionLayer == null)
+            return false;
+
+        int left = (int) (x / tileWidth), right = (int) ((x + width - 1) / tileWidth);
+        int bottom = (int) (y / tileHeight), top = (int) ((y + height - 1) / tileHeight);
+
+        for (int tileX = left; tileX <= right; tileX++) {
+            for (int tileY = bottom; tileY <= top; tileY++) {
+                if (collisionLayer.getCell(tileX, tileY) != null)
+                    return true;
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -94,35 +203,106 @@ public final class World {
         this.player = player;
     }
 
-    public void createEntity(int id, double x, double y, Entity.Direction direction, int texture) {
-        entities.set(id, new Entity(x, y, direction, texture));
+    /**
+     * Adds an entity, or brings a dormant one back with its new state. An existing entity is reset to the new state.
+     *
+     * @param id        the ID of the entity
+     * @param x         the x coordinate
+     * @param y         the y coordinate
+     * @param direction the direction
+     * @param texture   the texture
+     * @param time      the time the entity was received, in nanoseconds
+     */
+    public void createEntity(int id, double x, double y, Entity.Direction direction, int texture, long time) {
+        if (dormant[id]) {
+            dormant[id] = false;
+            dormantCount--;
+        }
+
+        int slot = store.add(id, x, y, direction, texture);
+
+        // The player is drawn where the server last put it, everything else is interpolated.
+        if (id != player)
+            store.addPosition(slot, time, x, y);
+
+        if (handles[id] == null)
+            handles[id] = new Entity(store, id);
     }
 
     public void destroyEntity(int id) {
-        entities.remove(id);
+        store.remove(id);
+
+        if (dormant[id]) {
+            dormant[id] = false;
+            dormantCount--;
+        }
     }
 
-    public void updateEntityPosition(int id, double x, double y) {
-        Entity entity = entities.get(id);
+    /**
+     * Hides an entity that has moved out of the area of interest. It stops being updated and drawn until the server
+     * creates it again, as is likely for one near the edge of the screen.
+     *
+     * @param id the ID of the entity
+     */
+    public void leaveEntity(int id) {
+        // The player must stay in the world for the camera to follow, so it is never hidden.
+        if (id == player)
+            return;
 
-        if (entity != null) {
-            entity.setX(x);
-            entity.setY(y);
+        if (store.remove(id)) {
+            dormant[id] = true;
+            dormantCount++;
+        }
+    }
+
+    /**
+     * Returns the number of entities hidden after moving out of the area of interest.
+     *
+     * @return the number of dormant entities
+     */
+    public int getDormantCount() {
+        return dormantCount;
+    }
+
+    /**
+     * Removes every entity from this World.
+     */
+    public void clear() {
+        store.clear();
+        Arrays.fill(dormant, false);
+        dormantCount = 0;
+    }
+
+    public void updateEntityPosition(int id, double x, double y, long time) {
+        int slot = store.getSlot(id);
+
+        if (slot == -1)
+            return;
+
+        if (id == player) {
+            if (predictor.isEnabled()) {
+                predictor.reconcile(x, y);
+            } else {
+                store.setX(slot, x);
+                store.setY(slot, y);
+            }
+        } else {
+            store.addPosition(slot, time, x, y);
         }
     }
 
     public void updateEntityDirection(int id, Entity.Direction direction) {
-        Entity entity = entities.get(id);
+        int slot = store.getSlot(id);
 
-        if (entity != null)
-            entity.setDirection(direction);
+        if (slot != -1)
+            store.setDirection(slot, direction);
     }
 
     public void updateEntityTexture(int id, int texture) {
-        Entity entity = entities.get(id);
+        int slot = store.getSlot(id);
 
-        if (entity != null)
-            entity.setTexture(texture);
+        if (slot != -1)
+            store.setTexture(slot, texture);
     }
 
     /**
@@ -131,8 +311,6 @@ public final class World {
      * @param delta the time elapsed since the last update
      */
     public void update(float delta) {
-        for (Entity entity : entities) {
-            entity.update(delta);
-        }
+        store.update(System.nanoTime() - interpolationDelay, delta);
     }
 }
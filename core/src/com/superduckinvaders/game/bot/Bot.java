@@ -0,0 +1,153 @@
+package com.superduckinvaders.game.bot;
+
+import com.superduckinvaders.game.Engine;
+import com.superduckinvaders.game.EngineConfiguration;
+import com.superduckinvaders.game.EngineListener;
+import com.superduckinvaders.game.InputHandler;
+import com.superduckinvaders.game.World;
+import com.superduckinvaders.game.entity.Entity;
+import io.netty.channel.EventLoopGroup;
+
+/**
+ * A headless client: an engine, a world without a map and scripted input, with nothing drawn. Many bots can share
+ * one event loop group. Each bot must always be updated from the same thread, as the game is from the render thread.
+ */
+public final class Bot implements EngineListener {
+
+    /**
+     * The size of the area a bot reports as its camera, the same as the game's at its default window size.
+     */
+    private static final float VIEWPORT_WIDTH = 640, VIEWPORT_HEIGHT = 360;
+
+    /**
+     * The number of this bot, for reports.
+     */
+    private final int number;
+
+    private final World world;
+
+    private final Engine engine;
+
+    private final InputHandler input;
+
+    private final ScriptedInput script;
+
+    /**
+     * Whether the round has started, and so whether there is a player to move.
+     */
+    private volatile boolean started = false;
+
+    /**
+     * Why the connection ended, or null while connected.
+     */
+    private volatile String disconnectMessage;
+
+    /**
+     * Creates a new Bot.
+     *
+     * @param number      the number of this bot, which also seeds its script
+     * @param inetHost    the host of the server
+     * @param inetPort    the port of the server
+     * @param config      the engine settings
+     * @param workerGroup the event loop group shared between bots
+     */
+    public Bot(int number, String inetHost, int inetPort, EngineConfiguration config, EventLoopGroup workerGroup) {
+        this.number = number;
+
+        world = new World(config);
+        engine = new Engine(world, this, inetHost, inetPort, config, workerGroup);
+        input = new InputHandler(null, engine, world.getPredictor(), config.inputRedundancy);
+        script = new ScriptedInput(input, world, number);
+    }
+
+    /**
+     * Connects to the server. Blocks until connected or failed.
+     */
+    public void connect() {
+        engine.connect();
+    }
+
+    /**
+     * Runs one frame: applies the server's updates, and samples and sends the input. Other entities aren't
+     * interpolated, as nothing is drawn.
+     *
+     * @param delta the time elapsed since the last frame, in seconds
+     */
+    public void update(float delta) {
+        if (engine.isClosed())
+            return;
+
+        try {
+            engine.updateInbound();
+
+            if (started) {
+                script.update(delta);
+                input.update(delta);
+
+                // The camera follows the player, as in the game.
+                Entity player = world.getPlayer();
+
+                if (player != null)
+                    engine.updateViewport((float) player.getX() - VIEWPORT_WIDTH / 2,
+                            (float) player.getY() - VIEWPORT_HEIGHT / 2, VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+            }
+
+            // As the game records after drawing each game frame, so the time to the first one can be compared.
+            if (started)
+                engine.frameRendered();
+
+            engine.updateOutbound();
+        } catch (RuntimeException ex) {
+            // One bot failing shouldn't stop the others updated by the same thread.
+            engine.dispose();
+            disconnected(ex.toString());
+        }
+    }
+
+    /**
+     * Stops the bot, leaving the shared event loop group running.
+     */
+    public void dispose() {
+        engine.dispose();
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Returns why the connection ended.
+     *
+     * @return the reason, or null while connected
+     */
+    public String getDisconnectMessage() {
+        return disconnectMessage;
+    }
+
+    @Override
+    public void waitingForPlayers(int players) {
+    }
+
+    @Override
+    public void started() {
+        started = true;
+    }
+
+    @Override
+    public void interfaceUpdated(float health, float flightCharge, float[] powerupCharge) {
+    }
+
+    @Override
+    public void disconnected(String message) {
+        started = false;
+        disconnectMessage = message;
+    }
+}
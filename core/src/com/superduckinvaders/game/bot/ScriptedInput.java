@@ -0,0 +1,85 @@
+package com.superduckinvaders.game.bot;
+
+import com.superduckinvaders.game.InputHandler;
+import com.superduckinvaders.game.World;
+import com.superduckinvaders.game.entity.Entity;
+
+import java.util.Random;
+
+/**
+ * Plays like a restless player: wanders in a random direction, changing every so often, and fires at random points
+ * around itself in bursts. Drives an {@link InputHandler}, which samples and sends the input exactly as it would
+ * the keyboard and mouse.
+ */
+public final class ScriptedInput {
+
+    /**
+     * The shortest and longest time to keep moving one way, in seconds.
+     */
+    private static final float MIN_HOLD = 0.25f, MAX_HOLD = 2;
+
+    /**
+     * The chance of attacking during each hold, and of flying at the start of each.
+     */
+    private static final float ATTACK_CHANCE = 0.3f, FLY_CHANCE = 0.02f;
+
+    /**
+     * How far from the player attacks are aimed, in pixels.
+     */
+    private static final float AIM_RADIUS = 200;
+
+    private final InputHandler input;
+
+    private final World world;
+
+    private final Random random;
+
+    /**
+     * The time until the next change of direction, in seconds.
+     */
+    private float hold = 0;
+
+    /**
+     * Creates a new ScriptedInput.
+     *
+     * @param input the input handler to drive
+     * @param world the world containing the player
+     * @param seed  the seed for the script, so that a run can be repeated
+     */
+    public ScriptedInput(InputHandler input, World world, long seed) {
+        this.input = input;
+        this.world = world;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Advances the script.
+     *
+     * @param delta the time elapsed since the last update
+     */
+    public void update(float delta) {
+        hold -= delta;
+
+        if (hold > 0)
+            return;
+
+        hold = MIN_HOLD + random.nextFloat() * (MAX_HOLD - MIN_HOLD);
+
+        // Any of the 16 combinations of movement keys, including none and opposing ones, as a player might hold.
+        input.setMovement(random.nextInt(16));
+
+        Entity player = world.getPlayer();
+
+        if (player != null && random.nextFloat() < ATTACK_CHANCE) {
+            double angle = random.nextDouble() * Math.PI * 2;
+
+            input.setAttack(true, player.getX() + Math.cos(angle) * AIM_RADIUS,
+                    player.getY() + Math.sin(angle) * AIM_RADIUS);
+        } else {
+            input.setAttack(false, 0, 0);
+        }
+
+        if (random.nextFloat() < FLY_CHANCE)
+            input.fly();
+    }
+}
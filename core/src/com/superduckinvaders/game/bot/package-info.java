@@ -0,0 +1,4 @@
+/**
+ * Contains code relating to headless clients driven by scripted input, for putting load on a server.
+ */
+package com.superduckinvaders.game.bot;
@@ -2,55 +2,55 @@ package com.superduckinvaders.game.entity;
 
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
-import com.superduckinvaders.game.assets.Assets;
 
 /**
- * Represents an object in the game.
+ * Represents an object in the game. Its state is kept in an {@link EntityStore}, and an Entity only refers to it by
+ * ID, so must not be used once the entity is removed from the store.
  */
 public final class Entity {
 
-    private static final int ANIM_COOLDOWN = 5;
-
     /**
-     * The coordinates of this Entity.
+     * The store holding this Entity's state.
      */
-    private double x, y;
+    private final EntityStore store;
 
     /**
-     * The direction this Entity is facing.
+     * The ID of this Entity.
      */
-    private Direction direction;
+    private final int id;
 
     /**
-     * Which texture this Entity should use.
+     * Creates a new Entity referring to the specified entity in a store.
+     *
+     * @param store the store holding the entity's state
+     * @param id    the ID of the entity
      */
-    private int texture;
+    public Entity(EntityStore store, int id) {
+        this.store = store;
+        this.id = id;
+    }
 
     /**
-     * The state time for animation.
+     * Returns the ID of this Entity.
+     *
+     * @return the ID of this Entity
      */
-    private float stateTime;
+    public int getId() {
+        return id;
+    }
 
     /**
-     * The previous values of x and y. Used for detecting a change in position to update state time.
+     * Returns the slot holding this Entity's state, which changes as other entities are removed.
+     *
+     * @return the slot of this Entity
      */
-    private double oldX, oldY;
+    private int slot() {
+        int slot = store.getSlot(id);
 
-    private int animCounter = 0;
+        if (slot == -1)
+            throw new IllegalStateException("Entity " + id + " is not in the store");
 
-    /**
-     * Creates a new Entity with the specified parameters.
-     *
-     * @param x         the x coordinate
-     * @param y         the y coordinate
-     * @param direction the direction
-     * @param texture   the texture
-     */
-    public Entity(double x, double y, Direction direction, int texture) {
-        this.x = oldX = x;
-        this.y = oldY = y;
-        this.direction = direction;
-        this.texture = texture;
+        return slot;
     }
 
     /**
@@ -59,7 +59,7 @@ public final class Entity {
      * @return the x coordinate of this Entity
      */
     public double getX() {
-        return x;
+        return store.getX(slot());
     }
 
     /**
@@ -68,7 +68,7 @@ public final class Entity {
      * @param x the new x coordinate of this Entity
      */
     public void setX(double x) {
-        this.x = x;
+        store.setX(slot(), x);
     }
 
     /**
@@ -77,7 +77,7 @@ public final class Entity {
      * @return the y coordinate of this Entity
      */
     public double getY() {
-        return y;
+        return store.getY(slot());
     }
 
     /**
@@ -86,7 +86,27 @@ public final class Entity {
      * @param y the new y coordinate of this Entity
      */
     public void setY(double y) {
-        this.y = y;
+        store.setY(slot(), y);
+    }
+
+    /**
+     * Records a position received from the server, to be reached once the render clock catches up with it.
+     *
+     * @param time the time the position was received, in nanoseconds
+     * @param x    the new x coordinate
+     * @param y    the new y coordinate
+     */
+    public void addPosition(long time, double x, double y) {
+        store.addPosition(slot(), time, x, y);
+    }
+
+    /**
+     * Moves this Entity to where it was at the specified time, according to the positions received.
+     *
+     * @param time the render time, in nanoseconds
+     */
+    public void interpolate(long time) {
+        store.interpolate(slot(), time);
     }
 
     /**
@@ -95,7 +115,7 @@ public final class Entity {
      * @return the direction this Entity is facing
      */
     public Direction getDirection() {
-        return direction;
+        return store.getDirection(slot());
     }
 
     /**
@@ -104,7 +124,7 @@ public final class Entity {
      * @param direction the new direction this Entity is facing
      */
     public void setDirection(Direction direction) {
-        this.direction = direction;
+        store.setDirection(slot(), direction);
     }
 
     /**
@@ -113,7 +133,7 @@ public final class Entity {
      * @return the index of the texture for this Entity
      */
     public int getTexture() {
-        return texture;
+        return store.getTexture(slot());
     }
 
     /**
@@ -122,7 +142,7 @@ public final class Entity {
      * @param texture the new index of the texture for this Entity
      */
     public void setTexture(int texture) {
-        this.texture = texture;
+        store.setTexture(slot(), texture);
     }
 
     /**
@@ -131,17 +151,16 @@ public final class Entity {
      * @return the state time of this Entity
      */
     public float getStateTime() {
-        return stateTime;
+        return store.getStateTime(slot());
     }
 
     /**
-     * Returns the c
-     * urrent texture region to draw for this Entity.
+     * Returns the current texture region to draw for this Entity.
      *
      * @return the current texture region to draw for this Entity
      */
     public TextureRegion getTextureRegion() {
-        return Assets.textures[texture].getTexture(direction.ordinal(), stateTime);
+        return store.getTextureRegion(slot());
     }
 
     /**
@@ -150,25 +169,11 @@ public final class Entity {
      * @param delta the tile elapsed since the last update
      */
     public void update(float delta) {
-        if (x != oldX || y != oldY) {
-            // Moved since last frame, increment state time.
-            animCounter = ANIM_COOLDOWN;
-        } else if (animCounter > 0) {
-            animCounter--;
-        }
-
-        if (animCounter > 0) {
-            stateTime += delta;
-        } else {
-            stateTime = 0;
-        }
-
-        oldX = x;
-        oldY = y;
+        store.update(slot(), delta);
     }
 
     public void render(SpriteBatch batch) {
-        batch.draw(getTextureRegion(), (float) x, (float) y);
+        store.render(slot(), batch);
     }
 
     /**
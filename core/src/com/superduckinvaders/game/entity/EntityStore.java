@@ -0,0 +1,428 @@
+package com.superduckinvaders.game.entity;
+
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.superduckinvaders.game.assets.Assets;
+
+import java.util.Arrays;
+
+/**
+ * Holds the state of every live entity in parallel arrays of primitives, one element per slot, so that updating and
+ * drawing every entity runs through contiguous memory rather than following a pointer to each. The live entities
+ * occupy the first {@link #size()} slots, and removing one moves the last into its slot. A sparse table gives the
+ * slot of each entity ID.
+ * <p>
+ * Each slot also has a short history of time stamped positions received from the server, for drawing the entity
+ * between updates. The history of slot s is kept in elements s * {@value #HISTORY} onwards of its arrays.
+ */
+public final class EntityStore {
+
+    private static final int ANIM_COOLDOWN = 5;
+
+    /**
+     * The number of positions kept for each entity. Must be a power of two.
+     */
+    public static final int HISTORY = 8;
+
+    /**
+     * The number of slots to start with. The arrays double in size whenever they fill up.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The slot of each ID, or -1 if there is no entity with that ID.
+     */
+    private final int[] slots;
+
+    /**
+     * The ID of the entity in each slot.
+     */
+    private int[] ids;
+
+    /**
+     * The number of live entities, which occupy the first slots.
+     */
+    private int size = 0;
+
+    /**
+     * The coordinates of each entity, and the coordinates at the last update, for detecting movement.
+     */
+    private double[] x, y, oldX, oldY;
+
+    /**
+     * The ordinal of the direction each entity is facing.
+     */
+    private byte[] direction;
+
+    /**
+     * Which texture each entity should use.
+     */
+    private int[] texture;
+
+    /**
+     * The state time for animating each entity, and how many more updates to animate for without moving.
+     */
+    private float[] stateTime;
+    private int[] animCounter;
+
+    /**
+     * The history of positions received for each entity: the times in nanoseconds and the coordinates.
+     */
+    private long[] historyTime;
+    private double[] historyX, historyY;
+
+    /**
+     * The index within its history of each entity's newest position, and the number of positions it has.
+     */
+    private int[] newest, count;
+
+    /**
+     * Creates a new EntityStore.
+     *
+     * @param maxEntities the number of entity IDs
+     */
+    public EntityStore(int maxEntities) {
+        slots = new int[maxEntities];
+        Arrays.fill(slots, -1);
+
+        allocate(Math.min(INITIAL_CAPACITY, maxEntities));
+    }
+
+    /**
+     * Resizes the per slot arrays, keeping their contents.
+     *
+     * @param capacity the number of slots
+     */
+    private void allocate(int capacity) {
+        if (ids == null) {
+            ids = new int[capacity];
+            x = new double[capacity];
+            y = new double[capacity];
+            oldX = new double[capacity];
+            oldY = new double[capacity];
+            direction = new byte[capacity];
+            texture = new int[capacity];
+            stateTime = new float[capacity];
+            animCounter = new int[capacity];
+            historyTime = new long[capacity * HISTORY];
+            historyX = new double[capacity * HISTORY];
+            historyY = new double[capacity * HISTORY];
+            newest = new int[capacity];
+            count = new int[capacity];
+            return;
+        }
+
+        ids = Arrays.copyOf(ids, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        oldX = Arrays.copyOf(oldX, capacity);
+        oldY = Arrays.copyOf(oldY, capacity);
+        direction = Arrays.copyOf(direction, capacity);
+        texture = Arrays.copyOf(texture, capacity);
+        stateTime = Arrays.copyOf(stateTime, capacity);
+        animCounter = Arrays.copyOf(animCounter, capacity);
+        historyTime = Arrays.copyOf(historyTime, capacity * HISTORY);
+        historyX = Arrays.copyOf(historyX, capacity * HISTORY);
+        historyY = Arrays.copyOf(historyY, capacity * HISTORY);
+        newest = Arrays.copyOf(newest, capacity);
+        count = Arrays.copyOf(count, capacity);
+    }
+
+    /**
+     * Returns the number of live entities.
+     *
+     * @return the number of live entities
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the slot of an entity.
+     *
+     * @param id the ID of the entity
+     * @return the slot, or -1 if there is no entity with that ID
+     */
+    public int getSlot(int id) {
+        return id >= 0 && id < slots.length ? slots[id] : -1;
+    }
+
+    /**
+     * Returns the ID of the entity in a slot.
+     *
+     * @param slot the slot
+     * @return the ID of the entity
+     */
+    public int getId(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * Adds an entity, or puts an existing one back as if it had just been created, with no position history.
+     *
+     * @param id        the ID of the entity
+     * @param x         the x coordinate
+     * @param y         the y coordinate
+     * @param direction the direction
+     * @param texture   the texture
+     * @return the slot of the entity
+     */
+    public int add(int id, double x, double y, Entity.Direction direction, int texture) {
+        int slot = slots[id];
+
+        if (slot == -1) {
+            if (size == ids.length)
+                allocate(Math.min(size * 2, slots.length));
+
+            slot = size++;
+            slots[id] = slot;
+            ids[slot] = id;
+        }
+
+        this.x[slot] = oldX[slot] = x;
+        this.y[slot] = oldY[slot] = y;
+        this.direction[slot] = (byte) direction.ordinal();
+        this.texture[slot] = texture;
+        stateTime[slot] = 0;
+        animCounter[slot] = 0;
+        newest[slot] = -1;
+        count[slot] = 0;
+
+        return slot;
+    }
+
+    /**
+     * Removes an entity, moving the entity in the last slot into its slot.
+     *
+     * @param id the ID of the entity
+     * @return true if there was an entity with that ID
+     */
+    public boolean remove(int id) {
+        int slot = getSlot(id);
+
+        if (slot == -1)
+            return false;
+
+        int last = --size;
+
+        if (slot != last)
+            move(last, slot);
+
+        slots[id] = -1;
+
+        return true;
+    }
+
+    /**
+     * Copies an entity from one slot to another, overwriting whatever was there.
+     *
+     * @param from the slot to copy from
+     * @param to   the slot to copy to
+     */
+    private void move(int from, int to) {
+        int id = ids[from];
+
+        ids[to] = id;
+        slots[id] = to;
+
+        x[to] = x[from];
+        y[to] = y[from];
+        oldX[to] = oldX[from];
+        oldY[to] = oldY[from];
+        direction[to] = direction[from];
+        texture[to] = texture[from];
+        stateTime[to] = stateTime[from];
+        animCounter[to] = animCounter[from];
+        newest[to] = newest[from];
+        count[to] = count[from];
+
+        System.arraycopy(historyTime, from * HISTORY, historyTime, to * HISTORY, HISTORY);
+        System.arraycopy(historyX, from * HISTORY, historyX, to * HISTORY, HISTORY);
+        System.arraycopy(historyY, from * HISTORY, historyY, to * HISTORY, HISTORY);
+    }
+
+    /**
+     * Removes every entity.
+     */
+    public void clear() {
+        for (int slot = 0; slot < size; slot++) {
+            slots[ids[slot]] = -1;
+        }
+
+        size = 0;
+    }
+
+    public double getX(int slot) {
+        return x[slot];
+    }
+
+    public void setX(int slot, double x) {
+        this.x[slot] = x;
+    }
+
+    public double getY(int slot) {
+        return y[slot];
+    }
+
+    public void setY(int slot, double y) {
+        this.y[slot] = y;
+    }
+
+    public Entity.Direction getDirection(int slot) {
+        return Entity.Direction.forOrdinal(direction[slot]);
+    }
+
+    public void setDirection(int slot, Entity.Direction direction) {
+        this.direction[slot] = (byte) direction.ordinal();
+    }
+
+    public int getTexture(int slot) {
+        return texture[slot];
+    }
+
+    public void setTexture(int slot, int texture) {
+        this.texture[slot] = texture;
+    }
+
+    public float getStateTime(int slot) {
+        return stateTime[slot];
+    }
+
+    /**
+     * Returns the current texture region to draw for an entity.
+     *
+     * @param slot the slot of the entity
+     * @return the texture region
+     */
+    public TextureRegion getTextureRegion(int slot) {
+        return Assets.textures[texture[slot]].getTexture(direction[slot], stateTime[slot]);
+    }
+
+    /**
+     * Records a position received from the server, to be reached once the render clock catches up with it. The
+     * oldest position is replaced if the history is full, and positions received at the same instant replace each
+     * other.
+     *
+     * @param slot the slot of the entity
+     * @param time the time the position was received, in nanoseconds
+     * @param x    the new x coordinate
+     * @param y    the new y coordinate
+     */
+    public void addPosition(int slot, long time, double x, double y) {
+        int base = slot * HISTORY;
+        int index = newest[slot];
+
+        if (count[slot] == 0 || time > historyTime[base + index]) {
+            index = (index + 1) & (HISTORY - 1);
+            newest[slot] = index;
+
+            if (count[slot] < HISTORY)
+                count[slot]++;
+        }
+
+        historyTime[base + index] = time;
+        historyX[base + index] = x;
+        historyY[base + index] = y;
+    }
+
+    /**
+     * Moves an entity to where it was at the specified time, interpolating between the positions received either
+     * side of it. Times outside the history are clamped to the oldest or newest position, and an entity with no
+     * history stays where it is.
+     *
+     * @param slot the slot of the entity
+     * @param time the render time, in nanoseconds
+     */
+    public void interpolate(int slot, long time) {
+        int positions = count[slot];
+
+        if (positions == 0)
+            return;
+
+        int base = slot * HISTORY;
+        int newest = this.newest[slot];
+        int later = base + newest;
+
+        for (int i = 0; i < positions; i++) {
+            int index = base + ((newest - i) & (HISTORY - 1));
+
+            if (historyTime[index] <= time) {
+                if (i == 0) {
+                    x[slot] = historyX[index];
+                    y[slot] = historyY[index];
+                } else {
+                    double alpha = (time - historyTime[index]) / (double) (historyTime[later] - historyTime[index]);
+
+                    x[slot] = historyX[index] + (historyX[later] - historyX[index]) * alpha;
+                    y[slot] = historyY[index] + (historyY[later] - historyY[index]) * alpha;
+                }
+
+                return;
+            }
+
+            later = index;
+        }
+
+        // Older than everything stored.
+        x[slot] = historyX[later];
+        y[slot] = historyY[later];
+    }
+
+    /**
+     * Updates the state time of an entity, which runs while it is moving and for a few updates after.
+     *
+     * @param slot  the slot of the entity
+     * @param delta the time elapsed since the last update
+     */
+    public void update(int slot, float delta) {
+        if (x[slot] != oldX[slot] || y[slot] != oldY[slot]) {
+            // Moved since last frame, increment state time.
+            animCounter[slot] = ANIM_COOLDOWN;
+        } else if (animCounter[slot] > 0) {
+            animCounter[slot]--;
+        }
+
+        if (animCounter[slot] > 0) {
+            stateTime[slot] += delta;
+        } else {
+            stateTime[slot] = 0;
+        }
+
+        oldX[slot] = x[slot];
+        oldY[slot] = y[slot];
+    }
+
+    /**
+     * Interpolates and updates every entity.
+     *
+     * @param time  the render time, in nanoseconds
+     * @param delta the time elapsed since the last update
+     */
+    public void update(long time, float delta) {
+        for (int slot = 0; slot < size; slot++) {
+            interpolate(slot, time);
+            update(slot, delta);
+        }
+    }
+
+    /**
+     * Draws an entity.
+     *
+     * @param slot  the slot of the entity
+     * @param batch the batch to draw with
+     */
+    public void render(int slot, SpriteBatch batch) {
+        batch.draw(getTextureRegion(slot), (float) x[slot], (float) y[slot]);
+    }
+
+    /**
+     * Draws every entity.
+     *
+     * @param batch the batch to draw with
+     */
+    public void render(SpriteBatch batch) {
+        for (int slot = 0; slot < size; slot++) {
+            render(slot, batch);
+        }
+    }
+}
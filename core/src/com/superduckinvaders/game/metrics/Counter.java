@@ -0,0 +1,29 @@
+package com.superduckinvaders.game.metrics;
+
+/**
+ * A count that only ever goes up. Only one thread may update a Counter, but any thread may read it.
+ */
+public final class Counter {
+
+    private volatile long value = 0;
+
+    /**
+     * Adds one to this Counter.
+     */
+    public void increment() {
+        value++;
+    }
+
+    /**
+     * Adds to this Counter.
+     *
+     * @param amount the amount to add
+     */
+    public void add(long amount) {
+        value += amount;
+    }
+
+    public long get() {
+        return value;
+    }
+}
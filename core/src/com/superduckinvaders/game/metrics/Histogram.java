@@ -0,0 +1,132 @@
+package com.superduckinvaders.game.metrics;
+
+/**
+ * A histogram of non-negative values, such as durations in nanoseconds or queue depths, that records without
+ * allocating. Only one thread may record to a Histogram, but any thread may read it.
+ * <p>
+ * Values below 4 each get a bucket; above that each power of two is split into 4 buckets, so a value is known to
+ * within 25%. Readers copy the buckets with {@link #copyBuckets(long[])} and subtract an earlier copy to see only
+ * what was recorded in between, which avoids resetting anything under the writer.
+ */
+public final class Histogram {
+
+    /**
+     * The number of buckets, enough for any positive long.
+     */
+    public static final int BUCKETS = 248;
+
+    private final long[] buckets = new long[BUCKETS];
+
+    /**
+     * The number of values recorded, written last so that readers see the buckets it counts.
+     */
+    private volatile long count = 0;
+
+    private long sum = 0;
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        buckets[bucketOf(value)]++;
+        sum += value;
+        count++;
+    }
+
+    /**
+     * Returns the bucket a value falls in.
+     *
+     * @param value the value
+     * @return the index of the bucket
+     */
+    public static int bucketOf(long value) {
+        if (value < 4)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+        return (exponent - 1) * 4 + (int) ((value >>> (exponent - 2)) & 3);
+    }
+
+    /**
+     * Returns the smallest value in a bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return the smallest value in the bucket
+     */
+    public static long lowerBound(int bucket) {
+        if (bucket < 4)
+            return bucket;
+
+        int exponent = bucket / 4 + 1;
+
+        return (4L + bucket % 4) << (exponent - 2);
+    }
+
+    /**
+     * Returns the largest value in a bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return the largest value in the bucket
+     */
+    public static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+
+    /**
+     * Copies the bucket counts.
+     *
+     * @param into an array of at least {@link #BUCKETS} elements
+     * @return the number of values recorded, which may be slightly less than the total of the buckets copied
+     */
+    public long copyBuckets(long[] into) {
+        long count = this.count;
+
+        System.arraycopy(buckets, 0, into, 0, BUCKETS);
+
+        return count;
+    }
+
+    /**
+     * Returns the value below which the specified fraction of the counted values fall, to within a bucket.
+     *
+     * @param buckets  bucket counts, as copied by {@link #copyBuckets(long[])} or the difference of two copies
+     * @param fraction the fraction, between 0 and 1
+     * @return the upper bound of the bucket containing that value, or 0 if the buckets are empty
+     */
+    public static long percentile(long[] buckets, double fraction) {
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            total += buckets[i];
+        }
+
+        if (total == 0)
+            return 0;
+
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+
+            if (seen >= target && buckets[i] > 0)
+                return upperBound(i);
+        }
+
+        return 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+}
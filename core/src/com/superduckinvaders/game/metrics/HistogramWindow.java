@@ -0,0 +1,70 @@
+package com.superduckinvaders.game.metrics;
+
+/**
+ * The values recorded to a histogram between two updates. Keeps its own copy of the buckets, so the histogram is
+ * never reset and can have any number of windows over it.
+ */
+public final class HistogramWindow {
+
+    private final Histogram histogram;
+
+    private final long[] previous = new long[Histogram.BUCKETS], current = new long[Histogram.BUCKETS];
+
+    private final long[] delta = new long[Histogram.BUCKETS];
+
+    private long previousCount = 0;
+
+    /**
+     * The number of values recorded in the window.
+     */
+    private long count = 0;
+
+    public HistogramWindow(Histogram histogram) {
+        this.histogram = histogram;
+    }
+
+    /**
+     * Moves the window on to cover the values recorded since the last update.
+     */
+    public void update() {
+        long count = histogram.copyBuckets(current);
+
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            delta[i] = current[i] - previous[i];
+            previous[i] = current[i];
+        }
+
+        this.count = count - previousCount;
+        previousCount = count;
+    }
+
+    /**
+     * Returns the value below which the specified fraction of the values in the window fall.
+     *
+     * @param fraction the fraction, from 0 to 1
+     * @return the upper bound of the bucket containing the percentile, or 0 if the window is empty
+     */
+    public long percentile(double fraction) {
+        return Histogram.percentile(delta, fraction);
+    }
+
+    /**
+     * Returns the number of values recorded in the window.
+     *
+     * @return the number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Adds the bucket counts in the window to the specified buckets, for combining windows over several histograms.
+     *
+     * @param buckets the buckets to add to, {@link Histogram#BUCKETS} long
+     */
+    public void addTo(long[] buckets) {
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            buckets[i] += delta[i];
+        }
+    }
+}
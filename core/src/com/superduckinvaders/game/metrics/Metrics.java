@@ -0,0 +1,196 @@
+package com.superduckinvaders.game.metrics;
+
+import com.superduckinvaders.game.net.packets.InboundPacket;
+
+/**
+ * The registry of every counter and histogram. Everything is created up front, so recording never allocates.
+ * <p>
+ * Inbound metrics are recorded on the event loop, or the replay thread when replaying, except apply times, queue
+ * depths, update lag, input round trip times and prediction errors, which are recorded on the render thread along
+ * with the frame timings. Outbound metrics are recorded on the event loop.
+ */
+public final class Metrics {
+
+    /**
+     * The number of possible opcodes.
+     */
+    public static final int OPCODES = 256;
+
+    private static final InboundPacket.Type[] TYPES = InboundPacket.Type.values();
+
+    /**
+     * Inbound packets and payload bytes decoded, and the time taken to apply each packet to the world, by type.
+     */
+    private final Counter[] packetsReceived = new Counter[TYPES.length], bytesReceived = new Counter[TYPES.length];
+    private final Histogram[] applyTime = new Histogram[TYPES.length];
+
+    /**
+     * Outbound packets and bytes encoded, by opcode.
+     */
+    private final Counter[] packetsSent = new Counter[OPCODES], bytesSent = new Counter[OPCODES];
+
+    /**
+     * The time taken to decode each read from the socket, in nanoseconds.
+     */
+    private final Histogram decodeTime = new Histogram();
+
+    /**
+     * The number of packets queued at the start of each frame.
+     */
+    private final Histogram inboundDepth = new Histogram(), outboundDepth = new Histogram();
+
+    /**
+     * The time taken by each part of a frame, and between the starts of frames, in nanoseconds.
+     */
+    private final Histogram updateInboundTime = new Histogram(), updateOutboundTime = new Histogram();
+    private final Histogram worldUpdateTime = new Histogram(), renderTime = new Histogram();
+    private final Histogram frameTime = new Histogram();
+
+    /**
+     * The time between each packet arriving and the frame that applies it starting, and between applying an input
+     * and the server acknowledging it, in nanoseconds.
+     */
+    private final Histogram updateLag = new Histogram(), inputRoundTripTime = new Histogram();
+
+    /**
+     * The number of inbound packets left over for the next frame at the end of each frame, and the number of frames
+     * that left any.
+     */
+    private final Histogram inboundCarried = new Histogram();
+    private final Counter inboundSpills = new Counter();
+
+    /**
+     * The distance between the predicted and authoritative positions of the player at each reconciliation, in
+     * hundredths of a pixel.
+     */
+    private final Histogram predictionError = new Histogram();
+
+    /**
+     * The round trip time of each ping, less the time the server held it, in nanoseconds.
+     */
+    private final Histogram pingRoundTripTime = new Histogram();
+
+    /**
+     * The time taken to apply the entity state table each frame, in nanoseconds, and the number of entities changed.
+     */
+    private final Histogram stateApplyTime = new Histogram(), stateChanged = new Histogram();
+
+    public Metrics() {
+        for (int i = 0; i < TYPES.length; i++) {
+            packetsReceived[i] = new Counter();
+            bytesReceived[i] = new Counter();
+            applyTime[i] = new Histogram();
+        }
+
+        for (int i = 0; i < OPCODES; i++) {
+            packetsSent[i] = new Counter();
+            bytesSent[i] = new Counter();
+        }
+    }
+
+    /**
+     * Counts a decoded inbound packet.
+     *
+     * @param type the type of the packet
+     * @param size the size of its payload
+     */
+    public void received(InboundPacket.Type type, int size) {
+        packetsReceived[type.ordinal()].increment();
+        bytesReceived[type.ordinal()].add(size);
+    }
+
+    /**
+     * Counts an encoded outbound packet.
+     *
+     * @param opcode the opcode of the packet
+     * @param size   the size of the packet, including its opcode
+     */
+    public void sent(int opcode, int size) {
+        packetsSent[opcode].increment();
+        bytesSent[opcode].add(size);
+    }
+
+    public Counter getPacketsReceived(InboundPacket.Type type) {
+        return packetsReceived[type.ordinal()];
+    }
+
+    public Counter getBytesReceived(InboundPacket.Type type) {
+        return bytesReceived[type.ordinal()];
+    }
+
+    public Histogram getApplyTime(InboundPacket.Type type) {
+        return applyTime[type.ordinal()];
+    }
+
+    public Counter getPacketsSent(int opcode) {
+        return packetsSent[opcode];
+    }
+
+    public Counter getBytesSent(int opcode) {
+        return bytesSent[opcode];
+    }
+
+    public Histogram getDecodeTime() {
+        return decodeTime;
+    }
+
+    public Histogram getInboundDepth() {
+        return inboundDepth;
+    }
+
+    public Histogram getOutboundDepth() {
+        return outboundDepth;
+    }
+
+    public Histogram getUpdateInboundTime() {
+        return updateInboundTime;
+    }
+
+    public Histogram getUpdateOutboundTime() {
+        return updateOutboundTime;
+    }
+
+    public Histogram getWorldUpdateTime() {
+        return worldUpdateTime;
+    }
+
+    public Histogram getRenderTime() {
+        return renderTime;
+    }
+
+    public Histogram getFrameTime() {
+        return frameTime;
+    }
+
+    public Histogram getUpdateLag() {
+        return updateLag;
+    }
+
+    public Histogram getInputRoundTripTime() {
+        return inputRoundTripTime;
+    }
+
+    public Histogram getPredictionError() {
+        return predictionError;
+    }
+
+    public Histogram getInboundCarried() {
+        return inboundCarried;
+    }
+
+    public Counter getInboundSpills() {
+        return inboundSpills;
+    }
+
+    public Histogram getPingRoundTripTime() {
+        return pingRoundTripTime;
+    }
+
+    public Histogram getStateApplyTime() {
+        return stateApplyTime;
+    }
+
+    public Histogram getStateChanged() {
+        return stateChanged;
+    }
+}
@@ -0,0 +1,83 @@
+package com.superduckinvaders.game.metrics;
+
+import com.superduckinvaders.game.Engine;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Periodically appends a {@link MetricsReport} to a file, on its own daemon thread, so a session can be examined
+ * afterwards without the overlay. Failing to write ends the session through the engine, as failing to open the file
+ * does.
+ */
+public final class MetricsDumper extends TimerTask {
+
+    private final Engine engine;
+
+    private final File file;
+
+    private final MetricsReport report;
+
+    private final Writer out;
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private final Timer timer = new Timer("metrics", true);
+
+    /**
+     * Opens the file, appending to it if it exists.
+     *
+     * @param engine the engine to report on
+     * @param file   the file to append to
+     * @throws IOException if the file can't be opened
+     */
+    public MetricsDumper(Engine engine, File file) throws IOException {
+        this.engine = engine;
+        this.file = file;
+        this.report = new MetricsReport(engine);
+        this.out = new FileWriter(file, true);
+    }
+
+    /**
+     * Starts dumping.
+     *
+     * @param interval the time between dumps, in seconds
+     */
+    public void start(int interval) {
+        timer.scheduleAtFixedRate(this, interval * 1000L, interval * 1000L);
+    }
+
+    @Override
+    public void run() {
+        try {
+            out.write("--- ");
+            out.write(dateFormat.format(new Date()));
+            out.write('\n');
+            out.append(report.update());
+            out.flush();
+        } catch (IOException ex) {
+            // Stop rather than fail the same way every interval, and fail the session as opening the file would have.
+            stop();
+            engine.exceptionCaught("Could not write metrics to " + file + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Stops dumping and closes the file.
+     */
+    public void stop() {
+        timer.cancel();
+
+        try {
+            out.close();
+        } catch (IOException ex) {
+            // Nothing more can be done.
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.superduckinvaders.game.metrics;
+
+import com.superduckinvaders.game.Engine;
+import com.superduckinvaders.game.net.ClockEstimator;
+import com.superduckinvaders.game.net.DatagramConnection;
+import com.superduckinvaders.game.net.DatagramPacketDecoder;
+import com.superduckinvaders.game.net.InboundPacketDecoder;
+import com.superduckinvaders.game.net.OutboundFlusher;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+
+/**
+ * Describes the metrics as text, covering only what was recorded since the last update: rates over that time, and
+ * percentiles of the values recorded in it. Each reader, such as the debug overlay or the file dump, needs its own
+ * MetricsReport. Reuses its buffers, so updating doesn't allocate.
+ */
+public final class MetricsReport {
+
+    private static final InboundPacket.Type[] TYPES = InboundPacket.Type.values();
+
+    private final Engine engine;
+
+    private final Metrics metrics;
+
+    private final StringBuilder text = new StringBuilder(4096);
+
+    /**
+     * The windows over each histogram.
+     */
+    private final HistogramWindow frame, render, world, updateInbound, updateOutbound, decode, inboundDepth, outboundDepth;
+    private final HistogramWindow updateLag, inputRoundTrip, predictionError, pingRoundTrip, inboundCarried;
+    private final HistogramWindow stateApply, stateChanged;
+    private final HistogramWindow[] apply = new HistogramWindow[TYPES.length];
+
+    /**
+     * The counter values at the last update.
+     */
+    private final long[] packetsReceived = new long[TYPES.length], bytesReceived = new long[TYPES.length];
+    private final long[] packetsSent = new long[Metrics.OPCODES], bytesSent = new long[Metrics.OPCODES];
+
+    /**
+     * When this report was last updated, in nanoseconds.
+     */
+    private long lastUpdate = System.nanoTime();
+
+    public MetricsReport(Engine engine) {
+        this.engine = engine;
+        this.metrics = engine.getMetrics();
+
+        frame = new HistogramWindow(metrics.getFrameTime());
+        render = new HistogramWindow(metrics.getRenderTime());
+        world = new HistogramWindow(metrics.getWorldUpdateTime());
+        updateInbound = new HistogramWindow(metrics.getUpdateInboundTime());
+        updateOutbound = new HistogramWindow(metrics.getUpdateOutboundTime());
+        decode = new HistogramWindow(metrics.getDecodeTime());
+        inboundDepth = new HistogramWindow(metrics.getInboundDepth());
+        outboundDepth = new HistogramWindow(metrics.getOutboundDepth());
+        updateLag = new HistogramWindow(metrics.getUpdateLag());
+        inputRoundTrip = new HistogramWindow(metrics.getInputRoundTripTime());
+        predictionError = new HistogramWindow(metrics.getPredictionError());
+        pingRoundTrip = new HistogramWindow(metrics.getPingRoundTripTime());
+        inboundCarried = new HistogramWindow(metrics.getInboundCarried());
+        stateApply = new HistogramWindow(metrics.getStateApplyTime());
+        stateChanged = new HistogramWindow(metrics.getStateChanged());
+
+        for (int i = 0; i < TYPES.length; i++) {
+            apply[i] = new HistogramWindow(metrics.getApplyTime(TYPES[i]));
+        }
+    }
+
+    /**
+     * Describes what was recorded since the last update.
+     *
+     * @return the description, which is overwritten by the next update
+     */
+    public CharSequence update() {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - lastUpdate, 1) / 1e9;
+        lastUpdate = now;
+
+        text.setLength(0);
+
+        frame.update();
+        text.append("frame p50 ");
+        appendMillis(frame.percentile(0.5));
+        text.append(" p99 ");
+        appendMillis(frame.percentile(0.99));
+        text.append(" max ");
+        appendMillis(frame.percentile(1));
+        text.append(" ms, ").append(Math.round(frame.getCount() / seconds)).append(" fps\n");
+
+        render.update();
+        world.update();
+        updateInbound.update();
+        updateOutbound.update();
+        text.append("p99 render ");
+        appendMillis(render.percentile(0.99));
+        text.append(" world ");
+        appendMillis(world.percentile(0.99));
+        text.append(" inbound ");
+        appendMillis(updateInbound.percentile(0.99));
+        text.append(" outbound ");
+        appendMillis(updateOutbound.percentile(0.99));
+        text.append(" ms\n");
+
+        updateLag.update();
+        inputRoundTrip.update();
+        text.append("update lag p50 ");
+        appendMillis(updateLag.percentile(0.5));
+        text.append(" p99 ");
+        appendMillis(updateLag.percentile(0.99));
+        text.append(" ms, input rtt p50 ");
+        appendMillis(inputRoundTrip.percentile(0.5));
+        text.append(" p99 ");
+        appendMillis(inputRoundTrip.percentile(0.99));
+        text.append(" ms\n");
+
+        predictionError.update();
+
+        // Only recorded when the server acknowledges sequenced input.
+        if (predictionError.getCount() > 0) {
+            text.append("prediction error p50 ");
+            appendPixels(predictionError.percentile(0.5));
+            text.append(" p99 ");
+            appendPixels(predictionError.percentile(0.99));
+            text.append(" max ");
+            appendPixels(predictionError.percentile(1));
+            text.append(" px\n");
+        }
+
+        pingRoundTrip.update();
+        ClockEstimator clock = engine.getClock();
+
+        if (clock.isSynchronised()) {
+            text.append("ping p50 ");
+            appendMillis(pingRoundTrip.percentile(0.5));
+            text.append(" p99 ");
+            appendMillis(pingRoundTrip.percentile(0.99));
+            text.append(" ms, rtt ");
+            appendMillis(clock.getRoundTripTime());
+            text.append(" jitter ");
+            appendMillis(clock.getJitter());
+            text.append(" ms, clock offset ");
+            appendMillis(clock.getOffset());
+            text.append(" ms\n");
+        }
+
+        decode.update();
+        inboundDepth.update();
+        outboundDepth.update();
+        text.append("decode p99 ").append(decode.percentile(0.99) / 1000).append(" us, queue p99 in ")
+                .append(inboundDepth.percentile(0.99)).append('/').append(engine.getInboundQueue().capacity())
+                .append(" out ").append(outboundDepth.percentile(0.99)).append('/')
+                .append(engine.getOutboundQueue().capacity()).append(", overflows in ")
+                .append(engine.getInboundQueue().getOverflows()).append(" out ")
+                .append(engine.getOutboundQueue().getOverflows()).append('\n');
+
+        inboundCarried.update();
+        text.append("inbound budget spills ").append(metrics.getInboundSpills().get()).append(", carried p99 ")
+                .append(inboundCarried.percentile(0.99)).append(" max ").append(inboundCarried.percentile(1))
+                .append('\n');
+
+        if (engine.getStateTable() != null) {
+            stateApply.update();
+            stateChanged.update();
+            text.append("state table p50 ").append(stateApply.percentile(0.5) / 1000).append(" p99 ")
+                    .append(stateApply.percentile(0.99) / 1000).append(" us, changed p50 ")
+                    .append(stateChanged.percentile(0.5)).append(" p99 ").append(stateChanged.percentile(0.99))
+                    .append('\n');
+        }
+
+        // Counters kept by the pipeline itself, as totals.
+        text.append("coalesced ").append(engine.getCoalescer().getEliminated()).append('/')
+                .append(engine.getCoalescer().getReceived());
+
+        InboundPacketDecoder decoder = engine.getDecoder();
+
+        if (decoder != null && decoder.getCompressedBytes() > 0)
+            text.append(", compressed ").append(decoder.getCompressedBytes()).append(" -> ")
+                    .append(decoder.getInflatedBytes()).append(" B");
+
+        OutboundFlusher flusher = engine.getFlusher();
+
+        if (flusher != null)
+            text.append(", writes ").append(flusher.getWrites()).append(" flushes ").append(flusher.getFlushes())
+                    .append(" stalls ").append(flusher.getStalls());
+
+        DatagramConnection datagrams = engine.getDatagramConnection();
+
+        if (datagrams != null) {
+            DatagramPacketDecoder datagramDecoder = datagrams.getDecoder();
+
+            text.append(", datagrams ").append(datagramDecoder.getReceived()).append(" stale ")
+                    .append(datagramDecoder.getStale()).append(" malformed ").append(datagramDecoder.getMalformed());
+        }
+
+        text.append('\n');
+
+        for (int i = 0; i < TYPES.length; i++) {
+            long packets = metrics.getPacketsReceived(TYPES[i]).get();
+            long bytes = metrics.getBytesReceived(TYPES[i]).get();
+            long newPackets = packets - packetsReceived[i], newBytes = bytes - bytesReceived[i];
+
+            packetsReceived[i] = packets;
+            bytesReceived[i] = bytes;
+            apply[i].update();
+
+            if (newPackets == 0 && apply[i].getCount() == 0)
+                continue;
+
+            text.append("in ").append(TYPES[i].name()).append(' ').append(Math.round(newPackets / seconds))
+                    .append("/s ").append(Math.round(newBytes / seconds)).append(" B/s, apply p99 ")
+                    .append(apply[i].percentile(0.99) / 1000).append(" us\n");
+        }
+
+        for (int opcode = 0; opcode < Metrics.OPCODES; opcode++) {
+            long packets = metrics.getPacketsSent(opcode).get();
+            long bytes = metrics.getBytesSent(opcode).get();
+            long newPackets = packets - packetsSent[opcode], newBytes = bytes - bytesSent[opcode];
+
+            packetsSent[opcode] = packets;
+            bytesSent[opcode] = bytes;
+
+            if (newPackets == 0)
+                continue;
+
+            text.append("out ").append(opcode).append(' ').append(Math.round(newPackets / seconds)).append("/s ")
+                    .append(Math.round(newBytes / seconds)).append(" B/s\n");
+        }
+
+        return text;
+    }
+
+    /**
+     * Appends a duration in milliseconds to one decimal place.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    private void appendMillis(long nanos) {
+        if (nanos < 0) {
+            text.append('-');
+            nanos = -nanos;
+        }
+
+        text.append(nanos / 1000000).append('.').append(nanos / 100000 % 10);
+    }
+
+    /**
+     * Appends a distance in pixels to two decimal places.
+     *
+     * @param hundredths the distance in hundredths of a pixel
+     */
+    private void appendPixels(long hundredths) {
+        text.append(hundredths / 100).append('.').append(hundredths / 10 % 10).append(hundredths % 10);
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Contains code relating to counters and latency histograms for the network and frame loop.
+ */
+package com.superduckinvaders.game.metrics;
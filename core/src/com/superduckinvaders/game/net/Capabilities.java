@@ -0,0 +1,65 @@
+package com.superduckinvaders.game.net;
+
+/**
+ * Optional protocol features, negotiated per connection. The client offers a set of these flags in its handshake
+ * and the server replies with the subset it will use.
+ */
+public final class Capabilities {
+
+    /**
+     * Positions after the first are sent as fixed point deltas; see {@link PositionCodec}.
+     */
+    public static final int QUANTIZED_POSITIONS = 1;
+
+    /**
+     * Input is sent as INPUT packets when it changes, each tagged with its tick sequence number and acknowledged by
+     * INPUT_ACK, allowing client side prediction. The server sets the input tick rate in its handshake.
+     */
+    public static final int INPUT_SEQUENCES = 1 << 1;
+
+    /**
+     * Frequent state updates may be sent over a UDP channel, set up by DATAGRAM_SETUP; see
+     * {@link DatagramConnection}.
+     */
+    public static final int DATAGRAMS = 1 << 2;
+
+    /**
+     * Runs of packets larger than the server's threshold, such as the burst of CREATE packets on joining, may be
+     * deflated into a single COMPRESSED packet. Small packets are always sent as they are.
+     */
+    public static final int COMPRESSION = 1 << 3;
+
+    /**
+     * The server sends a SESSION token, which the client presents in a RESUME packet after reconnecting. The server
+     * answers with RESUMED and, if it still has the session, only the changes since the client's last snapshot tick,
+     * with absolute positions for anything it later sends deltas for.
+     */
+    public static final int SESSION_RESUME = 1 << 4;
+
+    /**
+     * The client sends PING packets every so often and the server answers each with a PONG, giving the times it
+     * received the ping and sent the pong by its own clock; see {@link ClockEstimator}.
+     */
+    public static final int CLOCK_SYNC = 1 << 5;
+
+    /**
+     * The client reports the camera rectangle in VIEWPORT packets, and the server only sends updates for the
+     * entities in or near it. Entities that move out of interest are sent LEAVE rather than DESTROY, and the client
+     * keeps them hidden until a CREATE brings them back or a DESTROY removes them.
+     */
+    public static final int AREA_OF_INTEREST = 1 << 6;
+
+    private Capabilities() {
+    }
+
+    /**
+     * Checks whether the specified set of capabilities contains a capability.
+     *
+     * @param capabilities the set of capabilities
+     * @param capability   the capability to check for
+     * @return true if the capability is in the set
+     */
+    public static boolean has(int capabilities, int capability) {
+        return (capabilities & capability) != 0;
+    }
+}
@@ -0,0 +1,145 @@
+package com.superduckinvaders.game.net;
+
+/**
+ * Estimates the round trip time to the server and the offset of the server's clock from the client's, NTP style,
+ * from PING and PONG exchanges. Each exchange gives four times: the client sending the ping, the server receiving
+ * it and sending the pong, and the client receiving the pong. The round trip is the time between sending and
+ * receiving less the time the server held the ping, and the offset assumes the two directions took equally long.
+ * <p>
+ * Of the last few exchanges, the one with the shortest round trip is used, as the one least delayed by queueing
+ * and so least likely to have taken unequal times each way. The estimates are updated on the render thread and
+ * may be read from any thread.
+ */
+public final class ClockEstimator {
+
+    /**
+     * The round trip and offset of the last few exchanges, in nanoseconds, oldest overwritten first.
+     */
+    private final long[] roundTrips, offsets;
+
+    /**
+     * The number of exchanges in the window, and where the next is stored.
+     */
+    private int count = 0, next = 0;
+
+    /**
+     * The estimates from the best exchange in the window, and the mean of how much longer the others took.
+     */
+    private volatile long roundTripTime = 0, offset = 0, jitter = 0;
+
+    private volatile boolean synchronised = false;
+
+    /**
+     * Creates a new ClockEstimator.
+     *
+     * @param window the number of exchanges to choose the best from
+     */
+    public ClockEstimator(int window) {
+        roundTrips = new long[window];
+        offsets = new long[window];
+    }
+
+    /**
+     * Adds an exchange. The client's times and the server's times need only be consistent with themselves.
+     *
+     * @param clientSend    when the client sent the ping, by its clock
+     * @param serverReceive when the server received the ping, by its clock
+     * @param serverSend    when the server sent the pong, by its clock
+     * @param clientReceive when the client received the pong, by its clock
+     * @return the round trip time of this exchange, in nanoseconds
+     */
+    public long addSample(long clientSend, long serverReceive, long serverSend, long clientReceive) {
+        // A server slower to reply than the whole round trip has a broken clock, so count it as no time at all.
+        long roundTrip = Math.max((clientReceive - clientSend) - Math.max(serverSend - serverReceive, 0), 0);
+
+        roundTrips[next] = roundTrip;
+        offsets[next] = ((serverReceive - clientSend) + (serverSend - clientReceive)) / 2;
+
+        next = (next + 1) % roundTrips.length;
+        count = Math.min(count + 1, roundTrips.length);
+
+        int best = 0;
+        long spread = 0;
+
+        for (int i = 1; i < count; i++) {
+            if (roundTrips[i] < roundTrips[best])
+                best = i;
+        }
+
+        for (int i = 0; i < count; i++) {
+            spread += roundTrips[i] - roundTrips[best];
+        }
+
+        roundTripTime = roundTrips[best];
+        offset = offsets[best];
+        jitter = spread / count;
+        synchronised = true;
+
+        return roundTrip;
+    }
+
+    /**
+     * Forgets every exchange, for when the connection changes and the old estimates may no longer hold.
+     */
+    public void reset() {
+        count = 0;
+        next = 0;
+        synchronised = false;
+    }
+
+    /**
+     * Returns whether any exchanges have been made since the last reset. The estimates are meaningless until then.
+     *
+     * @return true if there are estimates
+     */
+    public boolean isSynchronised() {
+        return synchronised;
+    }
+
+    /**
+     * Returns the estimated round trip time.
+     *
+     * @return the round trip time, in nanoseconds
+     */
+    public long getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    /**
+     * Returns the estimated amount by which the server's clock is ahead of the client's.
+     *
+     * @return the offset, in nanoseconds
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the mean amount by which the round trips in the window exceeded the shortest.
+     *
+     * @return the jitter, in nanoseconds
+     */
+    public long getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Converts a time by the client's clock to the server's clock.
+     *
+     * @param localTime the time by {@link System#nanoTime()}
+     * @return the time by the server's clock
+     */
+    public long toServerTime(long localTime) {
+        return localTime + offset;
+    }
+
+    /**
+     * Converts a time by the server's clock to the client's clock.
+     *
+     * @param serverTime the time by the server's clock
+     * @return the time by {@link System#nanoTime()}
+     */
+    public long toLocalTime(long serverTime) {
+        return serverTime - offset;
+    }
+}
@@ -1,7 +1,9 @@
 package com.superduckinvaders.game.net;
 
 import com.superduckinvaders.game.Engine;
+import com.superduckinvaders.game.net.packets.HandshakeOutboundPacket;
 import com.superduckinvaders.game.net.packets.InboundPacket;
+import com.superduckinvaders.game.net.packets.ResumeOutboundPacket;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -18,14 +20,47 @@ public class ConnectionHandler extends SimpleChannelInboundHandler<InboundPacket
         this.engine = engine;
     }
 
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        int capabilities = engine.getOfferedCapabilities();
+
+        // Servers that don't understand the handshake are never sent one.
+        if (capabilities != 0)
+            ctx.write(new HandshakeOutboundPacket(capabilities));
+
+        // Reconnecting, so ask to carry on where we left off.
+        if (engine.getSessionToken() != 0)
+            ctx.write(new ResumeOutboundPacket(engine.getSessionToken(), engine.getTick()));
+
+        ctx.flush();
+
+        engine.connectionEstablished(ctx.channel());
+
+        super.channelActive(ctx);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, InboundPacket msg) throws Exception {
         engine.enqueueInbound(msg);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        engine.writabilityChanged(ctx.channel().isWritable());
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        engine.connectionLost(ctx.channel(), "Connection lost");
+
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-        engine.exceptionCaught(cause.getMessage());
+        engine.connectionLost(ctx.channel(), cause.getMessage());
         ctx.close();
     }
 }
@@ -0,0 +1,185 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.Engine;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramChannel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The optional UDP channel, which carries frequent state updates so that one lost TCP segment doesn't hold up every
+ * update behind it.
+ * <p>
+ * Once the server sends DATAGRAM_SETUP over TCP, the client connects a datagram channel to the given port and sends
+ * hello datagrams containing the session token and its MTU until the first datagram arrives. The server packs
+ * updates into datagrams no larger than that MTU. The channel shares the TCP channel's event loop, so the inbound
+ * queue still has a single producer.
+ */
+public final class DatagramConnection {
+
+    /**
+     * The time between hello datagrams, in milliseconds.
+     */
+    private static final int HELLO_INTERVAL = 250;
+
+    /**
+     * The number of hello datagrams sent before giving up and relying on TCP alone.
+     */
+    private static final int HELLO_ATTEMPTS = 20;
+
+    private final Engine engine;
+
+    private final Transport transport;
+
+    private final EventLoop eventLoop;
+
+    private final String inetHost;
+
+    private final int inetPort;
+
+    /**
+     * The token identifying this client's session to the server.
+     */
+    private final int token;
+
+    /**
+     * The largest datagram the server should send.
+     */
+    private final int mtu;
+
+    /**
+     * Decodes and counts inbound datagrams.
+     */
+    private final DatagramPacketDecoder decoder;
+
+    /**
+     * The connected datagram channel, or null if not yet connected.
+     */
+    private volatile Channel channel;
+
+    /**
+     * The number of hello datagrams sent.
+     */
+    private int attempts = 0;
+
+    /**
+     * Sends the next hello datagram, until one gets a response.
+     */
+    private final Runnable helloTask = new Runnable() {
+        @Override
+        public void run() {
+            sendHello();
+        }
+    };
+
+    public DatagramConnection(Engine engine, Transport transport, EventLoop eventLoop, String inetHost, int inetPort,
+                              int token, int mtu) {
+        this.engine = engine;
+        this.transport = transport;
+        this.eventLoop = eventLoop;
+        this.inetHost = inetHost;
+        this.inetPort = inetPort;
+        this.token = token;
+        this.mtu = mtu;
+
+        decoder = new DatagramPacketDecoder(engine.getMetrics(), engine.getStateTable());
+    }
+
+    /**
+     * Connects the datagram channel and starts sending hello datagrams. Does not block.
+     */
+    public void open() {
+        Bootstrap b = new Bootstrap();
+        b.group(eventLoop)
+                .channel(transport.getDatagramChannelClass())
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(mtu))
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(DatagramChannel ch) throws Exception {
+                        ch.pipeline().addLast(decoder);
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<InboundPacket>(false) {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, InboundPacket msg) throws Exception {
+                                engine.enqueueInbound(msg);
+                            }
+
+                            @Override
+                            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+                                // Losing the datagram channel is not fatal, updates carry on over TCP.
+                                ctx.close();
+                            }
+                        });
+                    }
+                });
+
+        b.connect(inetHost, inetPort).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    channel = future.channel();
+                    sendHello();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends a hello datagram and schedules the next, unless a datagram has arrived or too many have been sent.
+     */
+    private void sendHello() {
+        Channel channel = this.channel;
+
+        if (channel == null || !channel.isActive() || decoder.getReceived() > 0 || attempts >= HELLO_ATTEMPTS)
+            return;
+
+        ByteBuf hello = channel.alloc().ioBuffer(6);
+        hello.writeInt(token);
+        hello.writeShort(mtu);
+
+        channel.writeAndFlush(hello, channel.voidPromise());
+        attempts++;
+
+        eventLoop.schedule(helloTask, HELLO_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the datagram channel.
+     */
+    public void close() {
+        Channel channel = this.channel;
+
+        if (channel != null)
+            channel.close();
+    }
+
+    /**
+     * Checks whether any datagrams have arrived.
+     *
+     * @return true if the server is reaching the client over UDP
+     */
+    public boolean isEstablished() {
+        return decoder.getReceived() > 0;
+    }
+
+    /**
+     * Returns the datagram decoder, for inspecting how many datagrams were received, stale or malformed.
+     *
+     * @return the datagram decoder
+     */
+    public DatagramPacketDecoder getDecoder() {
+        return decoder;
+    }
+}
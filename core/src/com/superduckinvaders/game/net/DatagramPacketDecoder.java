@@ -0,0 +1,137 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.metrics.Metrics;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * Decodes datagrams from the optional UDP channel. Each datagram is a 32 bit sequence number followed by any number
+ * of packets framed exactly as on the TCP channel. Datagrams older than the newest one seen are discarded, as are
+ * packet types that must arrive reliably.
+ */
+public class DatagramPacketDecoder extends MessageToMessageDecoder<DatagramPacket> {
+
+    private final Metrics metrics;
+
+    /**
+     * The table to decode packets about entities into, or null to queue every packet.
+     */
+    private final EntityStateTable states;
+
+    /**
+     * The sequence number of the newest datagram decoded.
+     */
+    private int sequence;
+
+    /**
+     * The number of datagrams decoded.
+     */
+    private volatile long received = 0;
+
+    /**
+     * The number of datagrams discarded because a newer one had already arrived.
+     */
+    private volatile long stale = 0;
+
+    /**
+     * The number of datagrams that were cut short, contained a packet type not allowed over UDP or an entity ID out of
+     * range.
+     */
+    private volatile long malformed = 0;
+
+    public DatagramPacketDecoder(Metrics metrics) {
+        this(metrics, null);
+    }
+
+    public DatagramPacketDecoder(Metrics metrics, EntityStateTable states) {
+        this.metrics = metrics;
+        this.states = states;
+    }
+
+    /**
+     * Checks whether a packet type may arrive over UDP, where it can be lost or superseded.
+     *
+     * @param type the packet type
+     * @return true if the packet type is allowed
+     */
+    public static boolean isUnreliable(InboundPacket.Type type) {
+        return type == InboundPacket.Type.POSITION || type == InboundPacket.Type.DIRECTION
+                || type == InboundPacket.Type.SNAPSHOT || type == InboundPacket.Type.INPUT_ACK;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, DatagramPacket msg, List<Object> out) throws Exception {
+        ByteBuf in = msg.content();
+        long timestamp = System.nanoTime();
+
+        if (in.readableBytes() < 4) {
+            malformed++;
+            return;
+        }
+
+        int sequence = in.readInt();
+
+        // Compare by difference so the sequence number can wrap around.
+        if (received > 0 && sequence - this.sequence <= 0) {
+            stale++;
+            return;
+        }
+
+        this.sequence = sequence;
+        received++;
+
+        while (in.isReadable()) {
+            InboundPacket.Type type = InboundPacket.Type.forOpcode(in.readUnsignedByte());
+
+            if (type == null || !isUnreliable(type)) {
+                malformed++;
+                return;
+            }
+
+            int size = type.getSize();
+
+            if (type.isVariable()) {
+                if (in.readableBytes() < 2) {
+                    malformed++;
+                    return;
+                }
+
+                size = in.readUnsignedShort();
+            }
+
+            if (in.readableBytes() < size) {
+                malformed++;
+                return;
+            }
+
+            ByteBuf payload = in.readSlice(size);
+
+            if (!InboundPacketDecoder.hasValidEntityId(type, payload)) {
+                malformed++;
+                return;
+            }
+
+            if (states == null || !states.decode(type, payload, timestamp, false))
+                out.add(new InboundPacket(type, payload.retain(), timestamp, false));
+
+            metrics.received(type, size);
+        }
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getStale() {
+        return stale;
+    }
+
+    public long getMalformed() {
+        return malformed;
+    }
+}
@@ -0,0 +1,447 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import com.superduckinvaders.game.net.packets.Snapshot;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Holds the latest state of each entity as decoded on the event loop, so that packets about entities need neither
+ * an {@link InboundPacket} each nor parsing again on the render thread. The decoders write into one buffer while the
+ * render thread reads the other, and the two are swapped at the start of each frame.
+ * <p>
+ * Each buffer keeps only the final state of each entity since the last swap, which is all the render thread needs:
+ * a CREATE followed by updates becomes a single CREATE with the latest state, and anything followed by a DESTROY
+ * becomes just the DESTROY. Acknowledgements of input go through the table too, paired with the player's position,
+ * so that the player is reconciled against the input the server had processed when it sent that position.
+ * <p>
+ * Packets that aren't about entities are left for the inbound queue, though the table looks at the ones that change
+ * how entity packets are decoded or what they apply to.
+ */
+public final class EntityStateTable {
+
+    /**
+     * Flags for what changed about an entity since the last swap. A created entity is created with its latest state,
+     * whatever else changed, and then hidden if it also left, so that it is kept in case it comes back. Nothing else
+     * about a destroyed entity matters.
+     */
+    public static final int CREATED = 1, DESTROYED = 1 << 1, LEFT = 1 << 2;
+    public static final int POSITION = 1 << 3, DIRECTION = 1 << 4, TEXTURE = 1 << 5;
+
+    /**
+     * One side of the table.
+     */
+    private static final class Buffer {
+
+        /**
+         * What changed about each entity, and its latest state.
+         */
+        final byte[] flags, direction;
+        final double[] x, y;
+        final long[] time;
+        final int[] texture;
+
+        /**
+         * The IDs of the entities that changed, in the order they first changed.
+         */
+        final int[] changed;
+        int count = 0;
+
+        /**
+         * Whether the server forgot the session, so the world must be cleared before anything else is applied.
+         */
+        boolean cleared = false;
+
+        /**
+         * The tick number of the latest snapshot, or -1 if none arrived.
+         */
+        int tick = -1;
+
+        /**
+         * The ID of the player entity if START arrived, or -1 if not.
+         */
+        int player = -1;
+
+        /**
+         * The latest input sequence number acknowledged and when, or -1 if none was, and the sequence number last
+         * acknowledged before the player's latest position.
+         */
+        int acknowledged = -1, playerAcknowledged = -1;
+        long acknowledgeTime;
+
+        Buffer(int maxEntities) {
+            flags = new byte[maxEntities];
+            direction = new byte[maxEntities];
+            x = new double[maxEntities];
+            y = new double[maxEntities];
+            time = new long[maxEntities];
+            texture = new int[maxEntities];
+            changed = new int[maxEntities];
+        }
+
+        /**
+         * Marks an entity as changed, returning its flags so far.
+         */
+        int touch(int id) {
+            int current = flags[id];
+
+            if (current == 0)
+                changed[count++] = id;
+
+            return current;
+        }
+
+        void reset() {
+            for (int i = 0; i < count; i++) {
+                flags[changed[i]] = 0;
+            }
+
+            count = 0;
+            cleared = false;
+            tick = -1;
+            player = -1;
+            acknowledged = -1;
+            playerAcknowledged = -1;
+        }
+    }
+
+    /**
+     * The buffer the render thread reads, and the buffer the decoders write.
+     */
+    private Buffer front, back;
+
+    /**
+     * The last position received for each entity, for decoding position deltas on the event loop.
+     */
+    private final PositionCodec positions;
+
+    /**
+     * The features the client offers, and whether the server agreed to quantized positions.
+     */
+    private volatile int offered = 0;
+    private boolean quantized = false;
+
+    /**
+     * The ID of the player entity, and the input sequence number last acknowledged, as seen by the decoders.
+     */
+    private int player = -1, acknowledged = -1;
+
+    /**
+     * Creates a new EntityStateTable.
+     *
+     * @param maxEntities the number of entity IDs
+     */
+    public EntityStateTable(int maxEntities) {
+        front = new Buffer(maxEntities);
+        back = new Buffer(maxEntities);
+        positions = new PositionCodec(maxEntities);
+    }
+
+    /**
+     * Sets the features the client offers in its handshake, as the server may only agree to those.
+     *
+     * @param offered the offered capabilities
+     */
+    public void setOfferedCapabilities(int offered) {
+        this.offered = offered;
+    }
+
+    /**
+     * Decodes a packet into the table if it is about entities. Called from the decoders, on the event loop.
+     *
+     * @param type      the packet type
+     * @param payload   the payload, which is consumed if the packet is decoded
+     * @param timestamp the time the packet arrived
+     * @param reliable  whether the packet arrived over TCP
+     * @return true if the packet was decoded, or false if it must be queued as usual
+     */
+    public synchronized boolean decode(InboundPacket.Type type, ByteBuf payload, long timestamp, boolean reliable) {
+        Buffer buffer = back;
+        int index = payload.readerIndex();
+
+        switch (type) {
+            case CREATE: {
+                int id = payload.readInt();
+                double x = payload.readDouble();
+                double y = payload.readDouble();
+
+                positions.set(id, x, y);
+
+                buffer.touch(id);
+                buffer.flags[id] = CREATED;
+                setPosition(buffer, id, x, y, timestamp);
+                buffer.direction[id] = payload.readByte();
+                buffer.texture[id] = payload.readInt();
+                return true;
+            }
+            case DESTROY: {
+                int id = payload.readInt();
+
+                buffer.touch(id);
+                buffer.flags[id] = DESTROYED;
+                return true;
+            }
+            case LEAVE: {
+                int id = payload.readInt();
+
+                buffer.flags[id] = (byte) ((buffer.touch(id) & CREATED) | LEFT);
+                return true;
+            }
+            case POSITION: {
+                int id = payload.readInt();
+                double x = payload.readDouble();
+                double y = payload.readDouble();
+
+                // The server only moves its baseline for deltas when it sends a position reliably.
+                if (reliable)
+                    positions.set(id, x, y);
+
+                updatePosition(buffer, id, x, y, timestamp);
+                return true;
+            }
+            case POSITION_DELTA: {
+                int id = payload.readUnsignedShort();
+
+                positions.add(id, payload.readShort(), payload.readShort());
+                updatePosition(buffer, id, positions.getX(id), positions.getY(id), timestamp);
+                return true;
+            }
+            case DIRECTION: {
+                int id = payload.readInt();
+
+                updateDirection(buffer, id, payload.readByte());
+                return true;
+            }
+            case TEXTURE: {
+                int id = payload.readInt();
+
+                updateTexture(buffer, id, payload.readInt());
+                return true;
+            }
+            case SNAPSHOT:
+                decodeSnapshot(buffer, payload, timestamp, reliable);
+                return true;
+            case INPUT_ACK:
+                acknowledged = payload.readInt();
+                buffer.acknowledged = acknowledged;
+                buffer.acknowledgeTime = timestamp;
+                return true;
+            case START:
+                // The player must be known before its CREATE is applied, though START itself is queued.
+                player = payload.getInt(index);
+                buffer.player = player;
+                return false;
+            case HANDSHAKE:
+                quantized = Capabilities.has(payload.getInt(index) & offered, Capabilities.QUANTIZED_POSITIONS);
+                return false;
+            case RESUMED:
+                // The server will send everything again, so nothing from before matters.
+                if (payload.getByte(index) == 0) {
+                    buffer.reset();
+                    buffer.cleared = true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void decodeSnapshot(Buffer buffer, ByteBuf payload, long timestamp, boolean reliable) {
+        int tick = payload.readInt();
+
+        if (buffer.tick == -1 || tick - buffer.tick > 0)
+            buffer.tick = tick;
+
+        int count = payload.readUnsignedShort();
+
+        // Deltas are never sent over UDP, where an earlier one could have been lost.
+        boolean quantized = reliable && this.quantized;
+
+        for (int i = 0; i < count; i++) {
+            int id = payload.readUnsignedShort();
+            int flags = payload.readUnsignedByte();
+
+            if ((flags & Snapshot.POSITION) != 0) {
+                double x, y;
+
+                if (quantized) {
+                    positions.add(id, payload.readShort(), payload.readShort());
+                    x = positions.getX(id);
+                    y = positions.getY(id);
+                } else {
+                    x = payload.readFloat();
+                    y = payload.readFloat();
+
+                    if (reliable)
+                        positions.set(id, x, y);
+                }
+
+                updatePosition(buffer, id, x, y, timestamp);
+            }
+
+            if ((flags & Snapshot.DIRECTION) != 0)
+                updateDirection(buffer, id, payload.readByte());
+
+            if ((flags & Snapshot.TEXTURE) != 0)
+                updateTexture(buffer, id, payload.readUnsignedByte());
+        }
+    }
+
+    private void updatePosition(Buffer buffer, int id, double x, double y, long timestamp) {
+        if ((buffer.touch(id) & DESTROYED) != 0)
+            return;
+
+        if (id == player)
+            buffer.playerAcknowledged = acknowledged;
+
+        buffer.flags[id] |= POSITION;
+        setPosition(buffer, id, x, y, timestamp);
+    }
+
+    private static void setPosition(Buffer buffer, int id, double x, double y, long timestamp) {
+        buffer.x[id] = x;
+        buffer.y[id] = y;
+        buffer.time[id] = timestamp;
+    }
+
+    private static void updateDirection(Buffer buffer, int id, byte direction) {
+        if ((buffer.touch(id) & DESTROYED) != 0)
+            return;
+
+        buffer.flags[id] |= DIRECTION;
+        buffer.direction[id] = direction;
+    }
+
+    private static void updateTexture(Buffer buffer, int id, int texture) {
+        if ((buffer.touch(id) & DESTROYED) != 0)
+            return;
+
+        buffer.flags[id] |= TEXTURE;
+        buffer.texture[id] = texture;
+    }
+
+    /**
+     * Makes everything decoded since the last swap readable, and starts decoding into the other buffer. Called from
+     * the render thread at the start of each frame.
+     *
+     * @return the number of entities that changed
+     */
+    public int swap() {
+        // The front buffer belongs to the render thread until it is swapped, so can be cleared without the lock.
+        front.reset();
+
+        synchronized (this) {
+            Buffer buffer = front;
+            front = back;
+            back = buffer;
+        }
+
+        return front.count;
+    }
+
+    /**
+     * Returns the ID of an entity that changed.
+     *
+     * @param index the index, less than the number returned by {@link #swap()}
+     * @return the ID of the entity
+     */
+    public int getChanged(int index) {
+        return front.changed[index];
+    }
+
+    /**
+     * Returns what changed about an entity.
+     *
+     * @param id the ID of the entity
+     * @return the flags
+     */
+    public int getFlags(int id) {
+        return front.flags[id];
+    }
+
+    public double getX(int id) {
+        return front.x[id];
+    }
+
+    public double getY(int id) {
+        return front.y[id];
+    }
+
+    /**
+     * Returns when the latest position of an entity arrived.
+     *
+     * @param id the ID of the entity
+     * @return the time in nanoseconds
+     */
+    public long getTime(int id) {
+        return front.time[id];
+    }
+
+    /**
+     * Returns the direction of an entity.
+     *
+     * @param id the ID of the entity
+     * @return the direction ordinal
+     */
+    public int getDirection(int id) {
+        return front.direction[id];
+    }
+
+    public int getTexture(int id) {
+        return front.texture[id];
+    }
+
+    /**
+     * Returns whether the world must be cleared before applying the changes.
+     *
+     * @return true if the server forgot the session
+     */
+    public boolean isCleared() {
+        return front.cleared;
+    }
+
+    /**
+     * Returns the tick number of the latest snapshot.
+     *
+     * @return the tick number, or -1 if no snapshot arrived
+     */
+    public int getTick() {
+        return front.tick;
+    }
+
+    /**
+     * Returns the ID of the player entity, which must be set before anything else is applied so that the player is
+     * created as the player rather than as an entity to interpolate.
+     *
+     * @return the ID, or -1 if START didn't arrive
+     */
+    public int getPlayer() {
+        return front.player;
+    }
+
+    /**
+     * Returns the latest input sequence number acknowledged.
+     *
+     * @return the sequence number, or -1 if no acknowledgement arrived
+     */
+    public int getAcknowledged() {
+        return front.acknowledged;
+    }
+
+    /**
+     * Returns when the latest acknowledgement arrived.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getAcknowledgeTime() {
+        return front.acknowledgeTime;
+    }
+
+    /**
+     * Returns the input sequence number the server had acknowledged when it sent the player's latest position.
+     *
+     * @return the sequence number, or -1 if none had been acknowledged or the player's position didn't change
+     */
+    public int getPlayerAcknowledged() {
+        return front.playerAcknowledged;
+    }
+}
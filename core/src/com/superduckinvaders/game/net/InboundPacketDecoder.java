@@ -1,39 +1,274 @@
 package com.superduckinvaders.game.net;
 
+import com.superduckinvaders.game.World;
+import com.superduckinvaders.game.metrics.Metrics;
 import com.superduckinvaders.game.net.packets.InboundPacket;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
-import io.netty.util.AttributeKey;
+import io.netty.handler.codec.CorruptedFrameException;
 
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Created by Oliver on 20/02/2016.
  */
 public class InboundPacketDecoder extends ByteToMessageDecoder {
 
-    private static final AttributeKey<InboundPacket.Type> TYPE_KEY = AttributeKey.valueOf("type");
+    /**
+     * The most a COMPRESSED packet may inflate to: the largest packet that could have been sent uncompressed. The
+     * server only compresses runs of packets smaller than this.
+     */
+    public static final int MAX_INFLATED_LENGTH = 3 + 0xFFFF;
+
+    private final Metrics metrics;
+
+    /**
+     * The table to decode packets about entities into, or null to queue every packet.
+     */
+    private final EntityStateTable states;
+
+    /**
+     * The type of the packet whose payload is being waited for, or null if waiting for an opcode.
+     */
+    private InboundPacket.Type type;
+
+    /**
+     * The size of the payload being waited for, or VARIABLE if waiting for its length.
+     */
+    private int size;
+
+    /**
+     * Inflates COMPRESSED packets. Created when the first one arrives.
+     */
+    private Inflater inflater;
+
+    /**
+     * Scratch space for inflating, reused between COMPRESSED packets.
+     */
+    private byte[] compressed = new byte[0], inflated = new byte[0];
+
+    /**
+     * The number of bytes received in COMPRESSED packets, and the number they inflated to.
+     */
+    private volatile long compressedBytes = 0, inflatedBytes = 0;
+
+    /**
+     * The total time spent inflating, in nanoseconds.
+     */
+    private volatile long inflateTime = 0;
+
+    public InboundPacketDecoder(Metrics metrics) {
+        this(metrics, null);
+    }
+
+    public InboundPacketDecoder(Metrics metrics, EntityStateTable states) {
+        this.metrics = metrics;
+        this.states = states;
+    }
+
+    /**
+     * Checks that a packet's entity ID, if it has one, can index the client's tables. IDs come straight off the wire,
+     * and every table is indexed by them, so this is the one place they are checked. The 16 bit IDs in snapshots and
+     * deltas are always in range.
+     *
+     * @param type    the packet type
+     * @param payload the payload of the packet
+     * @return false if the packet has an entity ID and it is out of range
+     */
+    static boolean hasValidEntityId(InboundPacket.Type type, ByteBuf payload) {
+        if (!type.hasEntityId())
+            return true;
+
+        int id = payload.getInt(payload.readerIndex());
+
+        return id >= 0 && id < World.MAX_ENTITIES;
+    }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        InboundPacket.Type type = ctx.channel().attr(TYPE_KEY).get();
+        // Everything in this read arrived at the same time.
+        long timestamp = System.nanoTime();
 
-        // Waiting for opcode.
-        if (type == null && in.readableBytes() >= 1) {
-            type = InboundPacket.Type.forOpcode(in.readByte());
+        try {
+            decode(ctx, in, out, timestamp);
+        } finally {
+            metrics.getDecodeTime().record(System.nanoTime() - timestamp);
+        }
+    }
+
+    /**
+     * Decodes every complete packet in the buffer, as a single read often contains many.
+     *
+     * @param ctx       the channel handler context
+     * @param in        the received bytes
+     * @param out       the list to add decoded packets to
+     * @param timestamp the time the bytes arrived
+     * @throws DataFormatException if a COMPRESSED packet is not valid deflate data
+     */
+    private void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, long timestamp) throws DataFormatException {
+        while (true) {
+            // Waiting for opcode.
+            if (type == null) {
+                if (!in.isReadable())
+                    return;
+
+                int opcode = in.readUnsignedByte();
+                type = InboundPacket.Type.forOpcode(opcode);
+
+                if (type == null)
+                    throw new IllegalStateException("unknown opcode " + opcode);
+
+                size = type.getSize();
+            }
+
+            // Waiting for length.
+            if (size == InboundPacket.Type.VARIABLE) {
+                if (in.readableBytes() < 2)
+                    return;
+
+                size = in.readUnsignedShort();
+            }
+
+            // Waiting for payload.
+            if (in.readableBytes() < size)
+                return;
 
-            if (type != null) {
-                ctx.channel().attr(TYPE_KEY).set(type);
+            if (type == InboundPacket.Type.COMPRESSED) {
+                inflate(ctx, in.readSlice(size), out, timestamp);
             } else {
-                throw new IllegalStateException();
+                ByteBuf payload = in.readSlice(size);
+
+                if (!hasValidEntityId(type, payload))
+                    throw new CorruptedFrameException("entity ID out of range in " + type + " packet");
+
+                // Hand out a retained slice of the cumulation buffer rather than copying the payload.
+                if (states == null || !states.decode(type, payload, timestamp, true))
+                    out.add(new InboundPacket(type, payload.retain(), timestamp));
+
+                metrics.received(type, size);
             }
+
+            type = null;
         }
+    }
+
+    /**
+     * Inflates the payload of a COMPRESSED packet and decodes the packets inside it. The payload is the inflated
+     * length as a 32 bit integer, followed by deflated packets framed as usual.
+     *
+     * @param ctx       the channel handler context
+     * @param payload   the payload of the COMPRESSED packet
+     * @param out       the list to add decoded packets to
+     * @param timestamp the time the packet arrived
+     * @throws DataFormatException if the payload is not valid deflate data
+     */
+    private void inflate(ChannelHandlerContext ctx, ByteBuf payload, List<Object> out, long timestamp) throws DataFormatException {
+        long start = System.nanoTime();
 
-        // Waiting for payload.
-        if (type != null && in.readableBytes() >= type.getSize()) {
-            out.add(new InboundPacket(type, in.readBytes(type.getSize())));
-            ctx.channel().attr(TYPE_KEY).remove();
+        int length = payload.readInt();
+        int available = payload.readableBytes();
+
+        // Check the length before allocating anything for it.
+        if (length < 0 || length > MAX_INFLATED_LENGTH)
+            throw new CorruptedFrameException("compressed packet claims to inflate to " + length + " bytes");
+
+        if (inflater == null)
+            inflater = new Inflater();
+
+        if (compressed.length < available)
+            compressed = new byte[available];
+
+        // One byte spare, to catch data that inflates to more than the stated length.
+        if (inflated.length < length + 1)
+            inflated = new byte[length + 1];
+
+        payload.readBytes(compressed, 0, available);
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, available);
+
+        int done = 0;
+
+        while (done <= length && !inflater.finished()) {
+            int count = inflater.inflate(inflated, done, length + 1 - done);
+
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                break;
+
+            done += count;
+        }
+
+        if (done != length)
+            throw new CorruptedFrameException("compressed packet inflated to " + done + " bytes, expected " + length);
+
+        ByteBuf buffer = ctx.alloc().buffer(length);
+        buffer.writeBytes(inflated, 0, length);
+
+        try {
+            while (buffer.isReadable()) {
+                InboundPacket.Type type = InboundPacket.Type.forOpcode(buffer.readUnsignedByte());
+
+                if (type == null || type == InboundPacket.Type.COMPRESSED)
+                    throw new CorruptedFrameException("invalid packet inside compressed packet");
+
+                int size = type.isVariable() ? buffer.readUnsignedShort() : type.getSize();
+
+                if (buffer.readableBytes() < size)
+                    throw new CorruptedFrameException("truncated packet inside compressed packet");
+
+                ByteBuf packet = buffer.readSlice(size);
+
+                if (!hasValidEntityId(type, packet))
+                    throw new CorruptedFrameException("entity ID out of range in " + type + " packet");
+
+                if (states == null || !states.decode(type, packet, timestamp, true))
+                    out.add(new InboundPacket(type, packet.retain(), timestamp));
+
+                metrics.received(type, size);
+            }
+        } finally {
+            // Each packet holds its own reference to the buffer.
+            buffer.release();
         }
+
+        compressedBytes += available + 4;
+        inflatedBytes += length;
+        inflateTime += System.nanoTime() - start;
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (inflater != null)
+            inflater.end();
+    }
+
+    /**
+     * Returns the number of bytes received in COMPRESSED packets.
+     *
+     * @return the number of compressed bytes
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * Returns the number of bytes COMPRESSED packets inflated to.
+     *
+     * @return the number of inflated bytes
+     */
+    public long getInflatedBytes() {
+        return inflatedBytes;
+    }
+
+    /**
+     * Returns the total time spent inflating COMPRESSED packets.
+     *
+     * @return the inflate time in nanoseconds
+     */
+    public long getInflateTime() {
+        return inflateTime;
     }
 }
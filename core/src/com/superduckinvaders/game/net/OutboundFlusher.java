@@ -0,0 +1,93 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.OutboundPacket;
+import io.netty.channel.Channel;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes queued outbound packets on the channel's event loop and flushes them together, so a frame's worth of
+ * packets costs one flush, and a frame with nothing to send costs none. Stops writing while the channel is above
+ * its write buffer high water mark, leaving packets queued until it drains.
+ */
+public final class OutboundFlusher implements Runnable {
+
+    /**
+     * The channel to write to.
+     */
+    private final Channel channel;
+
+    /**
+     * The queue of packets to write.
+     */
+    private final RingBuffer<OutboundPacket> queue;
+
+    /**
+     * Whether a run of this OutboundFlusher is waiting on the event loop.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * The number of packets written.
+     */
+    private volatile long writes = 0;
+
+    /**
+     * The number of flushes, each of which is normally one write system call.
+     */
+    private volatile long flushes = 0;
+
+    /**
+     * The number of times writing stopped because the channel was not writable.
+     */
+    private volatile long stalls = 0;
+
+    public OutboundFlusher(Channel channel, RingBuffer<OutboundPacket> queue) {
+        this.channel = channel;
+        this.queue = queue;
+    }
+
+    /**
+     * Arranges for the queued packets to be written on the event loop, unless that is already arranged.
+     */
+    public void schedule() {
+        if (queue.size() > 0 && scheduled.compareAndSet(false, true))
+            channel.eventLoop().execute(this);
+    }
+
+    @Override
+    public void run() {
+        scheduled.set(false);
+
+        OutboundPacket packet;
+        int written = 0;
+
+        while (channel.isWritable() && (packet = queue.poll()) != null) {
+            channel.write(packet, channel.voidPromise());
+            written++;
+        }
+
+        if (written > 0) {
+            channel.flush();
+
+            writes += written;
+            flushes++;
+        }
+
+        // The rest is written once the channel becomes writable again.
+        if (!channel.isWritable() && queue.size() > 0)
+            stalls++;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getStalls() {
+        return stalls;
+    }
+}
@@ -1,5 +1,6 @@
 package com.superduckinvaders.game.net;
 
+import com.superduckinvaders.game.metrics.Metrics;
 import com.superduckinvaders.game.net.packets.OutboundPacket;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -10,13 +11,24 @@ import io.netty.handler.codec.MessageToByteEncoder;
  */
 public class OutboundPacketEncoder extends MessageToByteEncoder<OutboundPacket> {
 
+    private final Metrics metrics;
+
+    public OutboundPacketEncoder(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
-    protected void encode(ChannelHandlerContext ctx, OutboundPacket msg, ByteBuf out) throws Exception {
-        ByteBuf payload = msg.getPayload();
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, OutboundPacket msg, boolean preferDirect) throws Exception {
+        // Packets know their exact size, so allocate a pooled buffer that fits opcode and payload exactly.
+        return ctx.alloc().ioBuffer(1 + msg.getSize());
+    }
 
+    @Override
+    protected void encode(ChannelHandlerContext ctx, OutboundPacket msg, ByteBuf out) throws Exception {
         out.writeByte(msg.getOpcode());
-        out.writeBytes(payload);
+        msg.writeTo(out);
 
-        payload.release();
+        metrics.sent(msg.getOpcode(), 1 + msg.getSize());
+        msg.release();
     }
-}
\ No newline at end of file
+}
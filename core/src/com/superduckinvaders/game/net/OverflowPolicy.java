@@ -0,0 +1,22 @@
+package com.superduckinvaders.game.net;
+
+/**
+ * What to do when a packet queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait for the consumer to make space. The event loop never waits: for inbound packets it stops reading from the
+     * server instead, and holds on to what it has already read until there is space.
+     */
+    BLOCK,
+
+    /**
+     * Discard the oldest queued packet to make space.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Give up on the connection.
+     */
+    DISCONNECT
+}
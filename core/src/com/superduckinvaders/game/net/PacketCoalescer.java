@@ -0,0 +1,309 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import com.superduckinvaders.game.net.packets.Snapshot;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Drains queued inbound packets into a batch, discarding state updates that a later packet in the same batch makes
+ * redundant. Only the latest POSITION, DIRECTION and TEXTURE for each entity survive, and any state update followed
+ * by a CREATE or DESTROY of the same entity is dropped. POSITION_DELTA packets are cumulative, so they are only
+ * dropped when a later absolute position makes them irrelevant. With quantized positions, only a reliable absolute
+ * position moves the baseline for deltas, so a position sent over TCP, and any delta, is only dropped in favour of a
+ * later reliable one, and is kept whenever a quantized SNAPSHOT entry after it is a delta from it. Everything else is
+ * kept in its original order.
+ * <p>
+ * Packets left unprocessed at the end of a frame can be carried over, and are coalesced again along with the next
+ * frame's packets.
+ */
+public final class PacketCoalescer {
+
+    /**
+     * The state fields that can be coalesced.
+     */
+    private static final int FIELD_POSITION = 0, FIELD_DIRECTION = 1, FIELD_TEXTURE = 2, FIELD_COUNT = 3;
+
+    /**
+     * The packets in the current batch.
+     */
+    private final InboundPacket[] batch;
+
+    /**
+     * The number of packets in the current batch.
+     */
+    private int size = 0;
+
+    /**
+     * For each field and entity, the stamp of the batch in which a later update has already been seen.
+     */
+    private final int[][] seen;
+
+    /**
+     * For each entity, the stamp of the batch in which a later CREATE or DESTROY has already been seen.
+     */
+    private final int[] replaced;
+
+    /**
+     * For each entity, the stamp of the batch in which a later reliable absolute position has already been seen.
+     */
+    private final int[] rebased;
+
+    /**
+     * Identifies the current batch, so the tables above never need clearing.
+     */
+    private int stamp = 0;
+
+    /**
+     * Whether reliable snapshots in the current batch carry position deltas.
+     */
+    private boolean quantized;
+
+    /**
+     * The total number of packets drained.
+     */
+    private long received = 0;
+
+    /**
+     * The number of packets discarded, by packet type ordinal.
+     */
+    private final long[] eliminated = new long[InboundPacket.Type.values().length];
+
+    /**
+     * Creates a new PacketCoalescer.
+     *
+     * @param capacity    the maximum number of packets in a batch; should be the capacity of the queue being drained
+     * @param maxEntities the number of entity IDs to track; updates to higher IDs are never discarded
+     */
+    public PacketCoalescer(int capacity, int maxEntities) {
+        batch = new InboundPacket[capacity];
+        seen = new int[FIELD_COUNT][maxEntities];
+        replaced = new int[maxEntities];
+        rebased = new int[maxEntities];
+    }
+
+    /**
+     * Drains the specified queue into the batch, after any packets carried over, and discards redundant updates.
+     *
+     * @param queue     the queue to drain
+     * @param quantized whether reliable snapshots carry position deltas
+     * @return the number of packets in the batch
+     */
+    public int coalesce(RingBuffer<InboundPacket> queue, boolean quantized) {
+        this.quantized = quantized;
+
+        InboundPacket packet;
+        int carried = size;
+
+        while (size < batch.length && (packet = queue.poll()) != null) {
+            batch[size++] = packet;
+        }
+
+        received += size - carried;
+        stamp++;
+
+        // Walk backwards so the latest update for each field is seen first.
+        int kept = size;
+
+        for (int i = size - 1; i >= 0; i--) {
+            packet = batch[i];
+
+            if (isRedundant(packet)) {
+                eliminated[packet.getType().ordinal()]++;
+                packet.release();
+                batch[i] = null;
+                kept--;
+            }
+        }
+
+        if (kept < size)
+            compact();
+
+        return size;
+    }
+
+    /**
+     * Closes the gaps left by discarded packets, keeping the original order.
+     */
+    private void compact() {
+        int to = 0;
+
+        for (int from = 0; from < size; from++) {
+            if (batch[from] != null)
+                batch[to++] = batch[from];
+        }
+
+        for (int i = to; i < size; i++) {
+            batch[i] = null;
+        }
+
+        size = to;
+    }
+
+    /**
+     * Checks whether a later packet in the current batch makes the specified packet redundant, and records what
+     * the packet supersedes. Must be called on the batch in reverse order.
+     *
+     * @param packet the packet to check
+     * @return true if the packet can be discarded
+     */
+    private boolean isRedundant(InboundPacket packet) {
+        int field;
+
+        switch (packet.getType()) {
+            case CREATE:
+            case DESTROY:
+            case LEAVE:
+                field = -1;
+                break;
+            case POSITION:
+            case POSITION_DELTA:
+                field = FIELD_POSITION;
+                break;
+            case DIRECTION:
+                field = FIELD_DIRECTION;
+                break;
+            case TEXTURE:
+                field = FIELD_TEXTURE;
+                break;
+            case SNAPSHOT:
+                // Deltas are never sent over UDP.
+                if (quantized && packet.isReliable())
+                    keepBaselines(packet);
+                return false;
+            default:
+                return false;
+        }
+
+        ByteBuf payload = packet.getPayload();
+        int id = packet.getType() == InboundPacket.Type.POSITION_DELTA
+                ? payload.getUnsignedShort(payload.readerIndex()) : payload.getInt(payload.readerIndex());
+
+        if (id < 0 || id >= replaced.length)
+            return false;
+
+        if (field == -1) {
+            replaced[id] = stamp;
+            return false;
+        }
+
+        if (replaced[id] == stamp)
+            return true;
+
+        // A delta needs the baseline and every delta since, which only a reliable absolute position replaces.
+        if (field == FIELD_POSITION && quantized && packet.isReliable()) {
+            if (rebased[id] == stamp)
+                return true;
+
+            if (packet.getType() == InboundPacket.Type.POSITION) {
+                rebased[id] = stamp;
+                seen[field][id] = stamp;
+            }
+
+            return false;
+        }
+
+        if (seen[field][id] == stamp)
+            return true;
+
+        seen[field][id] = stamp;
+        return false;
+    }
+
+    /**
+     * Keeps the latest position before a quantized SNAPSHOT for each entity whose position it carries, as those
+     * entries are deltas from it. Must be called on the batch in reverse order.
+     *
+     * @param packet the SNAPSHOT packet
+     */
+    private void keepBaselines(InboundPacket packet) {
+        ByteBuf payload = packet.getPayload();
+
+        int index = payload.readerIndex();
+        int entries = payload.getUnsignedShort(index + 4);
+        index += Snapshot.HEADER_SIZE;
+
+        for (int i = 0; i < entries && index + 3 <= payload.writerIndex(); i++) {
+            int id = payload.getUnsignedShort(index);
+            int flags = payload.getUnsignedByte(index + 2);
+
+            // A later absolute position no longer supersedes an earlier one.
+            if ((flags & Snapshot.POSITION) != 0 && id < rebased.length)
+                rebased[id] = stamp - 1;
+
+            index += Snapshot.getEntrySize(flags, true);
+        }
+    }
+
+    /**
+     * Returns the packet at the specified position in the current batch.
+     *
+     * @param index the position in the batch
+     * @return the packet
+     */
+    public InboundPacket get(int index) {
+        return batch[index];
+    }
+
+    /**
+     * Forgets the packets of the current batch that have been processed and released, keeping the rest in order to
+     * be processed with the next batch.
+     *
+     * @param processed which packets in the batch were processed
+     * @return the number of packets carried over
+     */
+    public int carryOver(boolean[] processed) {
+        for (int i = 0; i < size; i++) {
+            if (processed[i])
+                batch[i] = null;
+        }
+
+        compact();
+
+        return size;
+    }
+
+    /**
+     * Forgets the current batch once all of its packets have been processed and released.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            batch[i] = null;
+        }
+
+        size = 0;
+    }
+
+    /**
+     * Returns the total number of packets drained.
+     *
+     * @return the number of packets received
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Returns the total number of packets discarded as redundant.
+     *
+     * @return the number of packets eliminated
+     */
+    public long getEliminated() {
+        long total = 0;
+
+        for (long count : eliminated) {
+            total += count;
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the number of packets of the specified type discarded as redundant.
+     *
+     * @param type the packet type
+     * @return the number of packets eliminated
+     */
+    public long getEliminated(InboundPacket.Type type) {
+        return eliminated[type.ordinal()];
+    }
+}
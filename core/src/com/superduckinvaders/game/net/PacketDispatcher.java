@@ -0,0 +1,51 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.InboundPacket;
+
+/**
+ * Passes each inbound packet to the handler registered for its type, found by indexing a table with the opcode.
+ * Packets of types with no handler are ignored.
+ */
+public final class PacketDispatcher {
+
+    /**
+     * The handler for each opcode, or null if there is none.
+     */
+    private final PacketHandler[] handlers = new PacketHandler[256];
+
+    /**
+     * Sets the handler for a packet type, replacing any already set.
+     *
+     * @param type    the packet type
+     * @param handler the handler, or null to ignore packets of the type
+     */
+    public void register(InboundPacket.Type type, PacketHandler handler) {
+        handlers[type.getOpcode()] = handler;
+    }
+
+    /**
+     * Returns the handler for a packet type.
+     *
+     * @param type the packet type
+     * @return the handler, or null if there is none
+     */
+    public PacketHandler get(InboundPacket.Type type) {
+        return handlers[type.getOpcode()];
+    }
+
+    /**
+     * Passes a packet to the handler for its type.
+     *
+     * @param packet the packet
+     * @return true if there was a handler for the packet
+     */
+    public boolean dispatch(InboundPacket packet) {
+        PacketHandler handler = handlers[packet.getType().getOpcode()];
+
+        if (handler == null)
+            return false;
+
+        handler.handle(packet);
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.InboundPacket;
+
+/**
+ * Applies inbound packets of one type, reading the fields of each from its payload. Called on the render thread.
+ */
+public interface PacketHandler {
+
+    /**
+     * Applies a packet. The packet is released afterwards, so the handler must not keep its payload.
+     *
+     * @param packet the packet
+     */
+    void handle(InboundPacket packet);
+}
@@ -0,0 +1,335 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import com.superduckinvaders.game.net.packets.Snapshot;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the order in which a batch of inbound packets is applied, so that a frame with a time budget applies the
+ * important packets first and leaves the rest for later frames. Packets of high priority are lifecycle and control
+ * packets, such as CREATE, DESTROY and START, and anything about the player. Updates to other entities are of low
+ * priority, being cosmetic.
+ * <p>
+ * A packet is only applied ahead of earlier ones that are still waiting if none of them concerns the same entity,
+ * as position deltas only make sense in order and a CREATE must not be followed by an update from before it.
+ * Packets that change how everything after them is understood, such as HANDSHAKE, are only applied once everything
+ * before them has been, and hold back everything after them until then.
+ * <p>
+ * Looking ahead costs time too, as every packet passed over must be held back, so the search for high priority
+ * packets is given its own share of the budget. Once that runs out the rest are applied in their original order,
+ * the oldest first, so that nothing waits forever behind a long backlog.
+ */
+public final class PacketScheduler {
+
+    /**
+     * The priority classes, in the order they are applied.
+     */
+    public static final int HIGH = 0, LOW = 1;
+
+    /**
+     * How packets depend on each other: not at all, through one entity, through the entities in their entries, or
+     * through everything.
+     */
+    private static final int INDEPENDENT = 0, ENTITY = 1, ENTRIES = 2, BARRIER = 3;
+
+    /**
+     * What to do with each entry of a SNAPSHOT.
+     */
+    private static final int FIND_PLAYER = 0, FIND_HELD = 1, HOLD = 2;
+
+    private final PacketCoalescer coalescer;
+
+    /**
+     * Which packets in the batch have been returned, and the priority of each, or -1 if not yet worked out.
+     */
+    private final boolean[] processed;
+    private final byte[] priorities;
+
+    /**
+     * For each entity, the stamp of the pass in which an earlier packet about it was held back.
+     */
+    private final int[] held;
+
+    /**
+     * Identifies the current pass, so the table above never needs clearing.
+     */
+    private int stamp = 0;
+
+    /**
+     * The number of packets in the batch, the priority class being applied, and the next packet to look at.
+     */
+    private int count, pass, index;
+
+    /**
+     * The time by {@link System#nanoTime()} at which to stop looking for high priority packets.
+     */
+    private long deadline;
+
+    /**
+     * Whether any packet has been held back in this pass, and whether everything else in it must be.
+     */
+    private boolean pending, holdAll;
+
+    /**
+     * The ID of the player entity, and whether reliable snapshots carry position deltas.
+     */
+    private int player;
+    private boolean quantized;
+
+    /**
+     * Creates a new PacketScheduler.
+     *
+     * @param coalescer   the coalescer whose batches are applied
+     * @param capacity    the maximum number of packets in a batch
+     * @param maxEntities the number of entity IDs
+     */
+    public PacketScheduler(PacketCoalescer coalescer, int capacity, int maxEntities) {
+        this.coalescer = coalescer;
+
+        processed = new boolean[capacity];
+        priorities = new byte[capacity];
+        held = new int[maxEntities];
+    }
+
+    /**
+     * Starts applying the current batch.
+     *
+     * @param count     the number of packets in the batch
+     * @param lookahead how long to spend looking for high priority packets, in nanoseconds, or 0 to apply the
+     *                  packets in their original order, as when there is no time budget
+     */
+    public void begin(int count, long lookahead) {
+        this.count = count;
+
+        Arrays.fill(processed, 0, count, false);
+        Arrays.fill(priorities, 0, count, (byte) -1);
+
+        pass = lookahead > 0 ? HIGH : LOW;
+        deadline = System.nanoTime() + lookahead;
+        startPass();
+    }
+
+    private void startPass() {
+        index = 0;
+        pending = false;
+        holdAll = false;
+        stamp++;
+    }
+
+    /**
+     * Returns the next packet to apply, which is then counted as processed.
+     *
+     * @param player    the ID of the player entity
+     * @param quantized whether reliable snapshots carry position deltas
+     * @return the packet, or null if every packet in the batch has been returned
+     */
+    public InboundPacket next(int player, boolean quantized) {
+        this.player = player;
+        this.quantized = quantized;
+
+        while (true) {
+            while (index < count) {
+                int i = index++;
+
+                if (processed[i])
+                    continue;
+
+                InboundPacket packet = coalescer.get(i);
+
+                if (!holdAll && (pass == LOW || getPriority(i, packet) == HIGH) && !isHeld(packet)) {
+                    processed[i] = true;
+                    return packet;
+                }
+
+                hold(packet);
+
+                if (pass == HIGH && System.nanoTime() - deadline >= 0)
+                    break;
+            }
+
+            if (pass == LOW)
+                return null;
+
+            pass++;
+            startPass();
+        }
+    }
+
+    /**
+     * Returns which packets in the batch have been processed, for carrying the rest over.
+     *
+     * @return the processed flag of each packet in the batch
+     */
+    public boolean[] getProcessed() {
+        return processed;
+    }
+
+    private int getPriority(int i, InboundPacket packet) {
+        if (priorities[i] < 0)
+            priorities[i] = (byte) (isPlayerState(packet) || !isState(packet.getType()) ? HIGH : LOW);
+
+        return priorities[i];
+    }
+
+    /**
+     * Checks whether a packet must wait for an earlier one that is being held back.
+     *
+     * @param packet the packet
+     * @return true if the packet must wait
+     */
+    private boolean isHeld(InboundPacket packet) {
+        // Nothing has been held back in this pass, as always in the last, so there is nothing to wait for.
+        if (!pending)
+            return false;
+
+        switch (getDependency(packet.getType())) {
+            case ENTITY:
+                return held[slot(getEntity(packet))] == stamp;
+            case ENTRIES:
+                return visitEntries(packet, FIND_HELD);
+            case BARRIER:
+                return pending;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Holds back a packet, and with it any later packet that depends on it.
+     *
+     * @param packet the packet
+     */
+    private void hold(InboundPacket packet) {
+        pending = true;
+
+        switch (getDependency(packet.getType())) {
+            case ENTITY:
+                held[slot(getEntity(packet))] = stamp;
+                break;
+            case ENTRIES:
+                visitEntries(packet, HOLD);
+                break;
+            case BARRIER:
+                holdAll = true;
+                break;
+        }
+    }
+
+    private boolean isPlayerState(InboundPacket packet) {
+        switch (packet.getType()) {
+            case INPUT_ACK:
+                return true;
+            case SNAPSHOT:
+                return visitEntries(packet, FIND_PLAYER);
+            default:
+                return isState(packet.getType()) && getEntity(packet) == player;
+        }
+    }
+
+    /**
+     * Returns the ID of the entity a packet is about. Acknowledgements are about the player, as the player's
+     * position must be reconciled against the acknowledgement before it.
+     *
+     * @param packet the packet
+     * @return the ID of the entity
+     */
+    private int getEntity(InboundPacket packet) {
+        ByteBuf payload = packet.getPayload();
+
+        switch (packet.getType()) {
+            case INPUT_ACK:
+                return player;
+            case POSITION_DELTA:
+                return payload.getUnsignedShort(payload.readerIndex());
+            default:
+                return payload.getInt(payload.readerIndex());
+        }
+    }
+
+    /**
+     * Looks at the ID in each entry of a SNAPSHOT.
+     *
+     * @param packet the SNAPSHOT packet
+     * @param action what to do with each ID
+     * @return true if an ID was found
+     */
+    private boolean visitEntries(InboundPacket packet, int action) {
+        ByteBuf payload = packet.getPayload();
+
+        // Deltas are never sent over UDP.
+        boolean quantized = this.quantized && packet.isReliable();
+        int index = payload.readerIndex();
+        int entries = payload.getUnsignedShort(index + 4);
+        index += Snapshot.HEADER_SIZE;
+
+        for (int i = 0; i < entries && index + 3 <= payload.writerIndex(); i++) {
+            int id = payload.getUnsignedShort(index);
+
+            switch (action) {
+                case FIND_PLAYER:
+                    if (id == player)
+                        return true;
+                    break;
+                case FIND_HELD:
+                    if (held[slot(id)] == stamp)
+                        return true;
+                    break;
+                case HOLD:
+                    held[slot(id)] = stamp;
+                    break;
+            }
+
+            index += Snapshot.getEntrySize(payload.getUnsignedByte(index + 2), quantized);
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns where an entity is tracked. Invalid IDs share slots with valid ones, which only holds back more than
+     * necessary.
+     *
+     * @param id the ID of the entity
+     * @return the index into the table of held entities
+     */
+    private int slot(int id) {
+        return (id & Integer.MAX_VALUE) % held.length;
+    }
+
+    private static boolean isState(InboundPacket.Type type) {
+        switch (type) {
+            case POSITION:
+            case POSITION_DELTA:
+            case DIRECTION:
+            case TEXTURE:
+            case SNAPSHOT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int getDependency(InboundPacket.Type type) {
+        switch (type) {
+            case CREATE:
+            case DESTROY:
+            case LEAVE:
+            case POSITION:
+            case POSITION_DELTA:
+            case DIRECTION:
+            case TEXTURE:
+            case INPUT_ACK:
+                return ENTITY;
+            case SNAPSHOT:
+                return ENTRIES;
+            case START:
+            case HANDSHAKE:
+            case RESUMED:
+                return BARRIER;
+            default:
+                return INDEPENDENT;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.PingOutboundPacket;
+import io.netty.channel.Channel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a PING on the channel's event loop every so often, until the channel closes. Writes straight to the
+ * channel rather than through the outbound queue, so that pings aren't held until the end of a frame. The first
+ * few are sent close together so that the clock estimates settle quickly after connecting.
+ */
+public final class Pinger implements Runnable {
+
+    /**
+     * The number of pings sent quickly after starting, and the time between them in milliseconds.
+     */
+    private static final int BURST = 4, BURST_INTERVAL = 100;
+
+    private final Channel channel;
+
+    /**
+     * The time between pings after the first few, in milliseconds.
+     */
+    private final int interval;
+
+    /**
+     * The number of pings sent.
+     */
+    private int sent = 0;
+
+    public Pinger(Channel channel, int interval) {
+        this.channel = channel;
+        this.interval = interval;
+    }
+
+    /**
+     * Sends the first ping as soon as possible.
+     */
+    public void start() {
+        channel.eventLoop().execute(this);
+    }
+
+    @Override
+    public void run() {
+        if (!channel.isActive())
+            return;
+
+        channel.writeAndFlush(PingOutboundPacket.INSTANCE, channel.voidPromise());
+        sent++;
+
+        channel.eventLoop().schedule(this, sent < BURST ? BURST_INTERVAL : interval, TimeUnit.MILLISECONDS);
+    }
+}
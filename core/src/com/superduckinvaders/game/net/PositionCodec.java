@@ -0,0 +1,128 @@
+package com.superduckinvaders.game.net;
+
+/**
+ * Tracks the last position sent for each entity in fixed point, for the quantized position encoding.
+ * <p>
+ * Coordinates are quantized to 1/{@value #SCALE} of a pixel. CREATE and POSITION packets carry absolute coordinates;
+ * POSITION_DELTA packets and quantized snapshot entries carry signed 16 bit offsets from the baseline. Deltas are only
+ * ever sent over TCP, and only an absolute position sent over TCP moves the baseline; positions sent over UDP, which
+ * are always absolute, may be lost or discarded and so leave it alone. The baseline therefore only changes in order
+ * on a reliable connection, the last value sent is always the last value received and no acknowledgement is needed.
+ * Both ends must quantize absolute coordinates with {@link #quantize(double)}.
+ */
+public final class PositionCodec {
+
+    /**
+     * The number of fixed point units per pixel.
+     */
+    public static final int SCALE = 16;
+
+    /**
+     * The baseline coordinates of each entity, in fixed point units.
+     */
+    private final int[] x, y;
+
+    /**
+     * Creates a new PositionCodec.
+     *
+     * @param maxEntities the number of entity IDs to track
+     */
+    public PositionCodec(int maxEntities) {
+        x = new int[maxEntities];
+        y = new int[maxEntities];
+    }
+
+    /**
+     * Converts a coordinate to fixed point units.
+     *
+     * @param coordinate the coordinate in pixels
+     * @return the coordinate in fixed point units
+     */
+    public static int quantize(double coordinate) {
+        return (int) Math.round(coordinate * SCALE);
+    }
+
+    /**
+     * Converts a coordinate from fixed point units.
+     *
+     * @param coordinate the coordinate in fixed point units
+     * @return the coordinate in pixels
+     */
+    public static double dequantize(int coordinate) {
+        return coordinate / (double) SCALE;
+    }
+
+    /**
+     * Checks whether an offset in fixed point units can be sent as a delta.
+     *
+     * @param delta the offset
+     * @return true if the offset fits in 16 bits
+     */
+    public static boolean fitsDelta(int delta) {
+        return delta >= Short.MIN_VALUE && delta <= Short.MAX_VALUE;
+    }
+
+    /**
+     * Resets the baseline of an entity to an absolute position.
+     *
+     * @param id the ID of the entity
+     * @param x  the x coordinate in pixels
+     * @param y  the y coordinate in pixels
+     */
+    public void set(int id, double x, double y) {
+        this.x[id] = quantize(x);
+        this.y[id] = quantize(y);
+    }
+
+    /**
+     * Moves the baseline of an entity by a delta.
+     *
+     * @param id the ID of the entity
+     * @param dx the x offset in fixed point units
+     * @param dy the y offset in fixed point units
+     */
+    public void add(int id, int dx, int dy) {
+        x[id] += dx;
+        y[id] += dy;
+    }
+
+    /**
+     * Returns the baseline x coordinate of an entity in fixed point units.
+     *
+     * @param id the ID of the entity
+     * @return the quantized x coordinate
+     */
+    public int getQuantizedX(int id) {
+        return x[id];
+    }
+
+    /**
+     * Returns the baseline y coordinate of an entity in fixed point units.
+     *
+     * @param id the ID of the entity
+     * @return the quantized y coordinate
+     */
+    public int getQuantizedY(int id) {
+        return y[id];
+    }
+
+    /**
+     * Returns the baseline x coordinate of an entity.
+     *
+     * @param id the ID of the entity
+     * @return the x coordinate in pixels
+     */
+    public double getX(int id) {
+        return dequantize(x[id]);
+    }
+
+    /**
+     * Returns the baseline y coordinate of an entity.
+     *
+     * @param id the ID of the entity
+     * @return the y coordinate in pixels
+     */
+    public double getY(int id) {
+        return dequantize(y[id]);
+    }
+}
@@ -0,0 +1,150 @@
+package com.superduckinvaders.game.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, preallocated queue for passing objects from a single producer thread to a single consumer thread.
+ * Unlike a linked queue, offering an element allocates nothing.
+ * <p>
+ * The producer may also call {@link #poll()} to drop the oldest element when the buffer is full, so polling is safe
+ * against a concurrent poll from the other side.
+ *
+ * @param <T> the type of element
+ */
+public final class RingBuffer<T> {
+
+    /**
+     * The slots of this RingBuffer. The length is always a power of two.
+     */
+    private final AtomicReferenceArray<T> slots;
+
+    /**
+     * Mask for converting a sequence number into a slot index.
+     */
+    private final int mask;
+
+    /**
+     * The sequence number of the next element to be polled.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The sequence number of the next element to be offered.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The largest number of elements this RingBuffer has held at once.
+     */
+    private volatile int highWaterMark = 0;
+
+    /**
+     * The number of times an element was offered while this RingBuffer was full.
+     */
+    private volatile long overflows = 0;
+
+    /**
+     * Creates a new RingBuffer able to hold at least the specified number of elements.
+     *
+     * @param capacity the minimum capacity, rounded up to a power of two
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        int size = Integer.highestOneBit(capacity);
+
+        if (size < capacity)
+            size <<= 1;
+
+        slots = new AtomicReferenceArray<T>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element to this RingBuffer. Must only be called from the producer thread.
+     *
+     * @param element the element to add
+     * @return false if this RingBuffer is full
+     */
+    public boolean offer(T element) {
+        if (element == null)
+            throw new NullPointerException();
+
+        long t = tail.get();
+        int size = (int) (t - head.get());
+
+        if (size > mask) {
+            overflows++;
+            return false;
+        }
+
+        slots.lazySet((int) t & mask, element);
+        tail.lazySet(t + 1);
+
+        if (size + 1 > highWaterMark)
+            highWaterMark = size + 1;
+
+        return true;
+    }
+
+    /**
+     * Removes the oldest element from this RingBuffer.
+     *
+     * @return the oldest element, or null if this RingBuffer is empty
+     */
+    public T poll() {
+        while (true) {
+            long h = head.get();
+
+            if (h == tail.get())
+                return null;
+
+            int index = (int) h & mask;
+            T element = slots.get(index);
+
+            if (head.compareAndSet(h, h + 1)) {
+                // Clear the slot unless the producer has already reused it.
+                slots.compareAndSet(index, element, null);
+                return element;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of elements currently in this RingBuffer.
+     *
+     * @return the number of elements
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Returns the number of elements this RingBuffer can hold.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the largest number of elements this RingBuffer has held at once.
+     *
+     * @return the high water mark
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Returns the number of times an element was offered while this RingBuffer was full.
+     *
+     * @return the number of overflows
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+}
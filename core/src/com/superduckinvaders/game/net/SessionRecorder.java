@@ -0,0 +1,182 @@
+package com.superduckinvaders.game.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the raw bytes arriving on the TCP channel, before the decoder sees them, for {@link SessionReplayer} to
+ * play back later. Shared by every channel of a session, so reconnections are recorded into the same file.
+ * <p>
+ * The file is a header of the {@link #MAGIC} number, the {@link #VERSION}, the capabilities offered to the server
+ * and the wall clock time recording started, followed by one record per read. Each record is the time since
+ * recording started in nanoseconds, the length of the read, and the bytes read. A length of {@link #NEW_CONNECTION}
+ * with no bytes marks the start of a new connection. The file is written through memory mapped regions, so a
+ * recording cut short by a crash ends in zeros, which reads as a zero length record.
+ */
+@ChannelHandler.Sharable
+public final class SessionRecorder extends ChannelInboundHandlerAdapter {
+
+    /**
+     * The first four bytes of a recording, "SDIR".
+     */
+    public static final int MAGIC = 0x53444952;
+
+    /**
+     * The version of the recording format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The length of a record marking the start of a new connection.
+     */
+    public static final int NEW_CONNECTION = -1;
+
+    /**
+     * The size of the header, and of the header of each record.
+     */
+    public static final int HEADER_SIZE = 20, RECORD_HEADER_SIZE = 12;
+
+    /**
+     * The size of each region of the file mapped at once.
+     */
+    private static final int REGION_SIZE = 16 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel fileChannel;
+
+    /**
+     * The currently mapped region of the file.
+     */
+    private MappedByteBuffer region;
+
+    /**
+     * The offset of the current region in the file.
+     */
+    private long regionStart = 0;
+
+    /**
+     * When recording started, in nanoseconds.
+     */
+    private final long startTime = System.nanoTime();
+
+    /**
+     * The number of bytes recorded, not counting headers.
+     */
+    private long recorded = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Creates a new SessionRecorder, replacing the specified file if it exists.
+     *
+     * @param file         the file to record to
+     * @param capabilities the capabilities offered to the server, which decide how the recorded packets are decoded
+     * @throws IOException if the file can't be created
+     */
+    public SessionRecorder(File file, int capabilities) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+
+        fileChannel = this.file.getChannel();
+        region = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+
+        region.putInt(MAGIC);
+        region.putInt(VERSION);
+        region.putInt(capabilities);
+        region.putLong(System.currentTimeMillis());
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        record(NEW_CONNECTION, null);
+
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            ByteBuf buf = (ByteBuf) msg;
+
+            if (buf.isReadable())
+                record(buf.readableBytes(), buf);
+        }
+
+        super.channelRead(ctx, msg);
+    }
+
+    /**
+     * Appends a record, mapping the next region of the file if it doesn't fit in this one.
+     *
+     * @param length the length of the record
+     * @param buf    the bytes of the record, or null if there are none
+     * @throws IOException if the file can't be extended
+     */
+    private synchronized void record(int length, ByteBuf buf) throws IOException {
+        if (closed)
+            return;
+
+        int size = RECORD_HEADER_SIZE + Math.max(length, 0);
+
+        if (region.remaining() < size) {
+            regionStart += region.position();
+            region = fileChannel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, size));
+        }
+
+        region.putLong(System.nanoTime() - startTime);
+        region.putInt(length);
+
+        if (buf != null) {
+            // Copies without moving the reader index, so the decoder still sees every byte. The copy fills its
+            // destination, so it gets a view limited to the record.
+            ByteBuffer destination = region.duplicate();
+            destination.limit(region.position() + length);
+
+            buf.getBytes(buf.readerIndex(), destination);
+            region.position(region.position() + length);
+            recorded += length;
+        }
+    }
+
+    /**
+     * Returns the number of bytes recorded, not counting headers.
+     *
+     * @return the number of bytes recorded
+     */
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * Stops recording and trims the unused end of the last region from the file.
+     */
+    public synchronized void close() {
+        if (closed)
+            return;
+
+        closed = true;
+
+        try {
+            region.force();
+            fileChannel.truncate(regionStart + region.position());
+        } catch (IOException ex) {
+            // Some platforms can't truncate a mapped file; the zeros left at the end read as the end of the recording.
+        }
+
+        try {
+            file.close();
+        } catch (IOException ex) {
+            // Nothing more can be done.
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.Engine;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a recording made by {@link SessionRecorder}, feeding the recorded bytes through the same decoder and
+ * handler as a live connection, so the engine and world run exactly as they did against the server.
+ * <p>
+ * Each recorded connection gets its own embedded channel, on the replay thread, which is the only producer for
+ * the inbound queue just as the event loop is when live. Anything the engine sends is discarded. Only the TCP
+ * channel is recorded, so recordings of sessions that used the optional UDP channel are missing those updates.
+ */
+public final class SessionReplayer implements Runnable {
+
+    private final Engine engine;
+
+    /**
+     * How many times faster than real time to replay, or 0 to replay as fast as possible.
+     */
+    private final float speed;
+
+    /**
+     * The whole recording, positioned after the header.
+     */
+    private final MappedByteBuffer recording;
+
+    /**
+     * The capabilities that were offered to the server when recording.
+     */
+    private final int capabilities;
+
+    /**
+     * The number of bytes replayed.
+     */
+    private volatile long replayed = 0;
+
+    /**
+     * How long the replay took, in nanoseconds, or -1 if it hasn't finished.
+     */
+    private volatile long replayTime = -1;
+
+    /**
+     * Opens a recording for replaying.
+     *
+     * @param engine the engine to replay into
+     * @param file   the recording
+     * @param speed  how many times faster than real time to replay, or 0 to replay as fast as possible
+     * @throws IOException if the file can't be read or is not a recording
+     */
+    public SessionReplayer(Engine engine, File file, float speed) throws IOException {
+        this.engine = engine;
+        this.speed = speed;
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try {
+            recording = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            // The mapping stays valid after the file is closed.
+            in.close();
+        }
+
+        if (recording.remaining() < SessionRecorder.HEADER_SIZE || recording.getInt() != SessionRecorder.MAGIC)
+            throw new IOException(file + " is not a recording");
+
+        int version = recording.getInt();
+
+        if (version != SessionRecorder.VERSION)
+            throw new IOException(file + " is recording version " + version + ", expected " + SessionRecorder.VERSION);
+
+        capabilities = recording.getInt();
+
+        // Skip the time recording started.
+        recording.getLong();
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        EmbeddedChannel channel = null;
+
+        while (recording.remaining() >= SessionRecorder.RECORD_HEADER_SIZE) {
+            long time = recording.getLong();
+            int length = recording.getInt();
+
+            // A zero length read is never recorded, so this is the unwritten end of the file.
+            if (length == 0 || length > recording.remaining())
+                break;
+
+            if (speed > 0) {
+                long due = start + (long) (time / speed);
+                long wait;
+
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            if (length == SessionRecorder.NEW_CONNECTION) {
+                EmbeddedChannel previous = channel;
+
+                // Open the new channel first, so that the engine ignores the old one closing.
+                channel = newChannel();
+
+                if (previous != null)
+                    previous.finishAndReleaseAll();
+
+                continue;
+            }
+
+            // Older recordings may start without a connection marker.
+            if (channel == null)
+                channel = newChannel();
+
+            ByteBuffer bytes = recording.slice();
+            bytes.limit(length);
+            recording.position(recording.position() + length);
+
+            channel.writeInbound(Unpooled.wrappedBuffer(bytes));
+            discardOutbound(channel);
+
+            replayed += length;
+        }
+
+        replayTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Creates a channel with the same inbound pipeline as a live connection. Becoming active sends the handshake
+     * into the void and attaches the channel to the engine.
+     *
+     * @return the channel
+     */
+    private EmbeddedChannel newChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(engine.newPipelineHandlers());
+
+        discardOutbound(channel);
+
+        return channel;
+    }
+
+    private void discardOutbound(EmbeddedChannel channel) {
+        channel.runPendingTasks();
+
+        Object msg;
+
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    /**
+     * Returns the capabilities that were offered to the server when recording, which must be offered again for the
+     * replayed packets to decode the same way.
+     *
+     * @return the recorded capabilities
+     */
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Returns the number of bytes replayed so far.
+     *
+     * @return the number of bytes replayed
+     */
+    public long getReplayed() {
+        return replayed;
+    }
+
+    /**
+     * Returns how long the replay took.
+     *
+     * @return the replay time in nanoseconds, or -1 if the replay hasn't finished
+     */
+    public long getReplayTime() {
+        return replayTime;
+    }
+}
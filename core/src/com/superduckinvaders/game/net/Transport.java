@@ -0,0 +1,109 @@
+package com.superduckinvaders.game.net;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * The Netty transports available, for the client and the load generator server.
+ */
+public enum Transport {
+    /**
+     * The portable Java NIO transport.
+     */
+    NIO {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new NioEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> getDatagramChannelClass() {
+            return NioDatagramChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> getServerSocketChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+    },
+
+    /**
+     * The native epoll transport, which makes fewer system calls and wakeups. Only available on Linux.
+     */
+    EPOLL {
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new EpollEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> getDatagramChannelClass() {
+            return EpollDatagramChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> getServerSocketChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+    };
+
+    /**
+     * Returns the best transport available on this machine.
+     *
+     * @param preferNative whether to use a native transport if one is available
+     * @return the transport
+     */
+    public static Transport select(boolean preferNative) {
+        return preferNative && Epoll.isAvailable() ? EPOLL : NIO;
+    }
+
+    /**
+     * Creates an event loop group for this transport.
+     *
+     * @param threads the number of event loop threads
+     * @return the event loop group
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int threads);
+
+    /**
+     * Returns the class of TCP channel for this transport.
+     *
+     * @return the socket channel class
+     */
+    public abstract Class<? extends SocketChannel> getSocketChannelClass();
+
+    /**
+     * Returns the class of UDP channel for this transport.
+     *
+     * @return the datagram channel class
+     */
+    public abstract Class<? extends DatagramChannel> getDatagramChannelClass();
+
+    /**
+     * Returns the class of listening TCP channel for this transport.
+     *
+     * @return the server socket channel class
+     */
+    public abstract Class<? extends ServerSocketChannel> getServerSocketChannelClass();
+}
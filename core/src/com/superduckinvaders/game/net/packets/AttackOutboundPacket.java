@@ -1,18 +1,45 @@
 package com.superduckinvaders.game.net.packets;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.util.Recycler;
 
 /**
  * Created by Oliver on 20/02/2016.
  */
 public final class AttackOutboundPacket implements OutboundPacket {
 
-    private final double targetX, targetY;
+    /**
+     * Pool of attack packets, as one is sent every frame while the mouse is held down.
+     */
+    private static final Recycler<AttackOutboundPacket> RECYCLER = new Recycler<AttackOutboundPacket>() {
+        @Override
+        protected AttackOutboundPacket newObject(Handle handle) {
+            return new AttackOutboundPacket(handle);
+        }
+    };
 
-    public AttackOutboundPacket(double targetX, double targetY) {
-        this.targetX = targetX;
-        this.targetY = targetY;
+    private final Recycler.Handle handle;
+
+    private double targetX, targetY;
+
+    private AttackOutboundPacket(Recycler.Handle handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Returns a pooled AttackOutboundPacket for the specified target.
+     *
+     * @param targetX the x coordinate of the target
+     * @param targetY the y coordinate of the target
+     * @return the packet
+     */
+    public static AttackOutboundPacket newInstance(double targetX, double targetY) {
+        AttackOutboundPacket packet = RECYCLER.get();
+
+        packet.targetX = targetX;
+        packet.targetY = targetY;
+
+        return packet;
     }
 
     @Override
@@ -21,9 +48,18 @@ public final class AttackOutboundPacket implements OutboundPacket {
     }
 
     @Override
-    public ByteBuf getPayload() {
-        return Unpooled.buffer(8)
-                .writeDouble(targetX)
-                .writeDouble(targetY);
+    public int getSize() {
+        return 16;
+    }
+
+    @Override
+    public void writeTo(ByteBuf out) {
+        out.writeDouble(targetX);
+        out.writeDouble(targetY);
+    }
+
+    @Override
+    public void release() {
+        RECYCLER.recycle(this, handle);
     }
 }
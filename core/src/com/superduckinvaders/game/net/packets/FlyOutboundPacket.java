@@ -1,20 +1,35 @@
 package com.superduckinvaders.game.net.packets;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 
 /**
  * Created by Oliver on 20/02/2016.
  */
 public final class FlyOutboundPacket implements OutboundPacket {
 
+    /**
+     * The only instance, as this packet has no payload.
+     */
+    public static final FlyOutboundPacket INSTANCE = new FlyOutboundPacket();
+
+    private FlyOutboundPacket() {
+    }
+
     @Override
     public int getOpcode() {
         return 3;
     }
 
     @Override
-    public ByteBuf getPayload() {
-        return Unpooled.buffer(0);
+    public int getSize() {
+        return 0;
+    }
+
+    @Override
+    public void writeTo(ByteBuf out) {
+    }
+
+    @Override
+    public void release() {
     }
 }
@@ -0,0 +1,34 @@
+package com.superduckinvaders.game.net.packets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Sent on connecting to offer optional protocol features to the server.
+ */
+public final class HandshakeOutboundPacket implements OutboundPacket {
+
+    private final int capabilities;
+
+    public HandshakeOutboundPacket(int capabilities) {
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public int getOpcode() {
+        return 4;
+    }
+
+    @Override
+    public int getSize() {
+        return 4;
+    }
+
+    @Override
+    public void writeTo(ByteBuf out) {
+        out.writeInt(capabilities);
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -2,9 +2,6 @@ package com.superduckinvaders.game.net.packets;
 
 import io.netty.buffer.ByteBuf;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Created by Oliver on 20/02/2016.
  */
@@ -14,13 +11,29 @@ public class InboundPacket {
 
     private ByteBuf payload;
 
-    public InboundPacket(Type type, ByteBuf payload) {
+    /**
+     * The time this packet arrived, in nanoseconds.
+     */
+    private long timestamp;
+
+    /**
+     * Whether this packet arrived over the reliable, ordered TCP channel.
+     */
+    private boolean reliable;
+
+    public InboundPacket(Type type, ByteBuf payload, long timestamp) {
+        this(type, payload, timestamp, true);
+    }
+
+    public InboundPacket(Type type, ByteBuf payload, long timestamp, boolean reliable) {
         if (payload.readableBytes() < type.getSize()) {
             throw new IllegalArgumentException("invalid payload size");
         }
 
         this.type = type;
         this.payload = payload;
+        this.timestamp = timestamp;
+        this.reliable = reliable;
     }
 
     public Type getType() {
@@ -31,6 +44,14 @@ public class InboundPacket {
         return payload;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isReliable() {
+        return reliable;
+    }
+
     public void release() {
         payload.release();
     }
@@ -43,24 +64,45 @@ public class InboundPacket {
         POSITION(5, 20),
         DIRECTION(6, 5),
         TEXTURE(7, 8),
-        INTERFACE(8, 28);
+        INTERFACE(8, 28),
+        SNAPSHOT(9, Type.VARIABLE),
+        HANDSHAKE(10, 6),
+        POSITION_DELTA(11, 6),
+        INPUT_ACK(12, 4),
+        DATAGRAM_SETUP(13, 6),
+        COMPRESSED(14, Type.VARIABLE),
+        SESSION(15, 8),
+        RESUMED(16, 1),
+        PONG(17, 24),
+        LEAVE(18, 4);
 
         /**
-         * Maps opcodes to packet types.
+         * The size of packets whose payload is preceded by a 16 bit length.
          */
-        private static final Map<Integer, Type> opcodes = new HashMap<Integer, Type>();
+        public static final int VARIABLE = -1;
 
         /**
-         * Populates the opcode map.
+         * The packet type for each opcode, or null if there is none.
+         */
+        private static final Type[] opcodes = new Type[256];
+
+        /**
+         * Populates the opcode table.
          */
         static {
             for (Type type : Type.values()) {
-                opcodes.put(type.getOpcode(), type);
+                opcodes[type.getOpcode()] = type;
             }
         }
 
+        /**
+         * Returns the packet type with an opcode.
+         *
+         * @param opcode the opcode
+         * @return the packet type, or null if the opcode is unknown
+         */
         public static Type forOpcode(int opcode) {
-            return opcodes.get(opcode);
+            return opcode >= 0 && opcode < opcodes.length ? opcodes[opcode] : null;
         }
 
         private int opcode, size;
@@ -77,5 +119,29 @@ public class InboundPacket {
         public int getSize() {
             return size;
         }
+
+        public boolean isVariable() {
+            return size == VARIABLE;
+        }
+
+        /**
+         * Returns whether the payload starts with a 32 bit entity ID. Snapshots and deltas carry 16 bit IDs instead.
+         *
+         * @return true if the payload starts with an entity ID
+         */
+        public boolean hasEntityId() {
+            switch (this) {
+                case START:
+                case CREATE:
+                case DESTROY:
+                case POSITION:
+                case DIRECTION:
+                case TEXTURE:
+                case LEAVE:
+                    return true;
+                default:
+                    return false;
+            }
+        }
     }
 }
@@ -0,0 +1,115 @@
+package com.superduckinvaders.game.net.packets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+
+/**
+ * Sent when the player's input changes, if input sequences were negotiated. Replaces the movement and attack packets.
+ * <p>
+ * The payload is a count byte followed by that many inputs, oldest first. Each input is its 32 bit tick sequence
+ * number and a byte of buttons: the movement bits and {@link #ATTACK}. Inputs with the attack bit set are followed by
+ * the target x and y as 32 bit floats. The server applies each input from its tick until the next input, and ignores
+ * inputs it has already seen; the older inputs are repeated so that a lost packet is covered by the next one.
+ */
+public final class InputOutboundPacket implements OutboundPacket {
+
+    /**
+     * The button bit for attacking, after the movement bits.
+     */
+    public static final int ATTACK = 1 << MovementOutboundPacket.MOVEMENT_BITS;
+
+    /**
+     * The most inputs one packet can carry.
+     */
+    public static final int MAX_INPUTS = 8;
+
+    /**
+     * Pool of input packets.
+     */
+    private static final Recycler<InputOutboundPacket> RECYCLER = new Recycler<InputOutboundPacket>() {
+        @Override
+        protected InputOutboundPacket newObject(Handle handle) {
+            return new InputOutboundPacket(handle);
+        }
+    };
+
+    private final Recycler.Handle handle;
+
+    private final int[] sequences = new int[MAX_INPUTS], buttons = new int[MAX_INPUTS];
+
+    private final float[] targetX = new float[MAX_INPUTS], targetY = new float[MAX_INPUTS];
+
+    private int count;
+
+    private InputOutboundPacket(Recycler.Handle handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Returns an empty pooled InputOutboundPacket.
+     *
+     * @return the packet
+     */
+    public static InputOutboundPacket newInstance() {
+        InputOutboundPacket packet = RECYCLER.get();
+
+        packet.count = 0;
+
+        return packet;
+    }
+
+    /**
+     * Adds an input to this packet. Inputs must be added oldest first.
+     *
+     * @param sequence the tick sequence number of the input
+     * @param buttons  the movement bits and attack bit
+     * @param targetX  the x coordinate of the attack target
+     * @param targetY  the y coordinate of the attack target
+     */
+    public void addInput(int sequence, int buttons, float targetX, float targetY) {
+        if (count == MAX_INPUTS)
+            throw new IllegalStateException("too many inputs");
+
+        this.sequences[count] = sequence;
+        this.buttons[count] = buttons;
+        this.targetX[count] = targetX;
+        this.targetY[count] = targetY;
+        count++;
+    }
+
+    @Override
+    public int getOpcode() {
+        return 5;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 1;
+
+        for (int i = 0; i < count; i++) {
+            size += (buttons[i] & ATTACK) != 0 ? 13 : 5;
+        }
+
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuf out) {
+        out.writeByte(count);
+
+        for (int i = 0; i < count; i++) {
+            out.writeInt(sequences[i]);
+            out.writeByte(buttons[i]);
+
+            if ((buttons[i] & ATTACK) != 0) {
+                out.writeFloat(targetX[i]);
+                out.writeFloat(targetY[i]);
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        RECYCLER.recycle(this, handle);
+    }
+}
@@ -1,29 +1,60 @@
 package com.superduckinvaders.game.net.packets;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-
-import java.util.BitSet;
 
 /**
  * Created by Oliver on 20/02/2016.
  */
 public final class MovementOutboundPacket implements OutboundPacket {
 
-    private final BitSet movement;
+    /**
+     * The number of movement bits.
+     */
+    public static final int MOVEMENT_BITS = 4;
+
+    /**
+     * One shared instance for every possible combination of movement bits.
+     */
+    private static final MovementOutboundPacket[] instances = new MovementOutboundPacket[1 << MOVEMENT_BITS];
+
+    static {
+        for (int i = 0; i < instances.length; i++) {
+            instances[i] = new MovementOutboundPacket(i);
+        }
+    }
 
-    public MovementOutboundPacket(BitSet movement) {
+    private final int movement;
+
+    private MovementOutboundPacket(int movement) {
         this.movement = movement;
     }
 
+    /**
+     * Returns the shared MovementOutboundPacket for the specified movement bits.
+     *
+     * @param movement the movement bits
+     * @return the packet
+     */
+    public static MovementOutboundPacket forMovement(int movement) {
+        return instances[movement];
+    }
+
     @Override
     public int getOpcode() {
         return 1;
     }
 
     @Override
-    public ByteBuf getPayload() {
-        return Unpooled.buffer(1)
-                .writeBytes(movement.toByteArray());
+    public int getSize() {
+        return 1;
+    }
+
+    @Override
+    public void writeTo(ByteBuf out) {
+        out.writeByte(movement);
+    }
+
+    @Override
+    public void release() {
     }
 }
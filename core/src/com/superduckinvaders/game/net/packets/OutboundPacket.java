@@ -9,5 +9,22 @@ public interface OutboundPacket {
 
     int getOpcode();
 
-    ByteBuf getPayload();
+    /**
+     * Returns the size of the payload of this packet in bytes, not including the opcode.
+     *
+     * @return the size of the payload
+     */
+    int getSize();
+
+    /**
+     * Writes the payload of this packet to the specified buffer.
+     *
+     * @param out the buffer to write to
+     */
+    void writeTo(ByteBuf out);
+
+    /**
+     * Called once this packet has been encoded. Pooled packets return themselves to their pool here.
+     */
+    void release();
 }
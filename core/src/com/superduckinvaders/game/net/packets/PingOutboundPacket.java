@@ -0,0 +1,37 @@
+package com.superduckinvaders.game.net.packets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Asks the server for a PONG, for estimating the round trip time and the server's clock. Carries the time it was
+ * encoded by the client's clock, so that time spent waiting to be written doesn't count as network time.
+ */
+public final class PingOutboundPacket implements OutboundPacket {
+
+    /**
+     * The only instance, as the payload is filled in when encoding.
+     */
+    public static final PingOutboundPacket INSTANCE = new PingOutboundPacket();
+
+    private PingOutboundPacket() {
+    }
+
+    @Override
+    public int getOpcode() {
+        return 7;
+    }
+
+    @Override
+    public int getSize() {
+        return 8;
+    }
+
+    @Override
+    public void writeTo(ByteBuf out) {
+        out.writeLong(System.nanoTime());
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,39 @@
+package com.superduckinvaders.game.net.packets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Sent after the handshake when reconnecting, asking the server to resume a session and resend only what changed
+ * after the specified tick.
+ */
+public final class ResumeOutboundPacket implements OutboundPacket {
+
+    private final long token;
+
+    private final int tick;
+
+    public ResumeOutboundPacket(long token, int tick) {
+        this.token = token;
+        this.tick = tick;
+    }
+
+    @Override
+    public int getOpcode() {
+        return 6;
+    }
+
+    @Override
+    public int getSize() {
+        return 12;
+    }
+
+    @Override
+    public void writeTo(ByteBuf out) {
+        out.writeLong(token);
+        out.writeInt(tick);
+    }
+
+    @Override
+    public void release() {
+    }
+}
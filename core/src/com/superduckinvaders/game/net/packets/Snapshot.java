@@ -0,0 +1,61 @@
+package com.superduckinvaders.game.net.packets;
+
+/**
+ * Describes the layout of a SNAPSHOT packet, which carries updates to many entities in one frame.
+ * <p>
+ * The payload is a 32 bit tick number and a 16 bit entry count, followed by that many entries. Each entry is a
+ * 16 bit entity ID and a byte of flags saying which fields follow, in this order:
+ * <ul>
+ * <li>{@link #POSITION}: x and y as 32 bit floats, or as signed 16 bit fixed point deltas if quantized positions
+ * were negotiated</li>
+ * <li>{@link #DIRECTION}: the direction ordinal as a byte</li>
+ * <li>{@link #TEXTURE}: the texture index as a byte</li>
+ * </ul>
+ */
+public final class Snapshot {
+
+    /**
+     * Flag for an entry containing a position.
+     */
+    public static final int POSITION = 1;
+
+    /**
+     * Flag for an entry containing a direction.
+     */
+    public static final int DIRECTION = 1 << 1;
+
+    /**
+     * Flag for an entry containing a texture.
+     */
+    public static final int TEXTURE = 1 << 2;
+
+    /**
+     * The size of the header, before the entries.
+     */
+    public static final int HEADER_SIZE = 6;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Returns the size of an entry with the specified flags.
+     *
+     * @param flags     the flags of the entry
+     * @param quantized whether positions are sent as deltas
+     * @return the size of the entry in bytes
+     */
+    public static int getEntrySize(int flags, boolean quantized) {
+        int size = 3;
+
+        if ((flags & POSITION) != 0)
+            size += quantized ? 4 : 8;
+
+        if ((flags & DIRECTION) != 0)
+            size += 1;
+
+        if ((flags & TEXTURE) != 0)
+            size += 1;
+
+        return size;
+    }
+}
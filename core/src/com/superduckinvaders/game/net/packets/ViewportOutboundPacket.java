@@ -0,0 +1,53 @@
+package com.superduckinvaders.game.net.packets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Tells the server which part of the world the camera shows, so that it only sends updates for the entities in
+ * or near it. Entities within the margin around the rectangle are included too, so they are already known when
+ * they come into view.
+ */
+public final class ViewportOutboundPacket implements OutboundPacket {
+
+    private final float x, y, width, height, margin;
+
+    /**
+     * Creates a new ViewportOutboundPacket.
+     *
+     * @param x      the x coordinate of the bottom left corner of the camera rectangle
+     * @param y      the y coordinate of the bottom left corner of the camera rectangle
+     * @param width  the width of the camera rectangle
+     * @param height the height of the camera rectangle
+     * @param margin how far outside the rectangle entities are still of interest
+     */
+    public ViewportOutboundPacket(float x, float y, float width, float height, float margin) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.margin = margin;
+    }
+
+    @Override
+    public int getOpcode() {
+        return 8;
+    }
+
+    @Override
+    public int getSize() {
+        return 20;
+    }
+
+    @Override
+    public void writeTo(ByteBuf out) {
+        out.writeFloat(x);
+        out.writeFloat(y);
+        out.writeFloat(width);
+        out.writeFloat(height);
+        out.writeFloat(margin);
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,127 @@
+package com.superduckinvaders.game;
+
+import com.superduckinvaders.game.entity.EntityStore;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that decoding entity state into the table on the event loop leaves the world exactly as applying queued
+ * packets does.
+ */
+public class DirectStateTest {
+
+    private static final int PLAYER = 5, OTHER = 6;
+
+    /**
+     * Feeds reads through a pipeline as if they had arrived from the server, applying each and updating the world
+     * in a frame of its own.
+     *
+     * @param directState whether to decode into the entity state table
+     * @param reads       the bytes received by each read
+     * @return the world
+     */
+    private static World run(boolean directState, ByteBuf... reads) {
+        EngineConfiguration config = new EngineConfiguration();
+        config.directState = directState;
+
+        World world = new World(config);
+        Engine engine = new Engine(world, new NullEngineListener(), "localhost", 0, config);
+
+        try {
+            EmbeddedChannel channel = new EmbeddedChannel(engine.newPipelineHandlers());
+
+            for (ByteBuf bytes : reads) {
+                channel.writeInbound(bytes);
+                channel.runPendingTasks();
+
+                engine.updateInbound();
+                world.update(1 / 60f);
+            }
+
+            Object msg;
+
+            while ((msg = channel.readOutbound()) != null) {
+                ReferenceCountUtil.release(msg);
+            }
+
+            channel.finish();
+        } finally {
+            engine.dispose();
+        }
+
+        return world;
+    }
+
+    private static void writeStart(ByteBuf out, int id) {
+        out.writeByte(InboundPacket.Type.START.getOpcode());
+        out.writeInt(id);
+    }
+
+    private static void writeCreate(ByteBuf out, int id, double x, double y) {
+        out.writeByte(InboundPacket.Type.CREATE.getOpcode());
+        out.writeInt(id);
+        out.writeDouble(x);
+        out.writeDouble(y);
+        out.writeByte(0);
+        out.writeInt(0);
+    }
+
+    private static void writePosition(ByteBuf out, int id, double x, double y) {
+        out.writeByte(InboundPacket.Type.POSITION.getOpcode());
+        out.writeInt(id);
+        out.writeDouble(x);
+        out.writeDouble(y);
+    }
+
+    private static void assertSameWorld(World expected, World actual) {
+        EntityStore a = expected.getEntityStore(), b = actual.getEntityStore();
+
+        assertEquals(expected.getPlayerId(), actual.getPlayerId());
+        assertEquals(a.size(), b.size());
+
+        for (int slot = 0; slot < a.size(); slot++) {
+            int id = a.getId(slot);
+            int other = b.getSlot(id);
+
+            assertTrue("entity " + id, other != -1);
+            assertEquals("x of entity " + id, a.getX(slot), b.getX(other), 0);
+            assertEquals("y of entity " + id, a.getY(slot), b.getY(other), 0);
+            assertEquals("direction of entity " + id, a.getDirection(slot), b.getDirection(other));
+            assertEquals("texture of entity " + id, a.getTexture(slot), b.getTexture(other));
+        }
+    }
+
+    /**
+     * The server sends START and the CREATEs of a join in one flush, so the player is created before START is
+     * applied from the queue.
+     */
+    @Test
+    public void joinLeavesSameWorld() {
+        ByteBuf join = Unpooled.buffer();
+        writeStart(join, PLAYER);
+        writeCreate(join, PLAYER, 100, 100);
+        writeCreate(join, OTHER, 300, 300);
+
+        ByteBuf move = Unpooled.buffer();
+        writePosition(move, PLAYER, 200, 200);
+
+        World queued = run(false, join.copy(), move.copy());
+        World direct = run(true, join, move);
+
+        EntityStore store = direct.getEntityStore();
+        int player = store.getSlot(PLAYER);
+
+        // The player is drawn where the server last put it, not interpolated back to where it was created.
+        assertEquals(200, store.getX(player), 0);
+        assertEquals(200, store.getY(player), 0);
+
+        assertSameWorld(queued, direct);
+    }
+}
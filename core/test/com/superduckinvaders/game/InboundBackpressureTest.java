@@ -0,0 +1,102 @@
+package com.superduckinvaders.game;
+
+import com.superduckinvaders.game.net.OverflowPolicy;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a full inbound queue with the BLOCK policy stops reading from the server instead of making the event
+ * loop wait, and that nothing read in the meantime is lost or reordered.
+ */
+public class InboundBackpressureTest {
+
+    private static final int CAPACITY = 4, ENTITIES = 10;
+
+    private World world;
+    private Engine engine;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        EngineConfiguration config = new EngineConfiguration();
+        config.inboundCapacity = CAPACITY;
+        config.inboundOverflowPolicy = OverflowPolicy.BLOCK;
+        config.inboundBudget = 0;
+
+        world = new World(config);
+        engine = new Engine(world, new NullEngineListener(), "localhost", 0, config);
+        channel = new EmbeddedChannel(engine.newPipelineHandlers());
+    }
+
+    @After
+    public void tearDown() {
+        Object msg;
+
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+
+        channel.finish();
+        engine.dispose();
+    }
+
+    private static void writeCreate(ByteBuf out, int id) {
+        out.writeByte(InboundPacket.Type.CREATE.getOpcode());
+        out.writeInt(id);
+        out.writeDouble(id);
+        out.writeDouble(id);
+        out.writeByte(0);
+        out.writeInt(0);
+    }
+
+    private static void writeDestroy(ByteBuf out, int id) {
+        out.writeByte(InboundPacket.Type.DESTROY.getOpcode());
+        out.writeInt(id);
+    }
+
+    /**
+     * Lets the render thread drain the queue, then runs what the event loop was asked to do.
+     */
+    private void frame() {
+        engine.updateInbound();
+        channel.runPendingTasks();
+    }
+
+    @Test
+    public void suspendsReadingUntilDrained() {
+        ByteBuf read = Unpooled.buffer();
+
+        for (int id = 0; id < ENTITIES; id++) {
+            writeCreate(read, id);
+        }
+
+        // Only applies in order if the CREATE queued before it.
+        writeDestroy(read, 0);
+
+        channel.writeInbound(read);
+
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(CAPACITY, engine.getInboundQueue().size());
+
+        frame();
+        assertFalse(channel.config().isAutoRead());
+
+        frame();
+        assertTrue(channel.config().isAutoRead());
+
+        frame();
+        assertEquals(0, engine.getInboundQueue().size());
+        assertEquals(ENTITIES - 1, world.getEntityStore().size());
+        assertEquals(-1, world.getEntityStore().getSlot(0));
+    }
+}
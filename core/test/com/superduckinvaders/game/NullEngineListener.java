@@ -0,0 +1,23 @@
+package com.superduckinvaders.game;
+
+/**
+ * An engine listener that ignores every event, for tests that only look at the world.
+ */
+public final class NullEngineListener implements EngineListener {
+
+    @Override
+    public void waitingForPlayers(int players) {
+    }
+
+    @Override
+    public void started() {
+    }
+
+    @Override
+    public void interfaceUpdated(float health, float flightCharge, float[] powerupCharge) {
+    }
+
+    @Override
+    public void disconnected(String message) {
+    }
+}
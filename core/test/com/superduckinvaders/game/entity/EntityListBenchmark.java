@@ -0,0 +1,291 @@
+package com.superduckinvaders.game.entity;
+
+import com.superduckinvaders.game.World;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Times iterating, adding and replacing entities in an {@link EntityStore}, which keeps the live entities packed
+ * with a sparse table from ID to slot, against the EntityList it replaced: an array indexed by ID whose iterator
+ * copies the live entities with toArray() and whose add() searches for a free ID from the start. Also counts the
+ * bytes each allocates while iterating. Run with the live entity counts as optional arguments.
+ */
+public final class EntityListBenchmark {
+
+    private static final int FRAMES = 1000, ADDS = 2000, REPLACES = 1000000;
+
+    /**
+     * Takes what iterating reads, so that the reads aren't optimised away.
+     */
+    private static volatile double sink;
+
+    /**
+     * An entity as an object holding its own state.
+     */
+    private static final class ObjectEntity {
+
+        private double x, y;
+
+        private ObjectEntity(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * The original EntityList, reduced to the operations the world used: get, set and remove by ID, add at the
+     * first free ID, and iteration over a copy of the live entities.
+     */
+    private static final class OldEntityList implements Iterable<ObjectEntity> {
+
+        private final ObjectEntity[] entities;
+
+        private int size = 0;
+
+        private OldEntityList(int capacity) {
+            entities = new ObjectEntity[capacity];
+        }
+
+        private ObjectEntity[] toArray() {
+            ObjectEntity[] array = new ObjectEntity[size];
+            int index = 0;
+
+            for (ObjectEntity entity : entities) {
+                if (entity != null)
+                    array[index++] = entity;
+
+                if (index == size)
+                    break;
+            }
+
+            return array;
+        }
+
+        private boolean add(ObjectEntity entity) {
+            int id = indexOf(null);
+
+            if (id == -1)
+                return false;
+
+            entities[id] = entity;
+            size++;
+
+            return true;
+        }
+
+        private ObjectEntity set(int index, ObjectEntity element) {
+            ObjectEntity oldValue = entities[index];
+
+            if (element != null && oldValue == null)
+                size++;
+            else if (element == null && oldValue != null)
+                size--;
+
+            entities[index] = element;
+
+            return oldValue;
+        }
+
+        private ObjectEntity remove(int index) {
+            ObjectEntity oldValue = entities[index];
+
+            if (oldValue != null) {
+                entities[index] = null;
+                size--;
+            }
+
+            return oldValue;
+        }
+
+        private int indexOf(Object o) {
+            for (int i = 0; i < entities.length; i++) {
+                if (entities[i] == o)
+                    return i;
+            }
+
+            return -1;
+        }
+
+        @Override
+        public Iterator<ObjectEntity> iterator() {
+            final ObjectEntity[] array = toArray();
+
+            return new Iterator<ObjectEntity>() {
+                private int cursor = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return cursor < array.length;
+                }
+
+                @Override
+                public ObjectEntity next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+
+                    return array[cursor++];
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far, where the JVM counts them.
+     *
+     * @return the bytes allocated, or 0 if not counted
+     */
+    private static long allocated() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return 0;
+
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns live entity IDs spread at random over every possible ID.
+     *
+     * @param live   the number of IDs
+     * @param random the source of randomness
+     * @return the IDs
+     */
+    private static int[] ids(int live, Random random) {
+        Integer[] all = new Integer[World.MAX_ENTITIES];
+
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+
+        Collections.shuffle(Arrays.asList(all), random);
+
+        int[] ids = new int[live];
+
+        for (int i = 0; i < live; i++) {
+            ids[i] = all[i];
+        }
+
+        return ids;
+    }
+
+    private static void run(int live, Random random) {
+        int[] ids = ids(live, random);
+
+        OldEntityList list = new OldEntityList(World.MAX_ENTITIES);
+        EntityStore store = new EntityStore(World.MAX_ENTITIES);
+
+        for (int id : ids) {
+            list.set(id, new ObjectEntity(id, id));
+            store.add(id, id, id, Entity.Direction.DOWN, 0);
+        }
+
+        // Iterating, as World.update and GameScreen.render each did once a frame.
+        double sum = 0;
+        long allocated = allocated(), start = System.nanoTime();
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (ObjectEntity entity : list) {
+                sum += entity.x;
+            }
+        }
+
+        long listTime = System.nanoTime() - start, listBytes = allocated() - allocated;
+
+        allocated = allocated();
+        start = System.nanoTime();
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int slot = 0; slot < store.size(); slot++) {
+                sum += store.getX(slot);
+            }
+        }
+
+        long storeTime = System.nanoTime() - start, storeBytes = allocated() - allocated;
+        sink = sum;
+
+        System.out.printf("%d live: iterate list %.2f us and %d B/frame, store %.2f us and %d B/frame (%.0fx)%n",
+                live, listTime / 1e3 / FRAMES, listBytes / FRAMES, storeTime / 1e3 / FRAMES, storeBytes / FRAMES,
+                (double) listTime / storeTime);
+
+        // Adding at a free ID, which the list finds by searching from the start.
+        int[] added = new int[ADDS];
+        start = System.nanoTime();
+
+        for (int i = 0; i < ADDS; i++) {
+            list.add(new ObjectEntity(i, i));
+        }
+
+        listTime = System.nanoTime() - start;
+
+        for (int i = 0, id = 0; i < ADDS; id++) {
+            if (store.getSlot(id) == -1)
+                added[i++] = id;
+        }
+
+        start = System.nanoTime();
+
+        for (int id : added) {
+            store.add(id, id, id, Entity.Direction.DOWN, 0);
+        }
+
+        storeTime = System.nanoTime() - start;
+
+        System.out.printf("%d live: %d adds list %.0f us, store %.0f us%n", live, ADDS, listTime / 1e3,
+                storeTime / 1e3);
+
+        // Replacing an entity by ID, as a DESTROY followed by a CREATE does.
+        start = System.nanoTime();
+
+        for (int i = 0; i < REPLACES; i++) {
+            int id = ids[i % live];
+
+            list.remove(id);
+            list.set(id, new ObjectEntity(id, id));
+        }
+
+        listTime = System.nanoTime() - start;
+        start = System.nanoTime();
+
+        for (int i = 0; i < REPLACES; i++) {
+            int id = ids[i % live];
+
+            store.remove(id);
+            store.add(id, id, id, Entity.Direction.DOWN, 0);
+        }
+
+        storeTime = System.nanoTime() - start;
+
+        System.out.printf("%d live: remove and add by ID list %.0f ns, store %.0f ns%n", live,
+                (double) listTime / REPLACES, (double) storeTime / REPLACES);
+    }
+
+    public static void main(String[] args) {
+        int[] counts = {100, 2000, 20000};
+
+        if (args.length > 0) {
+            counts = new int[args.length];
+
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Random random = new Random(1);
+
+        for (int round = 0; round < 3; round++) {
+            for (int live : counts) {
+                run(live, random);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.superduckinvaders.game.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times a frame's interpolation and update of 50,000 entities in an {@link EntityStore}, against the same work on one
+ * object per entity as entities were kept before the store. Run with the entity count and number of frames as
+ * optional arguments.
+ */
+public final class EntityStoreBenchmark {
+
+    private static final long FRAME = 16666667, UPDATE = 50000000;
+
+    /**
+     * An entity as an object holding its own state and position history, allocated separately from the others.
+     */
+    private static final class ObjectEntity {
+
+        private static final int ANIM_COOLDOWN = 5;
+
+        private double x, y, oldX, oldY;
+        private float stateTime;
+        private int animCounter = 0;
+
+        private final long[] times = new long[EntityStore.HISTORY];
+        private final double[] xs = new double[EntityStore.HISTORY], ys = new double[EntityStore.HISTORY];
+        private int newest = -1, count = 0;
+
+        private ObjectEntity(double x, double y) {
+            this.x = oldX = x;
+            this.y = oldY = y;
+        }
+
+        private void addPosition(long time, double x, double y) {
+            if (count == 0 || time > times[newest]) {
+                newest = (newest + 1) & (EntityStore.HISTORY - 1);
+
+                if (count < EntityStore.HISTORY)
+                    count++;
+            }
+
+            times[newest] = time;
+            xs[newest] = x;
+            ys[newest] = y;
+        }
+
+        private void interpolate(long time) {
+            if (count == 0)
+                return;
+
+            int later = newest;
+
+            for (int i = 0; i < count; i++) {
+                int index = (newest - i) & (EntityStore.HISTORY - 1);
+
+                if (times[index] <= time) {
+                    if (i == 0) {
+                        x = xs[index];
+                        y = ys[index];
+                    } else {
+                        double alpha = (time - times[index]) / (double) (times[later] - times[index]);
+
+                        x = xs[index] + (xs[later] - xs[index]) * alpha;
+                        y = ys[index] + (ys[later] - ys[index]) * alpha;
+                    }
+
+                    return;
+                }
+
+                later = index;
+            }
+
+            x = xs[later];
+            y = ys[later];
+        }
+
+        private void update(float delta) {
+            if (x != oldX || y != oldY) {
+                animCounter = ANIM_COOLDOWN;
+            } else if (animCounter > 0) {
+                animCounter--;
+            }
+
+            if (animCounter > 0) {
+                stateTime += delta;
+            } else {
+                stateTime = 0;
+            }
+
+            oldX = x;
+            oldY = y;
+        }
+    }
+
+    public static void main(String[] args) {
+        int entities = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+        Random random = new Random(1);
+
+        // Allocate the objects in a random order, between other garbage, as a long session would leave them.
+        Integer[] order = new Integer[entities];
+
+        for (int i = 0; i < entities; i++) {
+            order[i] = i;
+        }
+
+        Collections.shuffle(Arrays.asList(order), random);
+
+        ObjectEntity[] objects = new ObjectEntity[entities];
+        List<byte[]> garbage = new ArrayList<byte[]>();
+
+        for (int id : order) {
+            objects[id] = new ObjectEntity(id, id);
+            garbage.add(new byte[random.nextInt(200)]);
+        }
+
+        EntityStore store = new EntityStore(entities);
+
+        for (int id = 0; id < entities; id++) {
+            store.add(id, id, id, Entity.Direction.DOWN, 0);
+        }
+
+        // Fill every history, with some entities moving and some standing still.
+        for (int i = 0; i < EntityStore.HISTORY; i++) {
+            long time = i * UPDATE;
+
+            for (int id = 0; id < entities; id++) {
+                double x = id + i * (id & 7), y = id - i;
+
+                objects[id].addPosition(time, x, y);
+                store.addPosition(store.getSlot(id), time, x, y);
+            }
+        }
+
+        for (int round = 0; round < 5; round++) {
+            long objectTime = 0, storeTime = 0;
+
+            for (int frame = 0; frame < frames; frame++) {
+                long time = 2 * UPDATE + frame * (EntityStore.HISTORY - 3) * UPDATE / frames;
+
+                long start = System.nanoTime();
+
+                for (ObjectEntity object : objects) {
+                    object.interpolate(time);
+                    object.update(FRAME / 1e9f);
+                }
+
+                long middle = System.nanoTime();
+                store.update(time, FRAME / 1e9f);
+                long end = System.nanoTime();
+
+                objectTime += middle - start;
+                storeTime += end - middle;
+            }
+
+            double difference = 0;
+
+            for (int id = 0; id < entities; id++) {
+                int slot = store.getSlot(id);
+
+                difference += Math.abs(objects[id].x - store.getX(slot)) + Math.abs(objects[id].y - store.getY(slot))
+                        + Math.abs(objects[id].stateTime - store.getStateTime(slot));
+            }
+
+            System.out.printf("%d entities: objects %.0f us/frame, store %.0f us/frame (%.2fx), difference %.3g%n",
+                    entities, objectTime / 1e3 / frames, storeTime / 1e3 / frames, (double) objectTime / storeTime,
+                    difference);
+        }
+
+        // Replace a tenth of the entities each frame.
+        int churn = frames * (entities / 10);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < churn; i++) {
+            int id = random.nextInt(entities);
+
+            store.remove(id);
+            store.add(id, id, id, Entity.Direction.UP, 1);
+        }
+
+        System.out.printf("store remove and add: %.0f ns%n", (System.nanoTime() - start) / (double) churn);
+    }
+}
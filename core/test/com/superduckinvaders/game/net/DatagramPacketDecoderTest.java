@@ -0,0 +1,229 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.metrics.Metrics;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DatagramPacketDecoderTest {
+
+    private static final InetSocketAddress SERVER = new InetSocketAddress("localhost", 5578);
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("localhost", 5579);
+
+    private DatagramPacketDecoder decoder;
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        decoder = new DatagramPacketDecoder(new Metrics());
+        channel = new EmbeddedChannel(decoder);
+    }
+
+    /**
+     * Writes a datagram holding a POSITION packet for an entity at the specified x coordinate.
+     */
+    private static DatagramPacket position(int sequence, int id, double x) {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeInt(sequence);
+        buf.writeByte(InboundPacket.Type.POSITION.getOpcode());
+        buf.writeInt(id);
+        buf.writeDouble(x);
+        buf.writeDouble(0);
+
+        return new DatagramPacket(buf, CLIENT, SERVER);
+    }
+
+    /**
+     * Reads the next decoded POSITION packet.
+     *
+     * @return its x coordinate, or NaN if nothing was decoded
+     */
+    private double readX() {
+        InboundPacket packet = (InboundPacket) channel.readInbound();
+
+        if (packet == null)
+            return Double.NaN;
+
+        assertEquals(InboundPacket.Type.POSITION, packet.getType());
+        assertFalse(packet.isReliable());
+
+        ByteBuf payload = packet.getPayload();
+        payload.readInt();
+        double x = payload.readDouble();
+
+        packet.release();
+
+        return x;
+    }
+
+    @Test
+    public void decodesEveryPacketInDatagram() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeInt(0);
+        buf.writeByte(InboundPacket.Type.INPUT_ACK.getOpcode());
+        buf.writeInt(42);
+        buf.writeByte(InboundPacket.Type.DIRECTION.getOpcode());
+        buf.writeInt(1);
+        buf.writeByte(2);
+
+        channel.writeInbound(new DatagramPacket(buf, CLIENT, SERVER));
+
+        InboundPacket ack = (InboundPacket) channel.readInbound();
+        assertEquals(InboundPacket.Type.INPUT_ACK, ack.getType());
+        assertEquals(42, ack.getPayload().readInt());
+        ack.release();
+
+        InboundPacket direction = (InboundPacket) channel.readInbound();
+        assertEquals(InboundPacket.Type.DIRECTION, direction.getType());
+        direction.release();
+
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void discardsStaleDatagrams() {
+        channel.writeInbound(position(5, 1, 5));
+        channel.writeInbound(position(3, 1, 3));
+        channel.writeInbound(position(5, 1, 5));
+        channel.writeInbound(position(6, 1, 6));
+
+        assertEquals(5, readX(), 0);
+        assertEquals(6, readX(), 0);
+        assertNull(channel.readInbound());
+
+        assertEquals(2, decoder.getReceived());
+        assertEquals(2, decoder.getStale());
+    }
+
+    @Test
+    public void sequenceWrapsAround() {
+        channel.writeInbound(position(Integer.MAX_VALUE, 1, 1));
+        channel.writeInbound(position(Integer.MIN_VALUE, 1, 2));
+        channel.writeInbound(position(Integer.MAX_VALUE - 1, 1, 0));
+        channel.writeInbound(position(Integer.MIN_VALUE + 1, 1, 3));
+
+        assertEquals(1, readX(), 0);
+        assertEquals(2, readX(), 0);
+        assertEquals(3, readX(), 0);
+        assertNull(channel.readInbound());
+
+        assertEquals(1, decoder.getStale());
+    }
+
+    @Test
+    public void rejectsReliableOnlyTypes() {
+        InboundPacket.Type[] reliable = {InboundPacket.Type.CREATE, InboundPacket.Type.DESTROY,
+                InboundPacket.Type.POSITION_DELTA, InboundPacket.Type.TEXTURE, InboundPacket.Type.COMPRESSED,
+                InboundPacket.Type.HANDSHAKE, InboundPacket.Type.LEAVE};
+
+        for (int i = 0; i < reliable.length; i++) {
+            // A packet that is allowed, then one that isn't.
+            DatagramPacket datagram = position(i, 1, i);
+            datagram.content().writeByte(reliable[i].getOpcode());
+            datagram.content().writeZero(reliable[i].isVariable() ? 2 : reliable[i].getSize());
+
+            channel.writeInbound(datagram);
+
+            assertEquals(i, readX(), 0);
+            assertNull(channel.readInbound());
+        }
+
+        assertEquals(reliable.length, decoder.getMalformed());
+    }
+
+    @Test
+    public void countsTruncatedDatagramsAsMalformed() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeShort(0);
+
+        channel.writeInbound(new DatagramPacket(buf, CLIENT, SERVER));
+
+        DatagramPacket datagram = position(0, 1, 0);
+        datagram.content().writerIndex(datagram.content().writerIndex() - 1);
+
+        channel.writeInbound(datagram);
+
+        assertNull(channel.readInbound());
+        assertEquals(2, decoder.getMalformed());
+    }
+
+    /**
+     * Sends a run of datagrams through a link that loses some and delays others past later ones. Only datagrams
+     * newer than any before them may be decoded, and every one that is must be decoded in full.
+     */
+    @Test
+    public void lossyLink() {
+        Random random = new Random(1);
+        List<DatagramPacket> delayed = new ArrayList<DatagramPacket>();
+
+        int sent = 10000, lost = 0, newest = -1, expectedReceived = 0, expectedStale = 0;
+
+        for (int sequence = 0; sequence < sent; sequence++) {
+            DatagramPacket datagram = position(sequence, 1, sequence);
+            float roll = random.nextFloat();
+
+            if (roll < 0.1f) {
+                datagram.release();
+                lost++;
+                continue;
+            }
+
+            if (roll < 0.2f) {
+                delayed.add(datagram);
+                continue;
+            }
+
+            List<DatagramPacket> arriving = new ArrayList<DatagramPacket>();
+            arriving.add(datagram);
+
+            // Delayed datagrams arrive after a later one.
+            if (random.nextBoolean()) {
+                arriving.addAll(delayed);
+                delayed.clear();
+            }
+
+            for (DatagramPacket arrival : arriving) {
+                int number = arrival.content().getInt(0);
+
+                channel.writeInbound(arrival);
+
+                if (number > newest) {
+                    assertEquals(number, readX(), 0);
+                    newest = number;
+                    expectedReceived++;
+                } else {
+                    expectedStale++;
+                }
+
+                assertNull(channel.readInbound());
+            }
+        }
+
+        for (DatagramPacket datagram : delayed) {
+            datagram.release();
+            lost++;
+        }
+
+        assertTrue(lost > 0 && expectedStale > 0);
+        assertEquals(expectedReceived, decoder.getReceived());
+        assertEquals(expectedStale, decoder.getStale());
+        assertEquals(sent, expectedReceived + expectedStale + lost);
+        assertEquals(0, decoder.getMalformed());
+    }
+}
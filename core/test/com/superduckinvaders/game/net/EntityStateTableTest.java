@@ -0,0 +1,65 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EntityStateTableTest {
+
+    private EntityStateTable table;
+
+    @Before
+    public void setUp() {
+        table = new EntityStateTable(1 << 16);
+    }
+
+    private void position(int id, double x, double y, boolean reliable) {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeInt(id);
+        payload.writeDouble(x);
+        payload.writeDouble(y);
+
+        table.decode(InboundPacket.Type.POSITION, payload, 0, reliable);
+    }
+
+    private void delta(int id, int dx, int dy) {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeShort(id);
+        payload.writeShort(dx);
+        payload.writeShort(dy);
+
+        table.decode(InboundPacket.Type.POSITION_DELTA, payload, 0, true);
+    }
+
+    @Test
+    public void deltaIsFromReliablePosition() {
+        position(3, 10, 20, true);
+        delta(3, PositionCodec.SCALE, 0);
+        table.swap();
+
+        assertEquals(11, table.getX(3), 0);
+        assertEquals(20, table.getY(3), 0);
+    }
+
+    /**
+     * The server doesn't move its baseline when it sends a position over UDP, so neither may the client.
+     */
+    @Test
+    public void datagramPositionKeepsBaseline() {
+        position(3, 10, 20, true);
+        position(3, 50, 60, false);
+        table.swap();
+
+        assertEquals(50, table.getX(3), 0);
+
+        delta(3, PositionCodec.SCALE, 0);
+        table.swap();
+
+        assertEquals(11, table.getX(3), 0);
+        assertEquals(20, table.getY(3), 0);
+    }
+}
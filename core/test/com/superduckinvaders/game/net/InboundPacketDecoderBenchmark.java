@@ -0,0 +1,111 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.metrics.Metrics;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.AttributeKey;
+
+import java.util.List;
+
+/**
+ * Times decoding a burst of CREATE packets that arrives in a single read, as when a client joins a busy world, with
+ * {@link InboundPacketDecoder} against a decoder that works as it used to: one packet per call, its state in a channel
+ * attribute and every payload copied. Run with the burst size and number of bursts as optional arguments.
+ */
+public final class InboundPacketDecoderBenchmark {
+
+    /**
+     * Decodes one packet per call, keeping the type between calls in a channel attribute and copying the payload.
+     */
+    private static final class PerPacketDecoder extends ByteToMessageDecoder {
+
+        private static final AttributeKey<InboundPacket.Type> TYPE_KEY = AttributeKey.valueOf("benchmarkType");
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+            InboundPacket.Type type = ctx.channel().attr(TYPE_KEY).get();
+
+            if (type == null && in.readableBytes() >= 1) {
+                type = InboundPacket.Type.forOpcode(in.readByte());
+                ctx.channel().attr(TYPE_KEY).set(type);
+            }
+
+            if (type != null && in.readableBytes() >= type.getSize()) {
+                out.add(new InboundPacket(type, in.readBytes(type.getSize()), System.nanoTime()));
+                ctx.channel().attr(TYPE_KEY).remove();
+            }
+        }
+    }
+
+    /**
+     * Writes a burst of CREATE packets.
+     *
+     * @param count the number of packets
+     * @return the bytes of the burst
+     */
+    private static ByteBuf burst(int count) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer(count * (1 + InboundPacket.Type.CREATE.getSize()));
+
+        for (int id = 0; id < count; id++) {
+            buf.writeByte(InboundPacket.Type.CREATE.getOpcode());
+            buf.writeInt(id);
+            buf.writeDouble(id * 16);
+            buf.writeDouble(id * 8);
+            buf.writeByte(0);
+            buf.writeInt(id % 4);
+        }
+
+        return buf;
+    }
+
+    /**
+     * Feeds the same burst through a decoder repeatedly.
+     *
+     * @param decoder the decoder
+     * @param burst   the burst
+     * @param count   the number of packets in the burst
+     * @param bursts  the number of times to feed it
+     * @return the time taken in nanoseconds
+     */
+    private static long run(ChannelHandler decoder, ByteBuf burst, int count, int bursts) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < bursts; i++) {
+            channel.writeInbound(burst.duplicate().retain());
+
+            for (int j = 0; j < count; j++) {
+                ((InboundPacket) channel.readInbound()).release();
+            }
+        }
+
+        long time = System.nanoTime() - start;
+
+        channel.finish();
+
+        return time;
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int bursts = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        ByteBuf burst = burst(count);
+        long packets = (long) count * bursts;
+
+        for (int round = 0; round < 5; round++) {
+            long perPacket = run(new PerPacketDecoder(), burst, count, bursts);
+            long decoder = run(new InboundPacketDecoder(new Metrics()), burst, count, bursts);
+
+            System.out.printf("%d CREATEs per read: per packet %.1f M packets/s, decoder %.1f M packets/s (%.2fx)%n",
+                    count, packets * 1e3 / perPacket, packets * 1e3 / decoder, (double) perPacket / decoder);
+        }
+
+        burst.release();
+    }
+}
@@ -0,0 +1,155 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.World;
+import com.superduckinvaders.game.metrics.Metrics;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class InboundPacketDecoderTest {
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new InboundPacketDecoder(new Metrics()));
+    }
+
+    private static byte[] destroys(int count) {
+        ByteBuf packets = Unpooled.buffer();
+
+        for (int id = 0; id < count; id++) {
+            packets.writeByte(InboundPacket.Type.DESTROY.getOpcode());
+            packets.writeInt(id);
+        }
+
+        byte[] bytes = new byte[packets.readableBytes()];
+        packets.readBytes(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Writes a COMPRESSED packet holding the specified bytes, claiming they inflate to the specified length.
+     */
+    private static ByteBuf compressed(byte[] bytes, int length) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(bytes);
+        deflater.finish();
+
+        byte[] deflated = new byte[bytes.length + 64];
+        int size = deflater.deflate(deflated);
+        deflater.end();
+
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeByte(InboundPacket.Type.COMPRESSED.getOpcode());
+        packet.writeShort(4 + size);
+        packet.writeInt(length);
+        packet.writeBytes(deflated, 0, size);
+
+        return packet;
+    }
+
+    private void assertCorrupted(ByteBuf packet) {
+        try {
+            channel.writeInbound(packet);
+            fail("decoded a corrupt packet");
+        } catch (CorruptedFrameException e) {
+            // Expected.
+        }
+    }
+
+    private static ByteBuf create(int id) {
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeByte(InboundPacket.Type.CREATE.getOpcode());
+        packet.writeInt(id);
+        packet.writeDouble(0);
+        packet.writeDouble(0);
+        packet.writeByte(0);
+        packet.writeInt(0);
+
+        return packet;
+    }
+
+    @Test
+    public void inflatesPackets() {
+        byte[] bytes = destroys(100);
+
+        channel.writeInbound(compressed(bytes, bytes.length));
+
+        for (int id = 0; id < 100; id++) {
+            InboundPacket packet = (InboundPacket) channel.readInbound();
+
+            assertEquals(InboundPacket.Type.DESTROY, packet.getType());
+            assertEquals(id, packet.getPayload().readInt());
+            packet.release();
+        }
+
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void rejectsLengthAboveMaximum() {
+        assertCorrupted(compressed(destroys(1), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void rejectsNegativeLength() {
+        assertCorrupted(compressed(destroys(1), -1));
+    }
+
+    @Test
+    public void rejectsShortInflation() {
+        byte[] bytes = destroys(10);
+
+        assertCorrupted(compressed(bytes, bytes.length + 1));
+    }
+
+    @Test
+    public void rejectsLongInflation() {
+        byte[] bytes = destroys(10);
+
+        assertCorrupted(compressed(bytes, bytes.length - 5));
+    }
+
+    @Test
+    public void acceptsEntityIdsInRange() {
+        channel.writeInbound(create(0), create(World.MAX_ENTITIES - 1));
+
+        for (int id : new int[]{0, World.MAX_ENTITIES - 1}) {
+            InboundPacket packet = (InboundPacket) channel.readInbound();
+
+            assertEquals(id, packet.getPayload().readInt());
+            packet.release();
+        }
+    }
+
+    @Test
+    public void rejectsEntityIdAboveMaximum() {
+        assertCorrupted(create(World.MAX_ENTITIES));
+    }
+
+    @Test
+    public void rejectsNegativeEntityId() {
+        assertCorrupted(create(-1));
+    }
+
+    @Test
+    public void rejectsEntityIdOutOfRangeInsideCompressedPacket() {
+        ByteBuf packet = create(World.MAX_ENTITIES);
+        byte[] bytes = new byte[packet.readableBytes()];
+        packet.readBytes(bytes);
+
+        assertCorrupted(compressed(bytes, bytes.length));
+    }
+}
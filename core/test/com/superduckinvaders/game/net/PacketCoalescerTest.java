@@ -0,0 +1,204 @@
+package com.superduckinvaders.game.net;
+
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import com.superduckinvaders.game.net.packets.Snapshot;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PacketCoalescerTest {
+
+    private RingBuffer<InboundPacket> queue;
+    private PacketCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        queue = new RingBuffer<InboundPacket>(64);
+        coalescer = new PacketCoalescer(queue.capacity(), 1 << 16);
+    }
+
+    private static InboundPacket position(int id, double x, double y) {
+        return position(id, x, y, true);
+    }
+
+    private static InboundPacket datagramPosition(int id, double x, double y) {
+        return position(id, x, y, false);
+    }
+
+    private static InboundPacket position(int id, double x, double y, boolean reliable) {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeInt(id);
+        payload.writeDouble(x);
+        payload.writeDouble(y);
+
+        return new InboundPacket(InboundPacket.Type.POSITION, payload, 0, reliable);
+    }
+
+    private static InboundPacket delta(int id, int dx, int dy) {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeShort(id);
+        payload.writeShort(dx);
+        payload.writeShort(dy);
+
+        return new InboundPacket(InboundPacket.Type.POSITION_DELTA, payload, 0);
+    }
+
+    private static InboundPacket direction(int id, int direction) {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeInt(id);
+        payload.writeByte(direction);
+
+        return new InboundPacket(InboundPacket.Type.DIRECTION, payload, 0);
+    }
+
+    private static InboundPacket destroy(int id) {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeInt(id);
+
+        return new InboundPacket(InboundPacket.Type.DESTROY, payload, 0);
+    }
+
+    /**
+     * Creates a SNAPSHOT with a position entry for each ID, in whichever encoding the flag says.
+     */
+    private static InboundPacket snapshot(boolean quantized, boolean reliable, int... ids) {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeInt(1);
+        payload.writeShort(ids.length);
+
+        for (int id : ids) {
+            payload.writeShort(id);
+            payload.writeByte(Snapshot.POSITION);
+
+            if (quantized) {
+                payload.writeShort(1);
+                payload.writeShort(1);
+            } else {
+                payload.writeFloat(1);
+                payload.writeFloat(1);
+            }
+        }
+
+        return new InboundPacket(InboundPacket.Type.SNAPSHOT, payload, 0, reliable);
+    }
+
+    private int coalesce(boolean quantized, InboundPacket... packets) {
+        for (InboundPacket packet : packets) {
+            queue.offer(packet);
+        }
+
+        return coalescer.coalesce(queue, quantized);
+    }
+
+    @Test
+    public void keepsOnlyLatestPosition() {
+        InboundPacket latest = position(3, 2, 2);
+
+        assertEquals(1, coalesce(false, position(3, 1, 1), latest));
+        assertSame(latest, coalescer.get(0));
+    }
+
+    @Test
+    public void keepsUpdatesToOtherEntitiesAndFields() {
+        assertEquals(3, coalesce(false, position(3, 1, 1), position(4, 1, 1), direction(3, 1)));
+    }
+
+    @Test
+    public void dropsUpdatesBeforeDestroy() {
+        InboundPacket destroy = destroy(3);
+
+        assertEquals(1, coalesce(false, position(3, 1, 1), direction(3, 1), delta(3, 1, 1), destroy));
+        assertSame(destroy, coalescer.get(0));
+    }
+
+    @Test
+    public void keepsEveryDelta() {
+        assertEquals(3, coalesce(true, position(3, 1, 1), delta(3, 1, 1), delta(3, 1, 1)));
+    }
+
+    @Test
+    public void dropsDeltaBeforeAbsolutePosition() {
+        InboundPacket latest = position(3, 2, 2);
+
+        assertEquals(1, coalesce(true, delta(3, 1, 1), latest));
+        assertSame(latest, coalescer.get(0));
+    }
+
+    /**
+     * A position over UDP doesn't move the baseline, so the reliable one before it is still needed by later deltas.
+     */
+    @Test
+    public void keepsBaselineBeforeDatagramPosition() {
+        InboundPacket baseline = position(3, 1, 1);
+
+        assertEquals(3, coalesce(true, baseline, datagramPosition(3, 2, 2), delta(3, 1, 1)));
+        assertSame(baseline, coalescer.get(0));
+    }
+
+    @Test
+    public void keepsDeltaBeforeDatagramPosition() {
+        InboundPacket delta = delta(3, 1, 1);
+
+        assertEquals(3, coalesce(true, position(3, 1, 1), delta, datagramPosition(3, 2, 2)));
+        assertSame(delta, coalescer.get(1));
+    }
+
+    @Test
+    public void dropsDatagramPositionBeforeReliablePosition() {
+        InboundPacket latest = position(3, 2, 2);
+
+        assertEquals(1, coalesce(true, datagramPosition(3, 1, 1), latest));
+        assertSame(latest, coalescer.get(0));
+    }
+
+    /**
+     * The ID of a delta is 16 bits, so reading 32 took dx as part of it: here entity 0's delta was taken for entity
+     * 7's, and dropped as superseded by its POSITION.
+     */
+    @Test
+    public void deltaIdIsSixteenBits() {
+        InboundPacket delta = delta(0, 7, 0);
+
+        assertEquals(2, coalesce(true, delta, position(7, 1, 1)));
+        assertSame(delta, coalescer.get(0));
+    }
+
+    @Test
+    public void keepsBaselineOfQuantizedSnapshot() {
+        InboundPacket baseline = position(3, 1, 1);
+
+        assertEquals(3, coalesce(true, baseline, snapshot(true, true, 3), position(3, 2, 2)));
+        assertSame(baseline, coalescer.get(0));
+    }
+
+    @Test
+    public void dropsPositionBeforeUnquantizedSnapshot() {
+        assertEquals(2, coalesce(false, position(3, 1, 1), snapshot(false, true, 3), position(3, 2, 2)));
+    }
+
+    @Test
+    public void dropsPositionBeforeDatagramSnapshot() {
+        // Snapshots over UDP carry absolute positions even when quantized positions were negotiated.
+        assertEquals(2, coalesce(true, position(3, 1, 1), snapshot(false, false, 3), position(3, 2, 2)));
+    }
+
+    @Test
+    public void snapshotOnlyKeepsBaselinesOfItsEntities() {
+        assertEquals(2, coalesce(true, position(4, 1, 1), snapshot(true, true, 3), position(4, 2, 2)));
+    }
+
+    @Test
+    public void coalescesCarriedOverPackets() {
+        assertEquals(1, coalesce(false, position(3, 1, 1)));
+        assertEquals(1, coalescer.carryOver(new boolean[1]));
+
+        InboundPacket latest = position(3, 2, 2);
+
+        assertEquals(1, coalesce(false, latest));
+        assertSame(latest, coalescer.get(0));
+    }
+}
@@ -0,0 +1,90 @@
+package com.superduckinvaders.game.net;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PositionCodecTest {
+
+    /**
+     * The most a coordinate can move by being quantized.
+     */
+    private static final double PRECISION = 0.5 / PositionCodec.SCALE;
+
+    @Test
+    public void quantizeRoundTripsWithinHalfAUnit() {
+        Random random = new Random(1);
+
+        for (int i = 0; i < 100000; i++) {
+            double coordinate = random.nextDouble() * 8192 - 4096;
+
+            assertEquals(coordinate, PositionCodec.dequantize(PositionCodec.quantize(coordinate)), PRECISION);
+        }
+    }
+
+    @Test
+    public void quantizeIsExactOnGrid() {
+        for (int units = -100000; units <= 100000; units += 7) {
+            assertEquals(units, PositionCodec.quantize(PositionCodec.dequantize(units)));
+        }
+    }
+
+    @Test
+    public void fitsDeltaIsSixteenBits() {
+        assertTrue(PositionCodec.fitsDelta(Short.MAX_VALUE));
+        assertTrue(PositionCodec.fitsDelta(Short.MIN_VALUE));
+        assertFalse(PositionCodec.fitsDelta(Short.MAX_VALUE + 1));
+        assertFalse(PositionCodec.fitsDelta(Short.MIN_VALUE - 1));
+    }
+
+    @Test
+    public void setResetsBaseline() {
+        PositionCodec codec = new PositionCodec(4);
+
+        codec.set(2, 100.25, 200.5);
+        codec.add(2, 5, -5);
+        codec.set(2, 10, 20);
+
+        assertEquals(10, codec.getX(2), 0);
+        assertEquals(20, codec.getY(2), 0);
+        assertEquals(PositionCodec.quantize(10), codec.getQuantizedX(2));
+        assertEquals(PositionCodec.quantize(20), codec.getQuantizedY(2));
+    }
+
+    /**
+     * Deltas are taken between quantized positions, so a receiver applying them tracks the sender exactly however
+     * long the walk, rather than accumulating rounding error.
+     */
+    @Test
+    public void deltasTrackSenderWithoutDrift() {
+        PositionCodec sender = new PositionCodec(1), receiver = new PositionCodec(1);
+        Random random = new Random(2);
+        double x = 1000, y = 1000;
+
+        sender.set(0, x, y);
+        receiver.set(0, x, y);
+
+        for (int i = 0; i < 100000; i++) {
+            x += random.nextGaussian() * 3;
+            y += random.nextGaussian() * 3;
+
+            int dx = PositionCodec.quantize(x) - sender.getQuantizedX(0);
+            int dy = PositionCodec.quantize(y) - sender.getQuantizedY(0);
+
+            assertTrue(PositionCodec.fitsDelta(dx) && PositionCodec.fitsDelta(dy));
+
+            sender.add(0, dx, dy);
+            receiver.add(0, (short) dx, (short) dy);
+
+            assertEquals(x, receiver.getX(0), PRECISION);
+            assertEquals(y, receiver.getY(0), PRECISION);
+        }
+
+        assertEquals(sender.getQuantizedX(0), receiver.getQuantizedX(0));
+        assertEquals(sender.getQuantizedY(0), receiver.getQuantizedY(0));
+    }
+}
@@ -0,0 +1,121 @@
+package com.superduckinvaders.game.net;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Times passing elements from one thread to another through a {@link RingBuffer}, against the
+ * {@link ConcurrentLinkedQueue} the engine's queues used to be, counting the garbage collections each causes. Run
+ * with the number of elements and the ring buffer capacity as optional arguments.
+ */
+public final class RingBufferBenchmark {
+
+    /**
+     * The two ends of a queue.
+     */
+    private interface Queue {
+        boolean offer(Object element);
+
+        Object poll();
+    }
+
+    private static long collections() {
+        long count = 0;
+
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += bean.getCollectionCount();
+        }
+
+        return count;
+    }
+
+    /**
+     * Passes every element through a queue, with the producer waiting while the queue is full and the consumer while
+     * it is empty.
+     *
+     * @param queue    the queue
+     * @param elements the elements to pass
+     * @return the time taken in nanoseconds
+     */
+    private static long run(final Queue queue, final Object[] elements) throws InterruptedException {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Object element : elements) {
+                    while (!queue.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+
+        long start = System.nanoTime();
+        producer.start();
+
+        for (int i = 0; i < elements.length; ) {
+            if (queue.poll() != null) {
+                i++;
+            } else {
+                Thread.yield();
+            }
+        }
+
+        long time = System.nanoTime() - start;
+        producer.join();
+
+        return time;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+
+        Object[] elements = new Object[count];
+
+        for (int i = 0; i < count; i++) {
+            elements[i] = i;
+        }
+
+        final RingBuffer<Object> ring = new RingBuffer<Object>(capacity);
+        final ConcurrentLinkedQueue<Object> linked = new ConcurrentLinkedQueue<Object>();
+
+        Queue ringQueue = new Queue() {
+            @Override
+            public boolean offer(Object element) {
+                return ring.offer(element);
+            }
+
+            @Override
+            public Object poll() {
+                return ring.poll();
+            }
+        };
+
+        Queue linkedQueue = new Queue() {
+            @Override
+            public boolean offer(Object element) {
+                return linked.offer(element);
+            }
+
+            @Override
+            public Object poll() {
+                return linked.poll();
+            }
+        };
+
+        for (int round = 0; round < 5; round++) {
+            long collections = collections();
+            long linkedTime = run(linkedQueue, elements);
+            long linkedCollections = collections() - collections;
+
+            collections = collections();
+            long ringTime = run(ringQueue, elements);
+            long ringCollections = collections() - collections;
+
+            System.out.printf("%d elements: linked queue %.1f M/s, %d GCs; ring buffer %.1f M/s, %d GCs (%.2fx)%n",
+                    count, count * 1e3 / linkedTime, linkedCollections, count * 1e3 / ringTime, ringCollections,
+                    (double) linkedTime / ringTime);
+        }
+    }
+}
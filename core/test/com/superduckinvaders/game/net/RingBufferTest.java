@@ -0,0 +1,124 @@
+package com.superduckinvaders.game.net;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest {
+
+    private static final int COUNT = 1000000;
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(8, new RingBuffer<Integer>(5).capacity());
+        assertEquals(8, new RingBuffer<Integer>(8).capacity());
+        assertEquals(1, new RingBuffer<Integer>(1).capacity());
+    }
+
+    @Test
+    public void refusesOfferWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+
+        assertFalse(buffer.offer(4));
+        assertEquals(1, buffer.getOverflows());
+        assertEquals(4, buffer.getHighWaterMark());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, (int) buffer.poll());
+        }
+
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    /**
+     * The producer drops the oldest element whenever the buffer is full, racing the consumer for it. Every element
+     * must end up either consumed or dropped, exactly once, and the consumer must see them in order.
+     */
+    @Test(timeout = 60000)
+    public void dropOldestRacesConsumer() throws InterruptedException {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(16);
+        final Integer[] values = new Integer[COUNT];
+        final int[] dropped = new int[COUNT], consumed = new int[COUNT];
+        final AtomicBoolean done = new AtomicBoolean();
+        final boolean[] ordered = {true};
+        final Throwable[] failure = new Throwable[1];
+
+        for (int i = 0; i < COUNT; i++) {
+            values[i] = i;
+        }
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Integer value : values) {
+                    while (!buffer.offer(value)) {
+                        Integer oldest = buffer.poll();
+
+                        if (oldest != null)
+                            dropped[oldest]++;
+                    }
+                }
+
+                done.set(true);
+            }
+        });
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int last = -1;
+
+                while (true) {
+                    // Once the producer has finished, an empty buffer stays empty.
+                    boolean finished = done.get();
+                    Integer value = buffer.poll();
+
+                    if (value == null) {
+                        if (finished)
+                            return;
+
+                        continue;
+                    }
+
+                    if (value <= last)
+                        ordered[0] = false;
+
+                    consumed[value]++;
+                    last = value;
+                }
+            }
+        });
+
+        Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                failure[0] = e;
+            }
+        };
+
+        producer.setUncaughtExceptionHandler(handler);
+        consumer.setUncaughtExceptionHandler(handler);
+
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+
+        assertNull(failure[0]);
+        assertTrue("consumed out of order", ordered[0]);
+
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals("element " + i, 1, dropped[i] + consumed[i]);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.superduckinvaders.game.desktop;
+
+import com.superduckinvaders.game.EngineConfiguration;
+import com.superduckinvaders.game.bot.Bot;
+import com.superduckinvaders.game.metrics.Histogram;
+import com.superduckinvaders.game.metrics.HistogramWindow;
+import com.superduckinvaders.game.net.Transport;
+import io.netty.channel.EventLoopGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless launcher that runs many bots in one JVM, for stressing a server. The bots share one event loop group,
+ * and are split between a few update threads that each run a frame loop for their share. Every few seconds it
+ * prints each bot's input round trip time and update lag, summarised over all bots along with the worst few, the
+ * time to first frame and error in predicting each bot's player over all bots, and the ping round trip time over all
+ * bots if they synchronise their clocks.
+ * <p>
+ * Run with the host and port of the server and options such as {@code --bots=200 --threads=2}.
+ */
+public class BotLauncher {
+
+    /**
+     * How many of the worst bots to list in each report.
+     */
+    private static final int WORST_BOTS = 3;
+
+    private final Bot[] bots;
+
+    /**
+     * The number of bots connected so far, which are the first ones.
+     */
+    private volatile int connected = 0;
+
+    private volatile boolean running = true;
+
+    /**
+     * Windows over each bot's input round trip times, update lags, prediction errors and ping round trip times, and
+     * the windows of every bot combined.
+     */
+    private final HistogramWindow[] roundTrips, lags, errors, pings;
+    private final long[] roundTripTotal = new long[Histogram.BUCKETS], lagTotal = new long[Histogram.BUCKETS];
+    private final long[] errorTotal = new long[Histogram.BUCKETS], pingTotal = new long[Histogram.BUCKETS];
+
+    /**
+     * Each bot's worst round trip in the last report, and its index, for finding the worst bots.
+     */
+    private final long[] worst;
+
+    /**
+     * The time to first frame of each bot that has had one, for the median.
+     */
+    private final long[] firstFrames;
+
+    private BotLauncher(Bot[] bots) {
+        this.bots = bots;
+
+        roundTrips = new HistogramWindow[bots.length];
+        lags = new HistogramWindow[bots.length];
+        errors = new HistogramWindow[bots.length];
+        pings = new HistogramWindow[bots.length];
+        worst = new long[bots.length];
+        firstFrames = new long[bots.length];
+
+        for (int i = 0; i < bots.length; i++) {
+            roundTrips[i] = new HistogramWindow(bots[i].getEngine().getMetrics().getInputRoundTripTime());
+            lags[i] = new HistogramWindow(bots[i].getEngine().getMetrics().getUpdateLag());
+            errors[i] = new HistogramWindow(bots[i].getEngine().getMetrics().getPredictionError());
+            pings[i] = new HistogramWindow(bots[i].getEngine().getMetrics().getPingRoundTripTime());
+        }
+    }
+
+    /**
+     * Starts a thread that updates every bot whose index is the specified remainder modulo the number of threads.
+     *
+     * @param thread    the number of the thread
+     * @param threads   the number of update threads
+     * @param frameRate the number of frames per second
+     * @return the thread
+     */
+    private Thread startUpdater(final int thread, final int threads, final int frameRate) {
+        Thread updater = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long frameLength = 1000000000L / frameRate;
+                long lastFrame = System.nanoTime(), nextFrame = lastFrame;
+
+                while (running) {
+                    long now = System.nanoTime();
+                    float delta = (now - lastFrame) / 1e9f;
+                    lastFrame = now;
+
+                    for (int i = thread; i < connected; i += threads) {
+                        bots[i].update(delta);
+                    }
+
+                    // Falling behind skips frames rather than running a burst of them.
+                    nextFrame = Math.max(nextFrame + frameLength, System.nanoTime());
+
+                    long wait;
+
+                    while ((wait = nextFrame - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+            }
+        }, "bots-" + thread);
+
+        updater.start();
+
+        return updater;
+    }
+
+    /**
+     * Connects every bot, a few milliseconds apart so the server isn't hit by every handshake at once. The update
+     * threads pick each bot up as it connects, as bots that aren't updated stop their event loop once their queue
+     * fills.
+     *
+     * @param stagger the time between connecting each bot, in milliseconds
+     */
+    private void connect(int stagger) {
+        for (int i = 0; i < bots.length; i++) {
+            bots[i].connect();
+            connected = i + 1;
+
+            if (stagger > 0)
+                LockSupport.parkNanos(stagger * 1000000L);
+        }
+    }
+
+    /**
+     * Prints the round trip times and update lags since the last report, over all bots and for the worst few, and the
+     * prediction errors and ping round trip times over all bots. Also prints the time to first frame over every bot
+     * that has had one.
+     */
+    private void report() {
+        int started = 0, disconnected = 0, framed = 0, connected = this.connected;
+        long errorCount = 0;
+
+        Arrays.fill(roundTripTotal, 0);
+        Arrays.fill(lagTotal, 0);
+        Arrays.fill(errorTotal, 0);
+        Arrays.fill(pingTotal, 0);
+
+        for (int i = 0; i < bots.length; i++) {
+            if (bots[i].isStarted())
+                started++;
+
+            if (bots[i].getDisconnectMessage() != null)
+                disconnected++;
+
+            long firstFrame = bots[i].getEngine().getTimeToFirstFrame();
+
+            if (firstFrame != -1)
+                firstFrames[framed++] = firstFrame;
+
+            roundTrips[i].update();
+            lags[i].update();
+            roundTrips[i].addTo(roundTripTotal);
+            lags[i].addTo(lagTotal);
+            errors[i].update();
+            errors[i].addTo(errorTotal);
+            errorCount += errors[i].getCount();
+            pings[i].update();
+            pings[i].addTo(pingTotal);
+
+            // Sorts by the worst round trip, keeping the bot's index in the low bits.
+            worst[i] = roundTrips[i].percentile(0.99) << 20 | i;
+        }
+
+        System.out.printf("bots %d connecting, %d started, %d disconnected; rtt p50 %.1f p99 %.1f ms; "
+                        + "lag p50 %.1f p99 %.1f ms%n", connected - started - disconnected, started, disconnected,
+                Histogram.percentile(roundTripTotal, 0.5) / 1e6, Histogram.percentile(roundTripTotal, 0.99) / 1e6,
+                Histogram.percentile(lagTotal, 0.5) / 1e6, Histogram.percentile(lagTotal, 0.99) / 1e6);
+
+        if (framed > 0) {
+            Arrays.sort(firstFrames, 0, framed);
+            System.out.printf("  time to first frame p50 %.1f max %.1f ms%n", firstFrames[framed / 2] / 1e6,
+                    firstFrames[framed - 1] / 1e6);
+        }
+
+        // Errors are in hundredths of a pixel, and only recorded against a server that acknowledges input.
+        if (errorCount > 0)
+            System.out.printf("  prediction error p50 %.2f p99 %.2f max %.2f px%n",
+                    Histogram.percentile(errorTotal, 0.5) / 100.0, Histogram.percentile(errorTotal, 0.99) / 100.0,
+                    Histogram.percentile(errorTotal, 1) / 100.0);
+
+        // Only bots run with --clock-sync ping.
+        if (Histogram.percentile(pingTotal, 1) > 0)
+            System.out.printf("  ping p50 %.1f p99 %.1f ms%n", Histogram.percentile(pingTotal, 0.5) / 1e6,
+                    Histogram.percentile(pingTotal, 0.99) / 1e6);
+
+        Arrays.sort(worst);
+
+        for (int i = bots.length - 1; i >= Math.max(0, bots.length - WORST_BOTS); i--) {
+            int bot = (int) (worst[i] & ((1 << 20) - 1));
+
+            System.out.printf("  bot %d: rtt p99 %.1f ms, lag p99 %.1f ms%s%n", bots[bot].getNumber(),
+                    roundTrips[bot].percentile(0.99) / 1e6, lags[bot].percentile(0.99) / 1e6,
+                    bots[bot].getDisconnectMessage() == null ? "" : ", " + bots[bot].getDisconnectMessage());
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        EngineConfiguration engineConfig = new EngineConfiguration();
+        List<String> positional = new ArrayList<String>();
+
+        int bots = 100, threads = 2, updateThreads = 1, frameRate = 60, statsInterval = 5, stagger = 10;
+        long duration = 0;
+
+        // Bots sequence their input so that its round trip can be timed.
+        engineConfig.clientPrediction = true;
+
+        // Options are --name=value or --name, anything else is the host and port.
+        for (String arg : args) {
+            if (arg.startsWith("--bots=")) {
+                bots = Integer.parseInt(arg.substring("--bots=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--update-threads=")) {
+                updateThreads = Integer.parseInt(arg.substring("--update-threads=".length()));
+            } else if (arg.startsWith("--frame-rate=")) {
+                frameRate = Integer.parseInt(arg.substring("--frame-rate=".length()));
+            } else if (arg.startsWith("--stats-interval=")) {
+                statsInterval = Integer.parseInt(arg.substring("--stats-interval=".length()));
+            } else if (arg.startsWith("--stagger=")) {
+                stagger = Integer.parseInt(arg.substring("--stagger=".length()));
+            } else if (arg.startsWith("--duration=")) {
+                // Seconds, or 0 to run until killed.
+                duration = Long.parseLong(arg.substring("--duration=".length()));
+            } else if (arg.equals("--quantized")) {
+                engineConfig.quantizedPositions = true;
+            } else if (arg.equals("--compression")) {
+                engineConfig.compression = true;
+            } else if (arg.equals("--datagrams")) {
+                engineConfig.datagrams = true;
+            } else if (arg.equals("--resume")) {
+                engineConfig.sessionResume = true;
+            } else if (arg.equals("--clock-sync")) {
+                engineConfig.clockSync = true;
+            } else if (arg.equals("--area-of-interest")) {
+                engineConfig.areaOfInterest = true;
+            } else if (arg.equals("--direct-state")) {
+                engineConfig.directState = true;
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (positional.isEmpty()) {
+            System.err.println("no hostname specified");
+            System.exit(1);
+        }
+
+        String inetHost = positional.get(0);
+        int inetPort = positional.size() >= 2 ? Integer.parseInt(positional.get(1)) : 5577;
+
+        Transport transport = Transport.select(engineConfig.nativeTransport);
+        EventLoopGroup workerGroup = transport.newEventLoopGroup(threads);
+
+        Bot[] all = new Bot[bots];
+
+        for (int i = 0; i < bots; i++) {
+            all[i] = new Bot(i, inetHost, inetPort, engineConfig, workerGroup);
+        }
+
+        BotLauncher launcher = new BotLauncher(all);
+        Thread[] updaters = new Thread[updateThreads];
+
+        for (int i = 0; i < updateThreads; i++) {
+            updaters[i] = launcher.startUpdater(i, updateThreads, frameRate);
+        }
+
+        System.out.println("connecting " + bots + " bots to " + inetHost + ":" + inetPort + " using " + transport
+                + " with " + threads + " event loop threads and " + updateThreads + " update threads");
+
+        long start = System.nanoTime();
+
+        launcher.connect(stagger);
+
+        long end = duration > 0 ? start + duration * 1000000000L : Long.MAX_VALUE;
+        long nextStats = start + statsInterval * 1000000000L;
+
+        while (System.nanoTime() - end < 0) {
+            long wait = Math.min(nextStats, end) - System.nanoTime();
+
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else if (System.nanoTime() - nextStats >= 0) {
+                nextStats += statsInterval * 1000000000L;
+                launcher.report();
+            }
+        }
+
+        launcher.running = false;
+
+        for (Thread updater : updaters) {
+            updater.join();
+        }
+
+        for (Bot bot : all) {
+            bot.dispose();
+        }
+
+        workerGroup.shutdownGracefully();
+    }
+}
@@ -6,8 +6,12 @@ package com.superduckinvaders.game.desktop;
 
 import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
+import com.superduckinvaders.game.EngineConfiguration;
 import com.superduckinvaders.game.SuperDuckInvaders;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Desktop launcher for Super Duck Invaders.
  */
@@ -20,17 +24,44 @@ public class DesktopLauncher {
     public static final String GAME_TITLE = "SDI Multiplayer Alpha";
 
     public static void main(String[] args) {
+        EngineConfiguration engineConfig = new EngineConfiguration();
+        List<String> positional = new ArrayList<String>();
+
+        // Options are --name=value or --name, anything else is the host and port.
+        for (String arg : args) {
+            if (arg.startsWith("--record=")) {
+                engineConfig.recordFile = arg.substring("--record=".length());
+            } else if (arg.startsWith("--replay=")) {
+                engineConfig.replayFile = arg.substring("--replay=".length());
+            } else if (arg.startsWith("--replay-speed=")) {
+                // 0 replays as fast as possible.
+                engineConfig.replaySpeed = Float.parseFloat(arg.substring("--replay-speed=".length()));
+            } else if (arg.equals("--clock-sync")) {
+                engineConfig.clockSync = true;
+            } else if (arg.equals("--area-of-interest")) {
+                engineConfig.areaOfInterest = true;
+            } else if (arg.equals("--direct-state")) {
+                engineConfig.directState = true;
+            } else {
+                positional.add(arg);
+            }
+        }
+
         String inetHost;
         int inetPort;
 
-        if (args.length >= 1) {
-            inetHost = args[0];
+        if (positional.size() >= 1) {
+            inetHost = positional.get(0);
 
-            if (args.length >= 2) {
-                inetPort = Integer.parseInt(args[1]);
+            if (positional.size() >= 2) {
+                inetPort = Integer.parseInt(positional.get(1));
             } else {
                 inetPort = 5577;
             }
+        } else if (engineConfig.replayFile != null) {
+            // Replaying doesn't connect anywhere.
+            inetHost = "localhost";
+            inetPort = 5577;
         } else {
             System.err.println("no hostname specified");
             System.exit(1);
@@ -45,6 +76,6 @@ public class DesktopLauncher {
         config.height = GAME_HEIGHT;
         config.title = GAME_TITLE;
 
-        new LwjglApplication(new SuperDuckInvaders(inetHost, inetPort), config);
+        new LwjglApplication(new SuperDuckInvaders(inetHost, inetPort, engineConfig), config);
     }
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.superduckinvaders.server;
+
+import com.superduckinvaders.game.net.Capabilities;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles the packets from one client connection, passing its input to its session.
+ * <p>
+ * A client that offers no capabilities sends no handshake, so the client joins when the handshake arrives or after
+ * a short wait for one. A client that can resume sessions sends RESUME straight after the handshake if it has a
+ * session to resume, so joining waits for that too.
+ */
+final class ClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+    /**
+     * How long to wait for a HANDSHAKE or RESUME before joining, in milliseconds.
+     */
+    private static final int JOIN_DELAY = 1000;
+
+    private final LoadServer server;
+
+    /**
+     * The protocol features negotiated on this connection.
+     */
+    private int capabilities = 0;
+
+    /**
+     * The session of this connection, or null until the client has joined.
+     */
+    private Session session;
+
+    private ScheduledFuture<?> joinTimer;
+
+    ClientHandler(LoadServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        joinTimer = ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                join(ctx);
+            }
+        }, JOIN_DELAY, TimeUnit.MILLISECONDS);
+
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+        int opcode = msg.readUnsignedByte();
+
+        switch (opcode) {
+            case ClientPacketDecoder.HANDSHAKE:
+                // A handshake that arrives after the join timer is too late to change how the session is encoded.
+                capabilities = session != null ? session.getCapabilities()
+                        : msg.readInt() & server.getConfiguration().capabilities;
+
+                ByteBuf reply = ctx.alloc().buffer(7);
+                reply.writeByte(InboundPacket.Type.HANDSHAKE.getOpcode());
+                reply.writeInt(capabilities);
+                reply.writeShort(server.getConfiguration().tickRate);
+                server.send(ctx.channel(), reply);
+
+                // Otherwise wait in case a RESUME follows.
+                if (!Capabilities.has(capabilities, Capabilities.SESSION_RESUME))
+                    join(ctx);
+                break;
+            case ClientPacketDecoder.RESUME:
+                long token = msg.readLong();
+
+                if (session == null) {
+                    joinTimer.cancel(false);
+                    session = server.resume(ctx.channel(), capabilities, token);
+                }
+                break;
+            case ClientPacketDecoder.MOVEMENT:
+                if (session != null)
+                    session.receiveMovement(msg.readUnsignedByte());
+                break;
+            case ClientPacketDecoder.ATTACK:
+                if (session != null)
+                    session.receiveAttack(msg.readDouble(), msg.readDouble());
+                break;
+            case ClientPacketDecoder.FLY:
+                if (session != null)
+                    session.fly(server.getWorld());
+                break;
+            case ClientPacketDecoder.INPUT:
+                if (session != null)
+                    session.receiveInputs(msg);
+                break;
+            case ClientPacketDecoder.VIEWPORT:
+                if (session != null)
+                    session.receiveViewport(msg);
+                break;
+            case ClientPacketDecoder.PING:
+                long received = server.getTime();
+
+                if (!Capabilities.has(capabilities, Capabilities.CLOCK_SYNC))
+                    break;
+
+                // Sent straight away rather than with the next tick, so the server holds it as little as possible.
+                ByteBuf pong = ctx.alloc().buffer(25);
+                pong.writeByte(InboundPacket.Type.PONG.getOpcode());
+                pong.writeLong(msg.readLong());
+                pong.writeLong(received);
+                pong.writeLong(server.getTime());
+                server.send(ctx.channel(), pong);
+                break;
+        }
+    }
+
+    private void join(ChannelHandlerContext ctx) {
+        if (session != null || !ctx.channel().isActive())
+            return;
+
+        joinTimer.cancel(false);
+        session = server.join(ctx.channel(), capabilities);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (joinTimer != null)
+            joinTimer.cancel(false);
+
+        if (session != null)
+            server.detach(session, ctx.channel());
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        System.err.println(ctx.channel().remoteAddress() + ": " + cause);
+        ctx.close();
+    }
+}
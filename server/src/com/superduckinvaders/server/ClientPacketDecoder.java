@@ -0,0 +1,79 @@
+package com.superduckinvaders.server;
+
+import com.superduckinvaders.game.net.packets.InputOutboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.List;
+
+/**
+ * Splits the stream from a client into packets. Each packet is passed on as a slice starting with its opcode.
+ */
+final class ClientPacketDecoder extends ByteToMessageDecoder {
+
+    /**
+     * Opcodes of the packets clients send.
+     */
+    static final int MOVEMENT = 1, ATTACK = 2, FLY = 3, HANDSHAKE = 4, INPUT = 5, RESUME = 6, PING = 7,
+            VIEWPORT = 8;
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        while (in.isReadable()) {
+            int length = getLength(in, in.readerIndex());
+
+            if (length == -1 || in.readableBytes() < length)
+                return;
+
+            out.add(in.readSlice(length).retain());
+        }
+    }
+
+    /**
+     * Returns the length of the packet starting at the specified index, including its opcode.
+     *
+     * @param in    the buffer
+     * @param start the index of the opcode
+     * @return the length of the packet, or -1 if not enough has arrived to tell
+     */
+    private static int getLength(ByteBuf in, int start) {
+        int opcode = in.getUnsignedByte(start);
+
+        switch (opcode) {
+            case MOVEMENT:
+                return 2;
+            case ATTACK:
+                return 17;
+            case FLY:
+                return 1;
+            case HANDSHAKE:
+                return 5;
+            case RESUME:
+                return 13;
+            case PING:
+                return 9;
+            case VIEWPORT:
+                return 21;
+            case INPUT:
+                // The length depends on which inputs are attacks, so walk the inputs as far as they've arrived.
+                if (in.writerIndex() < start + 2)
+                    return -1;
+
+                int count = in.getUnsignedByte(start + 1);
+                int index = start + 2;
+
+                for (int i = 0; i < count; i++) {
+                    if (in.writerIndex() < index + 5)
+                        return -1;
+
+                    index += (in.getUnsignedByte(index + 4) & InputOutboundPacket.ATTACK) != 0 ? 13 : 5;
+                }
+
+                return index - start;
+            default:
+                throw new CorruptedFrameException("unknown opcode " + opcode);
+        }
+    }
+}
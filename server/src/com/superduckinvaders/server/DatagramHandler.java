@@ -0,0 +1,32 @@
+package com.superduckinvaders.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+
+/**
+ * Handles hello datagrams, which tell a session where to send its datagrams. Each is the session's datagram token
+ * and the client's MTU.
+ */
+final class DatagramHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    private final LoadServer server;
+
+    DatagramHandler(LoadServer server) {
+        this.server = server;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket msg) throws Exception {
+        ByteBuf content = msg.content();
+
+        if (content.readableBytes() < 6)
+            return;
+
+        Session session = server.getDatagramSession(content.readInt());
+
+        if (session != null)
+            session.receiveHello(msg.sender(), content.readUnsignedShort());
+    }
+}
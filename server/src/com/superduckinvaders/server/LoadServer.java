@@ -0,0 +1,386 @@
+package com.superduckinvaders.server;
+
+import com.superduckinvaders.game.net.Capabilities;
+import com.superduckinvaders.game.net.Transport;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.SocketChannel;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server that speaks the client's protocol, for measuring the client under a controlled load without the real
+ * game server. It spawns a number of entities that move along scripted paths, and moves each client's player by its
+ * input.
+ * <p>
+ * Everything, including the world ticks, runs on a single event loop so that nothing needs locking. Run with
+ * arguments such as {@code --entities=10000 --tick-rate=30 --latency=50}; see {@link ServerConfiguration} for the
+ * rest.
+ */
+public final class LoadServer {
+
+    /**
+     * The time between printing statistics, in seconds.
+     */
+    private static final int STATS_INTERVAL = 5;
+
+    private final ServerConfiguration config;
+
+    private final ServerWorld world;
+
+    private final EventLoopGroup group;
+
+    private final Transport transport;
+
+    private Channel serverChannel, datagramChannel;
+
+    /**
+     * Every session, attached or waiting to be resumed, in the order they joined.
+     */
+    private final List<Session> sessions = new ArrayList<Session>();
+
+    /**
+     * Sessions by their resume token, and by their datagram token.
+     */
+    private final Map<Long, Session> sessionsByToken = new HashMap<Long, Session>();
+    private final Map<Integer, Session> sessionsByDatagramToken = new HashMap<Integer, Session>();
+
+    /**
+     * The origin of the server's clock, which clients synchronise to, by {@link System#nanoTime()}.
+     */
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Generates tokens, and decides which datagrams are lost.
+     */
+    private final Random random = new Random();
+
+    /**
+     * Statistics since they were last printed.
+     */
+    private long tickTime = 0;
+    private int ticks = 0;
+    private long lastBytesSent = 0;
+
+    /**
+     * The bytes sent to sessions that have ended, so the rate stays right as sessions come and go.
+     */
+    private long endedBytesSent = 0;
+
+    public LoadServer(ServerConfiguration config) {
+        this.config = config;
+
+        world = new ServerWorld(config);
+        transport = Transport.select(true);
+        group = transport.newEventLoopGroup(1);
+    }
+
+    /**
+     * Binds the server and starts ticking.
+     *
+     * @throws InterruptedException if interrupted while binding
+     */
+    public void start() throws InterruptedException {
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(group)
+                .channel(transport.getServerSocketChannelClass())
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) throws Exception {
+                        ch.pipeline().addLast(new ClientPacketDecoder());
+                        ch.pipeline().addLast(new ClientHandler(LoadServer.this));
+                    }
+                });
+
+        serverChannel = b.bind(config.port).sync().channel();
+
+        if (Capabilities.has(config.capabilities, Capabilities.DATAGRAMS)) {
+            Bootstrap d = new Bootstrap();
+            d.group(group)
+                    .channel(transport.getDatagramChannelClass())
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .handler(new DatagramHandler(this));
+
+            datagramChannel = d.bind(config.datagramPort).sync().channel();
+        }
+
+        // Spawning on the event loop keeps the world confined to it.
+        group.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < config.entities; i++) {
+                    world.spawnScripted();
+                }
+
+                world.endTick();
+            }
+        });
+
+        group.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, 0, 1000000000L / config.tickRate, TimeUnit.NANOSECONDS);
+
+        group.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                printStats();
+            }
+        }, STATS_INTERVAL, STATS_INTERVAL, TimeUnit.SECONDS);
+
+        System.out.println("listening on " + config.port + " using " + transport + " with " + config.entities
+                + " entities at " + config.tickRate + " ticks per second");
+    }
+
+    /**
+     * Waits for the server to close.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitClose() throws InterruptedException {
+        serverChannel.closeFuture().sync();
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+
+        expireSessions();
+
+        for (Session session : sessions) {
+            session.applyInput(world);
+        }
+
+        world.tick();
+
+        for (Session session : sessions) {
+            session.writeUpdates(world);
+        }
+
+        world.endTick();
+
+        tickTime += System.nanoTime() - start;
+        ticks++;
+    }
+
+    /**
+     * Removes sessions that have been detached for longer than they can be resumed.
+     */
+    private void expireSessions() {
+        long now = System.nanoTime();
+
+        for (Iterator<Session> it = sessions.iterator(); it.hasNext(); ) {
+            Session session = it.next();
+
+            if (!session.isAttached() && now - session.getDetachTime() > config.sessionTimeout * 1000000L) {
+                it.remove();
+                end(session);
+            }
+        }
+    }
+
+    private void printStats() {
+        long bytesSent = endedBytesSent;
+
+        for (Session session : sessions) {
+            bytesSent += session.getBytesSent();
+        }
+
+        System.out.printf("sessions %d, entities %d, tick %.2f ms, sent %.1f KB/s%n",
+                sessions.size(), world.getCount(), ticks == 0 ? 0 : tickTime / 1e6 / ticks,
+                (bytesSent - lastBytesSent) / 1024.0 / STATS_INTERVAL);
+
+        lastBytesSent = bytesSent;
+        tickTime = 0;
+        ticks = 0;
+    }
+
+    /**
+     * Starts a new session for a client.
+     *
+     * @param channel      the connection to the client
+     * @param capabilities the negotiated protocol features
+     * @return the session
+     */
+    Session join(Channel channel, int capabilities) {
+        long token;
+        int datagramToken;
+
+        // Zero means no session to the client.
+        do {
+            token = random.nextLong();
+        } while (token == 0 || sessionsByToken.containsKey(token));
+
+        do {
+            datagramToken = random.nextInt();
+        } while (sessionsByDatagramToken.containsKey(datagramToken));
+
+        Session session = new Session(this, token, datagramToken);
+
+        sessions.add(session);
+        sessionsByToken.put(token, session);
+        sessionsByDatagramToken.put(datagramToken, session);
+
+        session.join(channel, capabilities, world);
+
+        return session;
+    }
+
+    /**
+     * Resumes the session with the specified token, or starts a new one if there is no such session to resume.
+     *
+     * @param channel      the new connection to the client
+     * @param capabilities the protocol features negotiated on the new connection
+     * @param token        the token the client presented
+     * @return the session
+     */
+    Session resume(Channel channel, int capabilities, long token) {
+        Session session = sessionsByToken.get(token);
+
+        if (session != null && !session.isAttached()) {
+            session.resume(channel, capabilities, world);
+            return session;
+        }
+
+        ByteBuf reply = channel.alloc().buffer(2);
+        reply.writeByte(InboundPacket.Type.RESUMED.getOpcode());
+        reply.writeByte(0);
+        send(channel, reply);
+
+        return join(channel, capabilities);
+    }
+
+    /**
+     * Called when a session's connection closes. The session is kept for resuming if the client can, and ended
+     * otherwise.
+     *
+     * @param session the session
+     * @param channel the connection that closed
+     */
+    void detach(Session session, Channel channel) {
+        // The session may already have moved to a new connection.
+        if (session.getChannel() != channel)
+            return;
+
+        session.detach();
+
+        if (!Capabilities.has(session.getCapabilities(), Capabilities.SESSION_RESUME)) {
+            sessions.remove(session);
+            end(session);
+        }
+    }
+
+    private void end(Session session) {
+        endedBytesSent += session.getBytesSent();
+        sessionsByToken.remove(session.getToken());
+        sessionsByDatagramToken.remove(session.getDatagramToken());
+
+        if (session.getPlayer() != -1)
+            world.remove(session.getPlayer());
+
+        session.close();
+    }
+
+    /**
+     * Writes to a client, after the configured latency.
+     *
+     * @param channel the connection to the client
+     * @param msg     the message to write
+     */
+    void send(final Channel channel, final Object msg) {
+        if (config.latency <= 0) {
+            channel.writeAndFlush(msg, channel.voidPromise());
+            return;
+        }
+
+        channel.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                channel.writeAndFlush(msg, channel.voidPromise());
+            }
+        }, config.latency, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a datagram to a client, after the configured latency and unless it is chosen to be lost.
+     *
+     * @param buf     the content of the datagram
+     * @param address the client's address
+     */
+    void sendDatagram(ByteBuf buf, InetSocketAddress address) {
+        if (config.loss > 0 && random.nextFloat() < config.loss) {
+            buf.release();
+            return;
+        }
+
+        send(datagramChannel, new DatagramPacket(buf, address));
+    }
+
+    Session getDatagramSession(int datagramToken) {
+        return sessionsByDatagramToken.get(datagramToken);
+    }
+
+    /**
+     * Returns the time by the server's clock, which starts at zero when the server is created.
+     *
+     * @return the time in nanoseconds
+     */
+    long getTime() {
+        return System.nanoTime() - startTime;
+    }
+
+    ServerConfiguration getConfiguration() {
+        return config;
+    }
+
+    ServerWorld getWorld() {
+        return world;
+    }
+
+    Channel getDatagramChannel() {
+        return datagramChannel;
+    }
+
+    /**
+     * Stops the event loop, closing every channel.
+     */
+    void shutdown() {
+        group.shutdownGracefully();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ServerConfiguration config = ServerConfiguration.parse(args);
+
+        if (config.entities > ServerWorld.MAX_ENTITIES - 1024) {
+            System.err.println("at most " + (ServerWorld.MAX_ENTITIES - 1024) + " entities, to leave room for players");
+            System.exit(1);
+        }
+
+        LoadServer server = new LoadServer(config);
+
+        try {
+            server.start();
+            server.awaitClose();
+        } finally {
+            server.shutdown();
+        }
+    }
+}
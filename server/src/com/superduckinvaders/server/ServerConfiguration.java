@@ -0,0 +1,167 @@
+package com.superduckinvaders.server;
+
+import com.superduckinvaders.game.net.Capabilities;
+
+/**
+ * Settings for the load generator server.
+ */
+public class ServerConfiguration {
+
+    /**
+     * The TCP port to listen on.
+     */
+    public int port = 5577;
+
+    /**
+     * The UDP port for the optional datagram channel.
+     */
+    public int datagramPort = 5578;
+
+    /**
+     * The number of scripted entities to spawn.
+     */
+    public int entities = 1000;
+
+    /**
+     * The number of world updates per second, which is also the input tick rate given to clients.
+     */
+    public int tickRate = 20;
+
+    /**
+     * Whether to send state updates as SNAPSHOT packets, rather than a POSITION or DIRECTION packet per change.
+     */
+    public boolean snapshots = true;
+
+    /**
+     * The delay added before everything sent to clients, in milliseconds.
+     */
+    public int latency = 0;
+
+    /**
+     * The fraction of datagrams to drop, between 0 and 1.
+     */
+    public float loss = 0;
+
+    /**
+     * The optional protocol features to accept when clients offer them.
+     */
+    public int capabilities = Capabilities.QUANTIZED_POSITIONS | Capabilities.INPUT_SEQUENCES
+            | Capabilities.DATAGRAMS | Capabilities.COMPRESSION | Capabilities.SESSION_RESUME
+            | Capabilities.CLOCK_SYNC | Capabilities.AREA_OF_INTEREST;
+
+    /**
+     * How much further than the client's margin an entity must move from its viewport before it leaves the area of
+     * interest, in pixels, so that one moving along the edge doesn't leave and come back every tick.
+     */
+    public int interestHysteresis = 64;
+
+    /**
+     * The area of interest until a client reports its viewport: a rectangle of this size around its player, and
+     * this margin, in pixels.
+     */
+    public int viewportWidth = 640, viewportHeight = 360, viewportMargin = 128;
+
+    /**
+     * The smallest run of packets worth compressing, in bytes.
+     */
+    public int compressionThreshold = 1024;
+
+    /**
+     * The size of the world, in pixels. Matches the 100 by 100 tile map the client uses.
+     */
+    public int width = 3200, height = 3200;
+
+    /**
+     * The speed of players, in pixels per second. Must match the client's setting for prediction to be accurate.
+     */
+    public double playerSpeed = 200;
+
+    /**
+     * The speed of scripted entities, in pixels per second.
+     */
+    public double entitySpeed = 60;
+
+    /**
+     * How long a disconnected session can be resumed for, in milliseconds.
+     */
+    public int sessionTimeout = 10000;
+
+    /**
+     * The seed for the scripted paths, so runs are repeatable.
+     */
+    public long seed = 0;
+
+    /**
+     * Parses settings from command line arguments of the form --name=value, such as --entities=10000.
+     *
+     * @param args the command line arguments
+     * @return the settings
+     */
+    public static ServerConfiguration parse(String[] args) {
+        ServerConfiguration config = new ServerConfiguration();
+
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || equals == -1)
+                throw new IllegalArgumentException("expected --name=value, got " + arg);
+
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+
+            if (name.equals("port")) {
+                config.port = Integer.parseInt(value);
+            } else if (name.equals("datagram-port")) {
+                config.datagramPort = Integer.parseInt(value);
+            } else if (name.equals("entities")) {
+                config.entities = Integer.parseInt(value);
+            } else if (name.equals("tick-rate")) {
+                config.tickRate = Integer.parseInt(value);
+            } else if (name.equals("snapshots")) {
+                config.snapshots = Boolean.parseBoolean(value);
+            } else if (name.equals("latency")) {
+                config.latency = Integer.parseInt(value);
+            } else if (name.equals("loss")) {
+                config.loss = Float.parseFloat(value);
+            } else if (name.equals("quantized-positions")) {
+                config.capabilities = toggle(config.capabilities, Capabilities.QUANTIZED_POSITIONS, value);
+            } else if (name.equals("input-sequences")) {
+                config.capabilities = toggle(config.capabilities, Capabilities.INPUT_SEQUENCES, value);
+            } else if (name.equals("datagrams")) {
+                config.capabilities = toggle(config.capabilities, Capabilities.DATAGRAMS, value);
+            } else if (name.equals("compression")) {
+                config.capabilities = toggle(config.capabilities, Capabilities.COMPRESSION, value);
+            } else if (name.equals("session-resume")) {
+                config.capabilities = toggle(config.capabilities, Capabilities.SESSION_RESUME, value);
+            } else if (name.equals("clock-sync")) {
+                config.capabilities = toggle(config.capabilities, Capabilities.CLOCK_SYNC, value);
+            } else if (name.equals("area-of-interest")) {
+                config.capabilities = toggle(config.capabilities, Capabilities.AREA_OF_INTEREST, value);
+            } else if (name.equals("interest-hysteresis")) {
+                config.interestHysteresis = Integer.parseInt(value);
+            } else if (name.equals("compression-threshold")) {
+                config.compressionThreshold = Integer.parseInt(value);
+            } else if (name.equals("width")) {
+                config.width = Integer.parseInt(value);
+            } else if (name.equals("height")) {
+                config.height = Integer.parseInt(value);
+            } else if (name.equals("player-speed")) {
+                config.playerSpeed = Double.parseDouble(value);
+            } else if (name.equals("entity-speed")) {
+                config.entitySpeed = Double.parseDouble(value);
+            } else if (name.equals("session-timeout")) {
+                config.sessionTimeout = Integer.parseInt(value);
+            } else if (name.equals("seed")) {
+                config.seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("unknown setting " + name);
+            }
+        }
+
+        return config;
+    }
+
+    private static int toggle(int capabilities, int capability, String value) {
+        return Boolean.parseBoolean(value) ? capabilities | capability : capabilities & ~capability;
+    }
+}
@@ -0,0 +1,431 @@
+package com.superduckinvaders.server;
+
+import com.superduckinvaders.game.World;
+import com.superduckinvaders.game.entity.Entity;
+import com.superduckinvaders.game.net.packets.Snapshot;
+
+import java.util.Random;
+
+/**
+ * The load generator's world: scripted entities moving along closed paths, players moved by their clients' input,
+ * and the projectiles players fire. Entities are stored as parallel arrays indexed by ID.
+ * <p>
+ * Changes made during a tick are recorded as {@link Snapshot} flags so that each session can send them, and are
+ * cleared by {@link #endTick()}.
+ */
+final class ServerWorld {
+
+    /**
+     * One more than the highest entity ID.
+     */
+    static final int MAX_ENTITIES = World.MAX_ENTITIES;
+
+    /**
+     * Texture indices, as in the client's texture sets.
+     */
+    static final int TEXTURE_PLAYER = 0, TEXTURE_PLAYER_FLYING = 1, TEXTURE_BADGUY = 2, TEXTURE_PROJECTILE = 3;
+
+    /**
+     * Movement bits, as sent by clients.
+     */
+    private static final int LEFT = 1, RIGHT = 1 << 1, UP = 1 << 2, DOWN = 1 << 3;
+
+    /**
+     * Kinds of entity. Free IDs have no kind.
+     */
+    private static final int FREE = 0, SCRIPTED = 1, PLAYER = 2, PROJECTILE = 3;
+
+    /**
+     * The speed of projectiles, in pixels per second.
+     */
+    private static final double PROJECTILE_SPEED = 400;
+
+    /**
+     * How close a projectile must come to a scripted entity to hit it, in pixels.
+     */
+    private static final double HIT_RADIUS = 16;
+
+    /**
+     * The smallest and largest radius of a scripted path, in pixels.
+     */
+    private static final double MIN_RADIUS = 32, MAX_RADIUS = 256;
+
+    private final ServerConfiguration config;
+
+    private final Random random;
+
+    private final int[] kind = new int[MAX_ENTITIES];
+
+    private final double[] x = new double[MAX_ENTITIES], y = new double[MAX_ENTITIES];
+
+    private final int[] direction = new int[MAX_ENTITIES], texture = new int[MAX_ENTITIES];
+
+    /**
+     * The ellipse each scripted entity moves around, and where on it the entity started.
+     */
+    private final double[] centreX = new double[MAX_ENTITIES], centreY = new double[MAX_ENTITIES];
+    private final double[] radiusX = new double[MAX_ENTITIES], radiusY = new double[MAX_ENTITIES];
+    private final double[] phase = new double[MAX_ENTITIES], angularSpeed = new double[MAX_ENTITIES];
+
+    /**
+     * The velocity of each projectile, in pixels per tick.
+     */
+    private final double[] velocityX = new double[MAX_ENTITIES], velocityY = new double[MAX_ENTITIES];
+
+    /**
+     * The tick a projectile disappears or a player stops flying, or -1.
+     */
+    private final int[] expiry = new int[MAX_ENTITIES];
+
+    /**
+     * The Snapshot flags of what changed for each entity this tick, and the IDs with any flags set.
+     */
+    private final int[] changes = new int[MAX_ENTITIES];
+    private final int[] changed = new int[MAX_ENTITIES];
+    private int changedCount = 0;
+
+    /**
+     * The IDs of entities created and destroyed this tick.
+     */
+    private final int[] created = new int[MAX_ENTITIES], destroyed = new int[MAX_ENTITIES];
+    private int createdCount = 0, destroyedCount = 0;
+
+    /**
+     * The stack of free IDs. IDs destroyed this tick are only freed at the end of it, so that no ID is destroyed
+     * and created in the same tick.
+     */
+    private final int[] free = new int[MAX_ENTITIES];
+    private int freeCount = 0;
+
+    /**
+     * One more than the highest ID in use, so loops can stop early.
+     */
+    private int limit = 0;
+
+    /**
+     * The number of live entities.
+     */
+    private int count = 0;
+
+    private int tick = 0;
+
+    ServerWorld(ServerConfiguration config) {
+        this.config = config;
+
+        random = new Random(config.seed);
+
+        // Hand out low IDs first.
+        for (int id = MAX_ENTITIES - 1; id >= 0; id--) {
+            free[freeCount++] = id;
+        }
+    }
+
+    /**
+     * Spawns a scripted entity on a random path.
+     *
+     * @return the ID of the entity, or -1 if there are no free IDs
+     */
+    int spawnScripted() {
+        double rx = MIN_RADIUS + random.nextDouble() * (MAX_RADIUS - MIN_RADIUS);
+        double ry = MIN_RADIUS + random.nextDouble() * (MAX_RADIUS - MIN_RADIUS);
+        double cx = rx + random.nextDouble() * Math.max(0, config.width - 2 * rx);
+        double cy = ry + random.nextDouble() * Math.max(0, config.height - 2 * ry);
+        double start = random.nextDouble() * 2 * Math.PI;
+
+        int id = create(SCRIPTED, cx + rx * Math.cos(start), cy + ry * Math.sin(start), TEXTURE_BADGUY);
+
+        if (id == -1)
+            return -1;
+
+        centreX[id] = cx;
+        centreY[id] = cy;
+        radiusX[id] = rx;
+        radiusY[id] = ry;
+        // Go round at roughly the configured speed, in either direction.
+        angularSpeed[id] = config.entitySpeed / ((rx + ry) / 2) * (random.nextBoolean() ? 1 : -1);
+        phase[id] = start - angularSpeed[id] * tick / config.tickRate;
+
+        return id;
+    }
+
+    /**
+     * Spawns a player at a random position.
+     *
+     * @return the ID of the player, or -1 if there are no free IDs
+     */
+    int spawnPlayer() {
+        return create(PLAYER, random.nextDouble() * config.width, random.nextDouble() * config.height, TEXTURE_PLAYER);
+    }
+
+    /**
+     * Fires a projectile from a player towards a target.
+     *
+     * @param player  the ID of the player
+     * @param targetX the x coordinate of the target
+     * @param targetY the y coordinate of the target
+     */
+    void spawnProjectile(int player, double targetX, double targetY) {
+        double dx = targetX - x[player], dy = targetY - y[player];
+        double length = Math.hypot(dx, dy);
+
+        if (length == 0)
+            return;
+
+        int id = create(PROJECTILE, x[player], y[player], TEXTURE_PROJECTILE);
+
+        if (id == -1)
+            return;
+
+        velocityX[id] = dx / length * PROJECTILE_SPEED / config.tickRate;
+        velocityY[id] = dy / length * PROJECTILE_SPEED / config.tickRate;
+        direction[id] = directionOf(dx, dy);
+        expiry[id] = tick + config.tickRate;
+    }
+
+    /**
+     * Moves a player by one tick of input.
+     *
+     * @param player   the ID of the player
+     * @param movement the movement bits
+     * @param distance the distance to move, in pixels
+     */
+    void movePlayer(int player, int movement, double distance) {
+        double dx = 0, dy = 0;
+
+        if ((movement & LEFT) != 0)
+            dx -= 1;
+        if ((movement & RIGHT) != 0)
+            dx += 1;
+        if ((movement & UP) != 0)
+            dy += 1;
+        if ((movement & DOWN) != 0)
+            dy -= 1;
+
+        if (dx == 0 && dy == 0)
+            return;
+
+        // There is no map, so only the edges of the world stop players.
+        setPosition(player, clamp(x[player] + dx * distance, config.width), clamp(y[player] + dy * distance, config.height));
+        setDirection(player, directionOf(dx, dy));
+    }
+
+    /**
+     * Makes a player fly for a second, unless it already is.
+     *
+     * @param player the ID of the player
+     */
+    void fly(int player) {
+        if (texture[player] != TEXTURE_PLAYER)
+            return;
+
+        setTexture(player, TEXTURE_PLAYER_FLYING);
+        expiry[player] = tick + config.tickRate;
+    }
+
+    /**
+     * Destroys an entity.
+     *
+     * @param id the ID of the entity
+     */
+    void remove(int id) {
+        if (kind[id] == FREE)
+            return;
+
+        kind[id] = FREE;
+        destroyed[destroyedCount++] = id;
+        count--;
+    }
+
+    /**
+     * Advances every scripted entity and projectile by one tick.
+     */
+    void tick() {
+        tick++;
+
+        double time = tick / (double) config.tickRate;
+
+        for (int id = 0; id < limit; id++) {
+            switch (kind[id]) {
+                case SCRIPTED:
+                    double angle = phase[id] + angularSpeed[id] * time;
+                    double cos = Math.cos(angle), sin = Math.sin(angle);
+
+                    setPosition(id, centreX[id] + radiusX[id] * cos, centreY[id] + radiusY[id] * sin);
+                    // Face along the path, which is the derivative of the position.
+                    setDirection(id, directionOf(-radiusX[id] * sin * angularSpeed[id], radiusY[id] * cos * angularSpeed[id]));
+                    break;
+                case PROJECTILE:
+                    double nextX = x[id] + velocityX[id], nextY = y[id] + velocityY[id];
+
+                    if (tick >= expiry[id] || nextX < 0 || nextY < 0 || nextX > config.width || nextY > config.height) {
+                        remove(id);
+                    } else {
+                        setPosition(id, nextX, nextY);
+                        hit(id);
+                    }
+                    break;
+                case PLAYER:
+                    if (expiry[id] == tick && texture[id] == TEXTURE_PLAYER_FLYING)
+                        setTexture(id, TEXTURE_PLAYER);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Clears this tick's changes and frees the IDs destroyed during it.
+     */
+    void endTick() {
+        for (int i = 0; i < changedCount; i++) {
+            changes[changed[i]] = 0;
+        }
+
+        for (int i = 0; i < destroyedCount; i++) {
+            free[freeCount++] = destroyed[i];
+        }
+
+        changedCount = createdCount = destroyedCount = 0;
+    }
+
+    /**
+     * Replaces a scripted entity hit by a projectile with a new one elsewhere, so the count stays the same.
+     *
+     * @param projectile the ID of the projectile
+     */
+    private void hit(int projectile) {
+        for (int id = 0; id < limit; id++) {
+            if (kind[id] != SCRIPTED)
+                continue;
+
+            if (Math.abs(x[id] - x[projectile]) < HIT_RADIUS && Math.abs(y[id] - y[projectile]) < HIT_RADIUS) {
+                remove(id);
+                remove(projectile);
+                spawnScripted();
+                return;
+            }
+        }
+    }
+
+    private int create(int kind, double x, double y, int texture) {
+        if (freeCount == 0)
+            return -1;
+
+        int id = free[--freeCount];
+
+        this.kind[id] = kind;
+        this.x[id] = x;
+        this.y[id] = y;
+        this.direction[id] = Entity.Direction.DOWN.ordinal();
+        this.texture[id] = texture;
+        this.expiry[id] = -1;
+
+        created[createdCount++] = id;
+        limit = Math.max(limit, id + 1);
+        count++;
+
+        return id;
+    }
+
+    private void setPosition(int id, double x, double y) {
+        if (x == this.x[id] && y == this.y[id])
+            return;
+
+        this.x[id] = x;
+        this.y[id] = y;
+        change(id, Snapshot.POSITION);
+    }
+
+    private void setDirection(int id, int direction) {
+        if (direction == this.direction[id])
+            return;
+
+        this.direction[id] = direction;
+        change(id, Snapshot.DIRECTION);
+    }
+
+    private void setTexture(int id, int texture) {
+        if (texture == this.texture[id])
+            return;
+
+        this.texture[id] = texture;
+        change(id, Snapshot.TEXTURE);
+    }
+
+    private void change(int id, int flag) {
+        if (changes[id] == 0)
+            changed[changedCount++] = id;
+
+        changes[id] |= flag;
+    }
+
+    private static int directionOf(double dx, double dy) {
+        if (Math.abs(dx) >= Math.abs(dy))
+            return (dx < 0 ? Entity.Direction.LEFT : Entity.Direction.RIGHT).ordinal();
+
+        return (dy < 0 ? Entity.Direction.DOWN : Entity.Direction.UP).ordinal();
+    }
+
+    private static double clamp(double value, double max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    boolean isAlive(int id) {
+        return kind[id] != FREE;
+    }
+
+    double getX(int id) {
+        return x[id];
+    }
+
+    double getY(int id) {
+        return y[id];
+    }
+
+    int getDirection(int id) {
+        return direction[id];
+    }
+
+    int getTexture(int id) {
+        return texture[id];
+    }
+
+    int getChanges(int id) {
+        return changes[id];
+    }
+
+    int getChanged(int index) {
+        return changed[index];
+    }
+
+    int getChangedCount() {
+        return changedCount;
+    }
+
+    int getCreated(int index) {
+        return created[index];
+    }
+
+    int getCreatedCount() {
+        return createdCount;
+    }
+
+    int getDestroyed(int index) {
+        return destroyed[index];
+    }
+
+    int getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getTick() {
+        return tick;
+    }
+}
@@ -0,0 +1,877 @@
+package com.superduckinvaders.server;
+
+import com.superduckinvaders.game.net.Capabilities;
+import com.superduckinvaders.game.net.PositionCodec;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import com.superduckinvaders.game.net.packets.InputOutboundPacket;
+import com.superduckinvaders.game.net.packets.Snapshot;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import java.net.InetSocketAddress;
+import java.util.zip.Deflater;
+
+/**
+ * A client's place in the game: its player, its input, and what it has been told about the world. Outlives its
+ * connection if the client can resume the session.
+ */
+final class Session {
+
+    /**
+     * The most bytes of packets to collect before writing them, and the most payload in one SNAPSHOT packet. Keeps
+     * compressed runs within the 16 bit length of a COMPRESSED packet.
+     */
+    private static final int CHUNK_SIZE = 16384;
+
+    /**
+     * The movement bits of the input buttons.
+     */
+    private static final int MOVEMENT_MASK = InputOutboundPacket.ATTACK - 1;
+
+    /**
+     * The largest UDP payload, and a floor so that a silly MTU still fits a packet.
+     */
+    private static final int MAX_MTU = 65507, MIN_MTU = 64;
+
+    private final LoadServer server;
+
+    private final ServerConfiguration config;
+
+    /**
+     * The token for resuming this session, and the token identifying its hello datagrams.
+     */
+    private final long token;
+    private final int datagramToken;
+
+    /**
+     * The connection to the client, or null while detached.
+     */
+    private Channel channel;
+
+    /**
+     * When the connection was lost, in nanoseconds, if detached.
+     */
+    private long detachTime;
+
+    /**
+     * The protocol features negotiated on the current connection.
+     */
+    private int capabilities;
+
+    /**
+     * The ID of the player entity.
+     */
+    private int player = -1;
+
+    /**
+     * Which entities the client has been sent a CREATE for and not yet a DESTROY.
+     */
+    private final boolean[] known = new boolean[ServerWorld.MAX_ENTITIES];
+
+    /**
+     * Which of the known entities the client is sent updates for. Every known entity, unless area of interest
+     * management is in use, in which case the client holds the others hidden after a LEAVE.
+     */
+    private final boolean[] interested = new boolean[ServerWorld.MAX_ENTITIES];
+
+    /**
+     * The client's camera rectangle and margin, for area of interest management.
+     */
+    private float viewX, viewY, viewWidth, viewHeight, viewMargin;
+
+    /**
+     * The baseline position the client holds for each entity, for sending deltas.
+     */
+    private final PositionCodec positions = new PositionCodec(ServerWorld.MAX_ENTITIES);
+
+    /**
+     * Input from MOVEMENT and ATTACK packets, applied at the next tick and then cleared, as clients without input
+     * sequences send them every input tick for as long as the keys are held.
+     */
+    private int movement = 0;
+    private boolean attack = false;
+    private double attackX, attackY;
+
+    /**
+     * The sequence number of the newest input received, and of the last input tick applied.
+     */
+    private int received = -1, sequence = -1;
+
+    /**
+     * The buttons and attack target of the newest input, applied every tick until the next input changes them.
+     */
+    private int buttons = 0;
+    private float targetX, targetY;
+
+    /**
+     * The earliest tick the player can fire again.
+     */
+    private int nextAttackTick = 0;
+
+    /**
+     * Where to send datagrams, or null until a hello datagram arrives.
+     */
+    private InetSocketAddress datagramAddress;
+
+    private int mtu;
+
+    private int datagramSequence = 0;
+
+    /**
+     * Whether this tick's input acknowledgement is still to be written to a datagram, ahead of the player's position.
+     */
+    private boolean ackPending = false;
+
+    /**
+     * The packets written but not yet sent.
+     */
+    private ByteBuf out;
+
+    /**
+     * IDs that moved too far for a delta, sent as absolute positions after the snapshot.
+     */
+    private final int[] jumps = new int[ServerWorld.MAX_ENTITIES];
+
+    private Deflater deflater;
+
+    private byte[] deflateInput = new byte[0];
+
+    private final byte[] deflateOutput = new byte[4096];
+
+    /**
+     * The number of bytes sent over TCP and UDP.
+     */
+    private long bytesSent = 0;
+
+    Session(LoadServer server, long token, int datagramToken) {
+        this.server = server;
+        this.config = server.getConfiguration();
+        this.token = token;
+        this.datagramToken = datagramToken;
+    }
+
+    /**
+     * Adds the client's player to the world and sends it everything it needs to start.
+     *
+     * @param channel      the connection to the client
+     * @param capabilities the negotiated protocol features
+     * @param world        the world
+     */
+    void join(Channel channel, int capabilities, ServerWorld world) {
+        this.channel = channel;
+        this.capabilities = capabilities;
+
+        player = world.spawnPlayer();
+
+        if (player == -1) {
+            channel.close();
+            return;
+        }
+
+        writeStart();
+
+        // Until the client reports its viewport, assume it is centred on the player.
+        viewWidth = config.viewportWidth;
+        viewHeight = config.viewportHeight;
+        viewMargin = config.viewportMargin;
+        viewX = (float) world.getX(player) - viewWidth / 2;
+        viewY = (float) world.getY(player) - viewHeight / 2;
+
+        for (int id = 0; id < world.getLimit(); id++) {
+            if (world.isAlive(id) && isOfInterest(world, id)) {
+                writeCreate(world, id);
+                known[id] = interested[id] = true;
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Attaches a new connection to this session, and brings the client up to date with the world as it is now.
+     *
+     * @param channel      the new connection to the client
+     * @param capabilities the protocol features negotiated on the new connection
+     * @param world        the world
+     */
+    void resume(Channel channel, int capabilities, ServerWorld world) {
+        this.channel = channel;
+        this.capabilities = capabilities;
+
+        // The client's old UDP channel was closed with the TCP channel.
+        datagramAddress = null;
+
+        chunk(2).writeByte(InboundPacket.Type.RESUMED.getOpcode()).writeByte(1);
+        writeSetup();
+
+        // The client kept its world, so only send what differs from what it was told.
+        for (int id = 0; id < world.getLimit(); id++) {
+            boolean alive = world.isAlive(id);
+
+            if (known[id] && !alive) {
+                writeDestroy(id);
+                known[id] = interested[id] = false;
+            } else if (alive && !interested[id]) {
+                // Unknown entities, and hidden ones, which are brought back by the CREATE.
+                if (isOfInterest(world, id)) {
+                    writeCreate(world, id);
+                    known[id] = interested[id] = true;
+                }
+            } else if (alive && !isOfInterest(world, id)) {
+                writeLeave(id);
+                interested[id] = false;
+            } else if (alive) {
+                writePosition(world, id);
+                writeDirection(world, id);
+                writeTexture(world, id);
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Detaches this session from its connection, leaving the player where it is.
+     */
+    void detach() {
+        channel = null;
+        detachTime = System.nanoTime();
+        movement = buttons = 0;
+        attack = false;
+    }
+
+    void receiveMovement(int movement) {
+        this.movement = movement;
+    }
+
+    void receiveAttack(double x, double y) {
+        attack = true;
+        attackX = x;
+        attackY = y;
+    }
+
+    /**
+     * Records the inputs in an INPUT packet, skipping the repeated ones already received.
+     *
+     * @param payload the payload of the INPUT packet
+     */
+    void receiveInputs(ByteBuf payload) {
+        int count = payload.readUnsignedByte();
+
+        for (int i = 0; i < count; i++) {
+            int sequence = payload.readInt();
+            int buttons = payload.readUnsignedByte();
+            float x = 0, y = 0;
+
+            if ((buttons & InputOutboundPacket.ATTACK) != 0) {
+                x = payload.readFloat();
+                y = payload.readFloat();
+            }
+
+            if (received != -1 && sequence - received <= 0)
+                continue;
+
+            received = sequence;
+            this.buttons = buttons;
+            targetX = x;
+            targetY = y;
+
+            // Catch up if the client is ahead. Ticks already applied with the old input can't be taken back, so the
+            // client's reconciliation corrects for them instead.
+            if (sequence - 1 - this.sequence > 0 || this.sequence == -1)
+                this.sequence = sequence - 1;
+        }
+    }
+
+    /**
+     * Records the client's camera rectangle from a VIEWPORT packet, to be applied at the next tick.
+     *
+     * @param payload the payload of the VIEWPORT packet
+     */
+    void receiveViewport(ByteBuf payload) {
+        viewX = payload.readFloat();
+        viewY = payload.readFloat();
+        viewWidth = payload.readFloat();
+        viewHeight = payload.readFloat();
+        viewMargin = payload.readFloat();
+    }
+
+    /**
+     * Checks whether an entity is in the client's area of interest: its viewport and margin, grown by the
+     * hysteresis for entities already of interest, so that one moving along the edge doesn't leave and come back
+     * over and over. Everything is of interest without area of interest management, and the player always is.
+     *
+     * @param world the world
+     * @param id    the ID of the entity
+     * @return true if the client should be sent updates for the entity
+     */
+    private boolean isOfInterest(ServerWorld world, int id) {
+        if (!Capabilities.has(capabilities, Capabilities.AREA_OF_INTEREST) || id == player)
+            return true;
+
+        double slack = viewMargin + (interested[id] ? config.interestHysteresis : 0);
+        double x = world.getX(id), y = world.getY(id);
+
+        return x >= viewX - slack && x <= viewX + viewWidth + slack
+                && y >= viewY - slack && y <= viewY + viewHeight + slack;
+    }
+
+    void receiveHello(InetSocketAddress sender, int mtu) {
+        if (!Capabilities.has(capabilities, Capabilities.DATAGRAMS))
+            return;
+
+        datagramAddress = sender;
+        this.mtu = Math.max(MIN_MTU, Math.min(mtu, MAX_MTU));
+    }
+
+    /**
+     * Applies one tick of the client's input to its player.
+     *
+     * @param world the world
+     */
+    void applyInput(ServerWorld world) {
+        if (player == -1 || channel == null)
+            return;
+
+        int movement;
+        boolean attack;
+        double x, y;
+
+        if (Capabilities.has(capabilities, Capabilities.INPUT_SEQUENCES)) {
+            // Nothing to apply or acknowledge until the first input arrives.
+            if (received == -1)
+                return;
+
+            sequence++;
+            movement = buttons & MOVEMENT_MASK;
+            attack = (buttons & InputOutboundPacket.ATTACK) != 0;
+            x = targetX;
+            y = targetY;
+        } else {
+            movement = this.movement;
+            attack = this.attack;
+            x = attackX;
+            y = attackY;
+
+            this.movement = 0;
+            this.attack = false;
+        }
+
+        world.movePlayer(player, movement, config.playerSpeed / config.tickRate);
+
+        // Fire five times a second while attacking.
+        if (attack && world.getTick() >= nextAttackTick) {
+            world.spawnProjectile(player, x, y);
+            nextAttackTick = world.getTick() + Math.max(1, config.tickRate / 5);
+        }
+    }
+
+    void fly(ServerWorld world) {
+        if (player != -1)
+            world.fly(player);
+    }
+
+    /**
+     * Sends the client this tick's changes to the world.
+     *
+     * @param world the world
+     */
+    void writeUpdates(ServerWorld world) {
+        if (player == -1 || channel == null)
+            return;
+
+        // The acknowledgement goes ahead of the player's position, on the same channel, so the position is reconciled
+        // against it.
+        if (Capabilities.has(capabilities, Capabilities.INPUT_SEQUENCES) && sequence != -1) {
+            if (datagramAddress != null) {
+                ackPending = true;
+            } else {
+                chunk(5).writeByte(InboundPacket.Type.INPUT_ACK.getOpcode()).writeInt(sequence);
+            }
+        }
+
+        for (int i = 0; i < world.getDestroyedCount(); i++) {
+            int id = world.getDestroyed(i);
+
+            if (known[id]) {
+                writeDestroy(id);
+                known[id] = interested[id] = false;
+            }
+        }
+
+        if (Capabilities.has(capabilities, Capabilities.AREA_OF_INTEREST)) {
+            writeInterestChanges(world);
+        } else {
+            for (int i = 0; i < world.getCreatedCount(); i++) {
+                int id = world.getCreated(i);
+
+                if (world.isAlive(id) && !known[id]) {
+                    writeCreate(world, id);
+                    known[id] = interested[id] = true;
+                }
+            }
+        }
+
+        if (config.snapshots) {
+            if (datagramAddress != null) {
+                writeDatagramSnapshots(world);
+            } else {
+                writeSnapshots(world);
+            }
+        } else {
+            writeChanges(world);
+        }
+
+        // The player's position didn't change, so the acknowledgement goes on its own.
+        if (ackPending) {
+            ByteBuf datagram = newDatagram();
+            writeAck(datagram);
+            sendDatagram(datagram);
+        }
+
+        flush();
+    }
+
+    /**
+     * Writes a CREATE for each entity that has come into the area of interest, and a LEAVE for each that has left
+     * it. Any entity can move in or out, so every entity is checked.
+     */
+    private void writeInterestChanges(ServerWorld world) {
+        for (int id = 0; id < world.getLimit(); id++) {
+            if (!world.isAlive(id))
+                continue;
+
+            boolean ofInterest = isOfInterest(world, id);
+
+            if (ofInterest && !interested[id]) {
+                writeCreate(world, id);
+                known[id] = interested[id] = true;
+            } else if (!ofInterest && interested[id]) {
+                writeLeave(id);
+                interested[id] = false;
+            }
+        }
+    }
+
+    /**
+     * Writes the changes as SNAPSHOT packets over TCP, with positions as deltas if quantized positions were
+     * negotiated.
+     */
+    private void writeSnapshots(ServerWorld world) {
+        boolean quantized = Capabilities.has(capabilities, Capabilities.QUANTIZED_POSITIONS);
+        ByteBuf buf = null;
+        int start = 0, count = 0, jumpCount = 0;
+
+        for (int i = 0; i < world.getChangedCount(); i++) {
+            int id = world.getChanged(i);
+
+            if (!interested[id] || !world.isAlive(id))
+                continue;
+
+            int flags = world.getChanges(id);
+            int dx = 0, dy = 0;
+
+            if ((flags & Snapshot.POSITION) != 0 && quantized) {
+                dx = PositionCodec.quantize(world.getX(id)) - positions.getQuantizedX(id);
+                dy = PositionCodec.quantize(world.getY(id)) - positions.getQuantizedY(id);
+
+                if (!PositionCodec.fitsDelta(dx) || !PositionCodec.fitsDelta(dy)) {
+                    flags &= ~Snapshot.POSITION;
+                    jumps[jumpCount++] = id;
+                }
+            }
+
+            if (flags == 0)
+                continue;
+
+            int size = Snapshot.getEntrySize(flags, quantized);
+
+            if (buf != null && buf.writerIndex() - start - 3 + size > CHUNK_SIZE) {
+                endSnapshot(buf, start, count);
+                buf = null;
+            }
+
+            if (buf == null) {
+                buf = chunk(3 + Snapshot.HEADER_SIZE + size);
+                start = buf.writerIndex();
+                count = 0;
+
+                buf.writeByte(InboundPacket.Type.SNAPSHOT.getOpcode());
+                buf.writeShort(0);
+                buf.writeInt(world.getTick());
+                buf.writeShort(0);
+            }
+
+            buf.writeShort(id);
+            buf.writeByte(flags);
+
+            if ((flags & Snapshot.POSITION) != 0) {
+                if (quantized) {
+                    buf.writeShort(dx);
+                    buf.writeShort(dy);
+                    positions.add(id, dx, dy);
+                } else {
+                    buf.writeFloat((float) world.getX(id));
+                    buf.writeFloat((float) world.getY(id));
+                }
+            }
+
+            if ((flags & Snapshot.DIRECTION) != 0)
+                buf.writeByte(world.getDirection(id));
+
+            if ((flags & Snapshot.TEXTURE) != 0)
+                buf.writeByte(world.getTexture(id));
+
+            count++;
+        }
+
+        if (buf != null)
+            endSnapshot(buf, start, count);
+
+        for (int i = 0; i < jumpCount; i++) {
+            writePosition(world, jumps[i]);
+        }
+    }
+
+    private void endSnapshot(ByteBuf buf, int start, int count) {
+        buf.setShort(start + 1, buf.writerIndex() - start - 3);
+        buf.setShort(start + 7, count);
+    }
+
+    /**
+     * Writes the changes as SNAPSHOT packets over UDP, one per datagram, with absolute positions as any datagram
+     * may be lost.
+     */
+    private void writeDatagramSnapshots(ServerWorld world) {
+        ByteBuf buf = null;
+        int start = 0, count = 0;
+
+        for (int i = 0; i < world.getChangedCount(); i++) {
+            int id = world.getChanged(i);
+
+            if (!interested[id] || !world.isAlive(id))
+                continue;
+
+            int flags = world.getChanges(id);
+            int size = Snapshot.getEntrySize(flags, false);
+
+            // The acknowledgement has to go ahead of the SNAPSHOT holding the player, so that starts a new datagram.
+            boolean ack = ackPending && id == player;
+
+            if (buf != null && (ack || buf.readableBytes() + size > mtu)) {
+                endDatagramSnapshot(buf, start, count);
+                buf = null;
+            }
+
+            if (buf == null) {
+                buf = newDatagram();
+
+                if (ack)
+                    writeAck(buf);
+
+                start = buf.writerIndex();
+                count = 0;
+
+                buf.writeByte(InboundPacket.Type.SNAPSHOT.getOpcode());
+                buf.writeShort(0);
+                buf.writeInt(world.getTick());
+                buf.writeShort(0);
+            }
+
+            buf.writeShort(id);
+            buf.writeByte(flags);
+
+            if ((flags & Snapshot.POSITION) != 0) {
+                buf.writeFloat((float) world.getX(id));
+                buf.writeFloat((float) world.getY(id));
+            }
+
+            if ((flags & Snapshot.DIRECTION) != 0)
+                buf.writeByte(world.getDirection(id));
+
+            if ((flags & Snapshot.TEXTURE) != 0)
+                buf.writeByte(world.getTexture(id));
+
+            count++;
+        }
+
+        if (buf != null)
+            endDatagramSnapshot(buf, start, count);
+    }
+
+    private void endDatagramSnapshot(ByteBuf buf, int start, int count) {
+        endSnapshot(buf, start, count);
+        sendDatagram(buf);
+    }
+
+    /**
+     * Writes the changes as a packet per change. Positions and directions go over UDP if it is in use.
+     */
+    private void writeChanges(ServerWorld world) {
+        boolean quantized = Capabilities.has(capabilities, Capabilities.QUANTIZED_POSITIONS);
+        ByteBuf datagram = null;
+
+        for (int i = 0; i < world.getChangedCount(); i++) {
+            int id = world.getChanged(i);
+
+            if (!interested[id] || !world.isAlive(id))
+                continue;
+
+            int flags = world.getChanges(id);
+
+            if (datagramAddress != null && (flags & (Snapshot.POSITION | Snapshot.DIRECTION)) != 0) {
+                if (datagram != null && datagram.readableBytes() + 32 > mtu) {
+                    sendDatagram(datagram);
+                    datagram = null;
+                }
+
+                if (datagram == null)
+                    datagram = newDatagram();
+
+                if ((flags & Snapshot.POSITION) != 0) {
+                    if (ackPending && id == player)
+                        writeAck(datagram);
+
+                    datagram.writeByte(InboundPacket.Type.POSITION.getOpcode());
+                    datagram.writeInt(id);
+                    datagram.writeDouble(world.getX(id));
+                    datagram.writeDouble(world.getY(id));
+                }
+
+                if ((flags & Snapshot.DIRECTION) != 0) {
+                    datagram.writeByte(InboundPacket.Type.DIRECTION.getOpcode());
+                    datagram.writeInt(id);
+                    datagram.writeByte(world.getDirection(id));
+                }
+            } else {
+                if ((flags & Snapshot.POSITION) != 0) {
+                    int dx = PositionCodec.quantize(world.getX(id)) - positions.getQuantizedX(id);
+                    int dy = PositionCodec.quantize(world.getY(id)) - positions.getQuantizedY(id);
+
+                    if (quantized && PositionCodec.fitsDelta(dx) && PositionCodec.fitsDelta(dy)) {
+                        chunk(7).writeByte(InboundPacket.Type.POSITION_DELTA.getOpcode())
+                                .writeShort(id).writeShort(dx).writeShort(dy);
+                        positions.add(id, dx, dy);
+                    } else {
+                        writePosition(world, id);
+                    }
+                }
+
+                if ((flags & Snapshot.DIRECTION) != 0)
+                    writeDirection(world, id);
+            }
+
+            // Textures must arrive reliably.
+            if ((flags & Snapshot.TEXTURE) != 0)
+                writeTexture(world, id);
+        }
+
+        if (datagram != null)
+            sendDatagram(datagram);
+    }
+
+    private void writeStart() {
+        chunk(5).writeByte(InboundPacket.Type.START.getOpcode()).writeInt(player);
+
+        if (Capabilities.has(capabilities, Capabilities.SESSION_RESUME))
+            chunk(9).writeByte(InboundPacket.Type.SESSION.getOpcode()).writeLong(token);
+
+        writeSetup();
+
+        // Full health and flight charge, and no powerups.
+        ByteBuf buf = chunk(29).writeByte(InboundPacket.Type.INTERFACE.getOpcode());
+        buf.writeFloat(1).writeFloat(1);
+
+        for (int i = 0; i < 5; i++) {
+            buf.writeFloat(0);
+        }
+    }
+
+    private void writeSetup() {
+        if (Capabilities.has(capabilities, Capabilities.DATAGRAMS) && server.getDatagramChannel() != null) {
+            chunk(7).writeByte(InboundPacket.Type.DATAGRAM_SETUP.getOpcode())
+                    .writeInt(datagramToken).writeShort(config.datagramPort);
+        }
+    }
+
+    private void writeCreate(ServerWorld world, int id) {
+        chunk(26).writeByte(InboundPacket.Type.CREATE.getOpcode())
+                .writeInt(id)
+                .writeDouble(world.getX(id))
+                .writeDouble(world.getY(id))
+                .writeByte(world.getDirection(id))
+                .writeInt(world.getTexture(id));
+
+        positions.set(id, world.getX(id), world.getY(id));
+    }
+
+    private void writeDestroy(int id) {
+        chunk(5).writeByte(InboundPacket.Type.DESTROY.getOpcode()).writeInt(id);
+    }
+
+    private void writeLeave(int id) {
+        chunk(5).writeByte(InboundPacket.Type.LEAVE.getOpcode()).writeInt(id);
+    }
+
+    private void writePosition(ServerWorld world, int id) {
+        chunk(21).writeByte(InboundPacket.Type.POSITION.getOpcode())
+                .writeInt(id)
+                .writeDouble(world.getX(id))
+                .writeDouble(world.getY(id));
+
+        positions.set(id, world.getX(id), world.getY(id));
+    }
+
+    private void writeDirection(ServerWorld world, int id) {
+        chunk(6).writeByte(InboundPacket.Type.DIRECTION.getOpcode()).writeInt(id).writeByte(world.getDirection(id));
+    }
+
+    private void writeTexture(ServerWorld world, int id) {
+        chunk(9).writeByte(InboundPacket.Type.TEXTURE.getOpcode()).writeInt(id).writeInt(world.getTexture(id));
+    }
+
+    /**
+     * Returns the buffer to write the next packet to, sending the packets already written first if the packet would
+     * take them over the chunk size.
+     *
+     * @param size the size of the next packet
+     * @return the buffer
+     */
+    private ByteBuf chunk(int size) {
+        if (out != null && out.readableBytes() + size > CHUNK_SIZE)
+            emit();
+
+        if (out == null)
+            out = channel.alloc().buffer(CHUNK_SIZE);
+
+        return out;
+    }
+
+    /**
+     * Sends the packets written so far, compressed if worthwhile.
+     */
+    private void emit() {
+        ByteBuf buf = out;
+        out = null;
+
+        if (Capabilities.has(capabilities, Capabilities.COMPRESSION) && buf.readableBytes() >= config.compressionThreshold)
+            buf = compress(buf);
+
+        bytesSent += buf.readableBytes();
+        server.send(channel, buf);
+    }
+
+    private void flush() {
+        if (out != null)
+            emit();
+    }
+
+    /**
+     * Wraps a run of packets in a COMPRESSED packet: the inflated length, then the packets deflated.
+     *
+     * @param buf the packets
+     * @return the COMPRESSED packet
+     */
+    private ByteBuf compress(ByteBuf buf) {
+        int length = buf.readableBytes();
+
+        if (deflater == null)
+            deflater = new Deflater(Deflater.BEST_SPEED);
+
+        if (deflateInput.length < length)
+            deflateInput = new byte[length];
+
+        buf.readBytes(deflateInput, 0, length);
+        buf.release();
+
+        deflater.reset();
+        deflater.setInput(deflateInput, 0, length);
+        deflater.finish();
+
+        ByteBuf compressed = channel.alloc().buffer(7 + length / 2);
+        compressed.writeByte(InboundPacket.Type.COMPRESSED.getOpcode());
+        compressed.writeShort(0);
+        compressed.writeInt(length);
+
+        while (!deflater.finished()) {
+            int count = deflater.deflate(deflateOutput);
+            compressed.writeBytes(deflateOutput, 0, count);
+        }
+
+        compressed.setShort(1, compressed.readableBytes() - 3);
+
+        return compressed;
+    }
+
+    /**
+     * Allocates a datagram and writes its sequence number.
+     *
+     * @return the datagram
+     */
+    private ByteBuf newDatagram() {
+        ByteBuf buf = channel.alloc().buffer(mtu);
+        buf.writeInt(datagramSequence++);
+
+        return buf;
+    }
+
+    /**
+     * Writes this tick's input acknowledgement to a datagram.
+     *
+     * @param buf the datagram
+     */
+    private void writeAck(ByteBuf buf) {
+        buf.writeByte(InboundPacket.Type.INPUT_ACK.getOpcode()).writeInt(sequence);
+        ackPending = false;
+    }
+
+    private void sendDatagram(ByteBuf buf) {
+        bytesSent += buf.readableBytes();
+        server.sendDatagram(buf, datagramAddress);
+    }
+
+    /**
+     * Releases the resources held by this session once it has ended.
+     */
+    void close() {
+        if (out != null) {
+            out.release();
+            out = null;
+        }
+
+        if (deflater != null)
+            deflater.end();
+    }
+
+    boolean isAttached() {
+        return channel != null;
+    }
+
+    Channel getChannel() {
+        return channel;
+    }
+
+    long getDetachTime() {
+        return detachTime;
+    }
+
+    int getCapabilities() {
+        return capabilities;
+    }
+
+    int getPlayer() {
+        return player;
+    }
+
+    long getToken() {
+        return token;
+    }
+
+    int getDatagramToken() {
+        return datagramToken;
+    }
+
+    long getBytesSent() {
+        return bytesSent;
+    }
+}
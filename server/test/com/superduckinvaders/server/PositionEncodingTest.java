@@ -0,0 +1,188 @@
+package com.superduckinvaders.server;
+
+import com.superduckinvaders.game.Engine;
+import com.superduckinvaders.game.EngineConfiguration;
+import com.superduckinvaders.game.NullEngineListener;
+import com.superduckinvaders.game.World;
+import com.superduckinvaders.game.entity.EntityStore;
+import com.superduckinvaders.game.net.Capabilities;
+import com.superduckinvaders.game.net.PositionCodec;
+import com.superduckinvaders.game.net.packets.InboundPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a session's packets through a client, checking that every entity ends up where the server put it with
+ * quantized and unquantized positions alike, and compares the bytes each encoding takes for the same session.
+ */
+public class PositionEncodingTest {
+
+    private static final int ENTITIES = 300, TICKS = 100;
+
+    /**
+     * Plays a session with a world that is the same every time, checking the client's entities after every tick.
+     *
+     * @param quantized   whether to negotiate quantized positions
+     * @param snapshots   whether the server sends SNAPSHOT packets rather than a packet per change
+     * @param directState whether the client decodes into the entity state table
+     * @return the number of bytes the server sent
+     */
+    private static long play(boolean quantized, boolean snapshots, boolean directState) {
+        ServerConfiguration serverConfig = new ServerConfiguration();
+        serverConfig.entities = ENTITIES;
+        serverConfig.snapshots = snapshots;
+        serverConfig.seed = 1;
+
+        EngineConfiguration config = new EngineConfiguration();
+        config.directState = directState;
+        config.quantizedPositions = quantized;
+        // Apply everything each frame, rather than carrying some over, so the client is always up to date.
+        config.inboundBudget = 0;
+
+        LoadServer server = new LoadServer(serverConfig);
+        World world = new World(config);
+        Engine engine = new Engine(world, new NullEngineListener(), "localhost", 0, config);
+
+        try {
+            EmbeddedChannel client = new EmbeddedChannel(engine.newPipelineHandlers());
+            EmbeddedChannel connection = new EmbeddedChannel();
+
+            int capabilities = engine.getOfferedCapabilities() & Capabilities.QUANTIZED_POSITIONS;
+
+            ByteBuf handshake = Unpooled.buffer();
+            handshake.writeByte(InboundPacket.Type.HANDSHAKE.getOpcode());
+            handshake.writeInt(capabilities);
+            handshake.writeShort(serverConfig.tickRate);
+            client.writeInbound(handshake);
+            engine.updateInbound();
+
+            assertEquals(capabilities, engine.getCapabilities());
+
+            ServerWorld serverWorld = new ServerWorld(serverConfig);
+
+            for (int i = 0; i < ENTITIES; i++) {
+                serverWorld.spawnScripted();
+            }
+
+            Session session = new Session(server, 1, 1);
+            session.join(connection, capabilities, serverWorld);
+            serverWorld.endTick();
+
+            deliver(connection, client, engine);
+
+            for (int tick = 0; tick < TICKS; tick++) {
+                serverWorld.tick();
+                session.writeUpdates(serverWorld);
+                serverWorld.endTick();
+
+                deliver(connection, client, engine);
+                assertSamePositions(serverWorld, world, quantized);
+            }
+
+            session.close();
+            connection.finish();
+            client.finish();
+
+            return session.getBytesSent();
+        } finally {
+            engine.dispose();
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Passes everything the server sent to the client, and applies it.
+     */
+    private static void deliver(EmbeddedChannel connection, EmbeddedChannel client, Engine engine) {
+        Object msg;
+
+        while ((msg = connection.readOutbound()) != null) {
+            client.writeInbound(msg);
+        }
+
+        client.runPendingTasks();
+
+        while ((msg = client.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+
+        engine.updateInbound();
+    }
+
+    private static void assertSamePositions(ServerWorld serverWorld, World world, boolean quantized) {
+        EntityStore store = world.getEntityStore();
+
+        // Quantized positions are a fraction of a pixel out, and unquantized snapshots carry floats.
+        double precision = quantized ? 0.5 / PositionCodec.SCALE : 1e-3;
+        int alive = 0;
+
+        for (int id = 0; id < serverWorld.getLimit(); id++) {
+            if (!serverWorld.isAlive(id))
+                continue;
+
+            alive++;
+
+            int slot = store.getSlot(id);
+
+            assertTrue("entity " + id + " missing", slot != -1);
+
+            // Catch up with the latest position received rather than drawing behind it.
+            store.interpolate(slot, Long.MAX_VALUE);
+
+            assertEquals("x of entity " + id, serverWorld.getX(id), store.getX(slot), precision);
+            assertEquals("y of entity " + id, serverWorld.getY(id), store.getY(slot), precision);
+            assertEquals("direction of entity " + id, serverWorld.getDirection(id), store.getDirection(slot).ordinal());
+            assertEquals("texture of entity " + id, serverWorld.getTexture(id), store.getTexture(slot));
+        }
+
+        assertEquals(alive, store.size());
+    }
+
+    @Test
+    public void quantizedSnapshotsDecode() {
+        play(true, true, false);
+    }
+
+    @Test
+    public void quantizedSnapshotsDecodeIntoStateTable() {
+        play(true, true, true);
+    }
+
+    @Test
+    public void positionDeltasDecode() {
+        play(true, false, false);
+    }
+
+    @Test
+    public void positionDeltasDecodeIntoStateTable() {
+        play(true, false, true);
+    }
+
+    @Test
+    public void unquantizedSnapshotsDecode() {
+        play(false, true, false);
+    }
+
+    @Test
+    public void unquantizedPositionsDecode() {
+        play(false, false, false);
+    }
+
+    /**
+     * The same session in each encoding, the join burst of CREATEs included.
+     */
+    @Test
+    public void quantizedEncodingIsSmaller() {
+        long snapshots = play(false, true, false), quantizedSnapshots = play(true, true, false);
+        long packets = play(false, false, false), deltas = play(true, false, false);
+
+        assertTrue(quantizedSnapshots + " >= " + snapshots, quantizedSnapshots < snapshots);
+        assertTrue(deltas + " >= " + packets, deltas < packets);
+    }
+}
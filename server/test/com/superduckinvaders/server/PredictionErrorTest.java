@@ -0,0 +1,85 @@
+package com.superduckinvaders.server;
+
+import com.superduckinvaders.game.EngineConfiguration;
+import com.superduckinvaders.game.bot.Bot;
+import com.superduckinvaders.game.metrics.HistogramWindow;
+import com.superduckinvaders.game.net.Capabilities;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a bot against a load server that delays everything it sends, and measures how far the player's predicted
+ * position was from the authoritative one at each reconciliation.
+ */
+public class PredictionErrorTest {
+
+    private static final int LATENCY = 100, SECONDS = 5, FRAME_RATE = 60;
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void predictionTracksServerUnderLatency() throws Exception {
+        ServerConfiguration serverConfig = ServerConfiguration.parse(new String[]{"--latency=" + LATENCY});
+        serverConfig.port = freePort();
+        serverConfig.entities = 100;
+        serverConfig.capabilities &= ~Capabilities.DATAGRAMS;
+
+        EngineConfiguration config = new EngineConfiguration();
+        config.clientPrediction = true;
+        config.inputTickRate = serverConfig.tickRate;
+        config.playerSpeed = serverConfig.playerSpeed;
+
+        LoadServer server = new LoadServer(serverConfig);
+        Bot bot = null;
+
+        try {
+            server.start();
+
+            bot = new Bot(0, "localhost", serverConfig.port, config, null);
+            HistogramWindow errors = new HistogramWindow(bot.getEngine().getMetrics().getPredictionError());
+
+            bot.connect();
+
+            long frameLength = 1000000000L / FRAME_RATE;
+            long lastFrame = System.nanoTime(), end = lastFrame + SECONDS * 1000000000L;
+
+            while (System.nanoTime() - end < 0) {
+                Thread.sleep(frameLength / 1000000);
+
+                long now = System.nanoTime();
+                bot.update((now - lastFrame) / 1e9f);
+                lastFrame = now;
+            }
+
+            assertNull(bot.getDisconnectMessage());
+
+            errors.update();
+
+            System.out.printf("%d ms latency: %d reconciliations, prediction error p50 %.2f p99 %.2f max %.2f px%n",
+                    LATENCY, errors.getCount(), errors.percentile(0.5) / 100.0, errors.percentile(0.99) / 100.0,
+                    errors.percentile(1) / 100.0);
+
+            // Most positions must come back within a pixel of the prediction; a few miss when input arrives a tick late.
+            assertTrue("no reconciliations", errors.getCount() > SECONDS * serverConfig.tickRate / 4);
+            assertTrue("median error " + errors.percentile(0.5), errors.percentile(0.5) < 100);
+        } finally {
+            if (bot != null)
+                bot.dispose();
+
+            server.shutdown();
+        }
+    }
+}